@@ -13,13 +13,13 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.caiyunweather.adapter.HourlyWeatherAdapter;
+import com.example.caiyunweather.api.HttpClientProvider;
+import com.example.caiyunweather.model.HourlyForecast;
 import com.example.caiyunweather.model.HourlyWeather;
+import com.example.caiyunweather.repository.ForecastRepository;
 import com.example.caiyunweather.utils.DeepSeekFunctionCaller;
+import com.example.caiyunweather.utils.LocationResolver;
 import com.example.caiyunweather.utils.McpServer;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -32,6 +32,7 @@ public class MainActivity extends AppCompatActivity {
     private static final String LOCATION = "北京"; // 默认位置
     private static final int METHOD_DEEPSEEK = 0;
     private static final int METHOD_MCP = 1;
+    private static final int METHOD_DIRECT = 2;
     
     private RecyclerView weatherRecyclerView;
     private ProgressBar progressBar;
@@ -42,6 +43,8 @@ public class MainActivity extends AppCompatActivity {
     private HourlyWeatherAdapter adapter;
     private List<HourlyWeather> hourlyWeatherList;
     private McpServer mcpServer;
+    // 流式模式下已经收到的模型文本
+    private final StringBuilder streamingText = new StringBuilder();
     private int currentMethod = METHOD_DEEPSEEK; // 默认使用DeepSeek方式
     
     @Override
@@ -51,6 +54,9 @@ public class MainActivity extends AppCompatActivity {
         
         // 设置应用上下文
         DeepSeekFunctionCaller.setAppContext(this);
+        LocationResolver.setAppContext(this);
+        // 初始化网络层的磁盘缓存
+        HttpClientProvider.getInstance().init(this);
         
         initViews();
         initRecyclerView();
@@ -98,10 +104,15 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private void toggleMethod() {
+        // 按 DeepSeek -> MCP -> 直连 的顺序循环切换
         if (currentMethod == METHOD_DEEPSEEK) {
             currentMethod = METHOD_MCP;
-            toggleMethodButton.setText("切换到DeepSeek模式");
+            toggleMethodButton.setText("切换到直连模式");
             currentMethodText.setText("当前使用: MCP模式");
+        } else if (currentMethod == METHOD_MCP) {
+            currentMethod = METHOD_DIRECT;
+            toggleMethodButton.setText("切换到DeepSeek模式");
+            currentMethodText.setText("当前使用: 直连模式");
         } else {
             currentMethod = METHOD_DEEPSEEK;
             toggleMethodButton.setText("切换到MCP模式");
@@ -113,193 +124,83 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private void loadWeatherData() {
-        showLoading();
+        // 内存中已有该位置的预报时先立即展示，再由本次请求刷新
+        double[] coordinates = LocationResolver.resolve(LOCATION);
+        ForecastRepository.Forecast cached = coordinates != null
+                ? ForecastRepository.getInstance().peek(coordinates[0], coordinates[1]) : null;
+        if (cached != null) {
+            showForecast(cached.getHourlyForecast());
+        } else {
+            showLoading();
+        }
+        streamingText.setLength(0);
         
-        if (currentMethod == METHOD_DEEPSEEK) {
-            // 使用DeepSeek Function Calling获取天气数据
-            DeepSeekFunctionCaller.getWeatherForecast(LOCATION, false, new DeepSeekFunctionCaller.WeatherCallback() {
-                @Override
-                public void onSuccess(String weatherData) {
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            parseWeatherData(weatherData);
-                        }
-                    });
-                }
-                
-                @Override
-                public void onError(String error) {
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            showError(error);
-                        }
-                    });
-                }
-            });
+        // 使用DeepSeek Function Calling、MCP模式或直连模式获取天气数据
+        String query;
+        DeepSeekFunctionCaller.Mode mode;
+        if (currentMethod == METHOD_MCP) {
+            query = LOCATION;
+            mode = DeepSeekFunctionCaller.Mode.MCP;
+        } else if (currentMethod == METHOD_DIRECT) {
+            // 结构化请求由本地意图解析直接识别位置，不经过DeepSeek
+            query = LOCATION + "未来24小时的天气预报";
+            mode = DeepSeekFunctionCaller.Mode.DIRECT;
         } else {
-            // 使用MCP模式获取天气数据
-            DeepSeekFunctionCaller.getWeatherForecast(LOCATION, true, new DeepSeekFunctionCaller.WeatherCallback() {
-                @Override
-                public void onSuccess(String weatherData) {
-                    runOnUiThread(() -> parseWeatherData(weatherData));
-                }
-                
-                @Override
-                public void onError(String error) {
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            showError(error);
-                        }
-                    });
-                }
-            });
+            query = LOCATION;
+            mode = DeepSeekFunctionCaller.Mode.DEEPSEEK;
         }
-    }
-    
-    private void parseWeatherData(String weatherData) {
-        try {
-            // 首先尝试解析为JSON格式（来自彩云天气API的真实数据）
-            JsonElement responseElement;
-            try {
-                Gson gson = new Gson();
-                responseElement = gson.fromJson(weatherData, JsonElement.class);
-                
-                if (responseElement.isJsonObject()) {
-                    JsonObject response = responseElement.getAsJsonObject();
-                    
-                    // 检查是否有status字段，确认是彩云天气API的数据
-                    if (response.has("status") && "ok".equals(response.get("status").getAsString())) {
-                        JsonObject result = response.getAsJsonObject("result");
-                        JsonObject hourly = result.getAsJsonObject("hourly");
-                        
-                        JsonArray temperatures = hourly.getAsJsonArray("temperature");
-                        JsonArray skycons = hourly.getAsJsonArray("skycon");
-                        
-                        hourlyWeatherList.clear();
-                        
-                        // 解析24小时天气数据
-                        int count = Math.min(24, Math.min(temperatures.size(), skycons.size()));
-                        
-                        for (int i = 0; i < count; i++) {
-                            double temperature = temperatures.get(i).getAsJsonObject().get("value").getAsDouble();
-                            JsonObject skycon = skycons.get(i).getAsJsonObject();
-                            
-                            // 解析时间
-                            String timeStr = skycon.get("datetime").getAsString();
-                            String formattedTime = "";
-                            try {
-                                // 从ISO 8601格式的时间字符串中提取小时
-                                String[] parts = timeStr.split("T");
-                                if (parts.length > 1) {
-                                    String timePart = parts[1];
-                                    String[] timeParts = timePart.split(":");
-                                    if (timeParts.length > 1) {
-                                        formattedTime = timeParts[0] + ":00";
-                                    } else {
-                                        formattedTime = "未知时间";
-                                    }
-                                } else {
-                                    formattedTime = "未知时间";
-                                }
-                            } catch (Exception e) {
-                                formattedTime = "未知时间";
-                            }
-                            
-                            String weatherValue = skycon.get("value").getAsString();
-                            String weather = getWeatherDescription(weatherValue);
-                            String weatherIcon = weatherValue;
-                            
-                            HourlyWeather hourlyWeather = new HourlyWeather(
-                                    formattedTime,
-                                    temperature,
-                                    weather,
-                                    weatherIcon,
-                                    60.0,  // 模拟湿度数据
-                                    1013.0, // 模拟气压数据
-                                    5.0    // 模拟风速数据
-                            );
-                            
-                            hourlyWeatherList.add(hourlyWeather);
-                        }
-                        
-                        adapter.updateData(hourlyWeatherList);
-                        showData();
-                        return;
-                    } else if (response.has("hourly")) {
-                        // 可能是直接返回的彩云天气数据结构
-                        JsonObject hourly = response.getAsJsonObject("hourly");
-                        if (hourly != null && hourly.has("temperature") && hourly.has("skycon")) {
-                            JsonArray temperatures = hourly.getAsJsonArray("temperature");
-                            JsonArray skycons = hourly.getAsJsonArray("skycon");
-                            
-                            hourlyWeatherList.clear();
-                            
-                            // 解析24小时天气数据
-                            int count = Math.min(24, Math.min(temperatures.size(), skycons.size()));
-                            
-                            for (int i = 0; i < count; i++) {
-                                // 修改temperature的获取方式
-                                double temperature = temperatures.get(i).getAsJsonObject().get("value").getAsDouble();
-                                JsonObject skycon = skycons.get(i).getAsJsonObject();
-                                
-                                // 解析时间
-                                String timeStr = skycon.get("datetime").getAsString();
-                                String formattedTime = "";
-                                try {
-                                    // 从ISO 8601格式的时间字符串中提取小时
-                                    String[] parts = timeStr.split("T");
-                                    if (parts.length > 1) {
-                                        String timePart = parts[1];
-                                        String[] timeParts = timePart.split(":");
-                                        if (timeParts.length > 1) {
-                                            formattedTime = timeParts[0] + ":00";
-                                        } else {
-                                            formattedTime = "未知时间";
-                                        }
-                                    } else {
-                                        formattedTime = "未知时间";
-                                    }
-                                } catch (Exception e) {
-                                    formattedTime = "未知时间";
-                                }
-                                
-                                String weatherValue = skycon.get("value").getAsString();
-                                String weather = getWeatherDescription(weatherValue);
-                                String weatherIcon = weatherValue;
-                                
-                                HourlyWeather hourlyWeather = new HourlyWeather(
-                                        formattedTime,
-                                        temperature,
-                                        weather,
-                                        weatherIcon,
-                                        60.0,  // 模拟湿度数据
-                                        1013.0, // 模拟气压数据
-                                        5.0    // 模拟风速数据
-                                );
-                                
-                                hourlyWeatherList.add(hourlyWeather);
-                            }
-                            
-                            adapter.updateData(hourlyWeatherList);
-                            showData();
-                            return;
-                        }
+        DeepSeekFunctionCaller.getWeatherForecast(query, mode, new DeepSeekFunctionCaller.WeatherCallback() {
+            @Override
+            public void onForecast(HourlyForecast forecast) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        showForecast(forecast);
                     }
-                }
-            } catch (Exception e) {
-                // JSON解析失败，尝试文本解析
-                parseTextWeatherData(weatherData);
-                return;
+                });
             }
             
-            // 如果JSON解析失败，尝试文本解析
-            parseTextWeatherData(weatherData);
-        } catch (Exception e) {
-            showError("解析天气数据失败: " + e.getMessage());
-        }
+            @Override
+            public void onText(String content) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        parseTextWeatherData(content);
+                    }
+                });
+            }
+            
+            @Override
+            public void onTextDelta(String delta) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        showStreamingText(delta);
+                    }
+                });
+            }
+            
+            @Override
+            public void onError(String error) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        showError(error);
+                    }
+                });
+            }
+        });
+    }
+    
+    /**
+     * 展示逐小时预报
+     * @param forecast 已解析的逐小时预报
+     */
+    private void showForecast(HourlyForecast forecast) {
+        hourlyWeatherList.clear();
+        hourlyWeatherList.addAll(forecast.getHourly());
+        adapter.updateData(hourlyWeatherList);
+        showData();
     }
     
     /**
@@ -363,23 +264,6 @@ public class MainActivity extends AppCompatActivity {
         }
     }
     
-    private String getWeatherDescription(String weatherValue) {
-        switch (weatherValue) {
-            case "CLEAR_DAY":
-                return "晴天";
-            case "CLOUDY":
-                return "多云";
-            case "RAIN":
-                return "雨天";
-            case "PARTLY_CLOUDY":
-                return "局部多云";
-            case "THUNDERSTORM":
-                return "雷雨";
-            default:
-                return "未知";
-        }
-    }
-    
     private String getWeatherIconByCondition(String condition) {
         switch (condition) {
             case "晴天":
@@ -413,6 +297,19 @@ public class MainActivity extends AppCompatActivity {
         weatherRecyclerView.setVisibility(View.VISIBLE);
     }
     
+    /**
+     * 流式模式下实时显示模型输出的文本，已有预报展示时不覆盖
+     */
+    private void showStreamingText(String delta) {
+        streamingText.append(delta);
+        if (weatherRecyclerView.getVisibility() == View.VISIBLE) {
+            return;
+        }
+        progressBar.setVisibility(View.GONE);
+        errorText.setVisibility(View.VISIBLE);
+        errorText.setText(streamingText);
+    }
+    
     private void showError(String message) {
         progressBar.setVisibility(View.GONE);
         errorText.setVisibility(View.VISIBLE);
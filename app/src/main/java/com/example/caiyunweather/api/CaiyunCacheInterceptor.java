@@ -0,0 +1,116 @@
+package com.example.caiyunweather.api;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 彩云天气响应缓存拦截器
+ * 新鲜期内直接返回磁盘缓存；过期后携带ETag/Last-Modified发起条件请求；
+ * 网络不可用、服务端错误或配额用完时返回过期数据
+ */
+public class CaiyunCacheInterceptor implements Interceptor {
+    private static final String TAG = "CaiyunCacheInterceptor";
+    private static final long FRESH_MILLIS = 5 * 60 * 1000;  // 5分钟内的缓存视为新鲜
+    private static final String DEFAULT_CONTENT_TYPE = "application/json";
+
+    private volatile ForecastDiskCache cache;
+
+    /**
+     * 设置磁盘缓存，未设置时拦截器直接放行
+     */
+    public void setCache(ForecastDiskCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        ForecastDiskCache cache = this.cache;
+        if (cache == null || !"GET".equals(request.method())) {
+            return chain.proceed(request);
+        }
+        String key = ForecastDiskCache.keyFor(request.url());
+        if (key == null) {
+            return chain.proceed(request);
+        }
+
+        ForecastDiskCache.Entry cached = cache.get(key);
+        if (cached != null && System.currentTimeMillis() - cached.getStoredAt() < FRESH_MILLIS) {
+            Log.d(TAG, "命中新鲜缓存: " + request.url().encodedPath());
+            return buildCachedResponse(request, cached, false);
+        }
+
+        // 有缓存时发起条件请求
+        Request.Builder builder = request.newBuilder();
+        if (cached != null) {
+            if (cached.getEtag() != null) {
+                builder.header("If-None-Match", cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                builder.header("If-Modified-Since", cached.getLastModified());
+            }
+        }
+
+        Response response;
+        try {
+            response = chain.proceed(builder.build());
+        } catch (IOException e) {
+            if (cached != null) {
+                Log.w(TAG, "网络不可用，返回过期缓存: " + e.getMessage());
+                return buildCachedResponse(request, cached, true);
+            }
+            throw e;
+        }
+
+        if (response.code() == 304 && cached != null) {
+            response.close();
+            cache.touch(key);
+            Log.d(TAG, "缓存重新验证通过");
+            return buildCachedResponse(request, cached, false);
+        }
+
+        if (response.isSuccessful() && response.body() != null) {
+            ResponseBody body = response.body();
+            MediaType contentType = body.contentType();
+            byte[] bytes = body.bytes();
+            cache.put(key, bytes, response.header("ETag"), response.header("Last-Modified"),
+                    contentType != null ? contentType.toString() : null);
+            return response.newBuilder()
+                    .body(ResponseBody.create(bytes, contentType))
+                    .build();
+        }
+
+        // 服务端错误或配额用完时返回过期数据
+        if ((response.code() >= 500 || response.code() == 429) && cached != null) {
+            response.close();
+            Log.w(TAG, "服务端错误 " + response.code() + "，返回过期缓存");
+            return buildCachedResponse(request, cached, true);
+        }
+        return response;
+    }
+
+    private Response buildCachedResponse(Request request, ForecastDiskCache.Entry entry, boolean stale) {
+        String contentType = entry.getContentType() != null ? entry.getContentType() : DEFAULT_CONTENT_TYPE;
+        Response.Builder builder = new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .header("Content-Type", contentType)
+                .body(ResponseBody.create(entry.getBody(), MediaType.get(contentType)))
+                .sentRequestAtMillis(entry.getStoredAt())
+                .receivedResponseAtMillis(System.currentTimeMillis());
+        if (stale) {
+            builder.header("Warning", "110 - \"Response is Stale\"");
+        }
+        return builder.build();
+    }
+}
@@ -6,6 +6,7 @@ import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.GET;
 import retrofit2.http.Path;
+import retrofit2.http.Tag;
 
 public interface CaiyunWeatherApi {
     /**
@@ -25,14 +26,16 @@ public interface CaiyunWeatherApi {
     /**
      * 获取天气预报数据（原始响应）
      * @param token API token
-     * @param longitude 经度
-     * @param latitude 纬度
+     * @param longitude 经度，已按预报网格格式化
+     * @param latitude 纬度，已按预报网格格式化
+     * @param permit 发出请求前通过RateLimiter.acquire领取的许可，为null时由限流拦截器领取
      * @return 天气预报数据原始响应
      */
     @GET("v2.5/{token}/{longitude},{latitude}/weather.json")
     Call<ResponseBody> getWeatherForecastRaw(
             @Path("token") String token,
-            @Path("longitude") double longitude,
-            @Path("latitude") double latitude
+            @Path("longitude") String longitude,
+            @Path("latitude") String latitude,
+            @Tag RateLimiter.Permit permit
     );
 }
\ No newline at end of file
@@ -0,0 +1,138 @@
+package com.example.caiyunweather.api;
+
+import com.google.gson.JsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * 预编译的chat/completions请求模板
+ * 模型、系统提示词、工具定义等固定部分只序列化一次为字节，
+ * 每次请求只对用户消息做JSON转义后拼接，直接写入请求流，不再构建JsonObject树
+ */
+public final class ChatRequestTemplate {
+    /**
+     * 编译模板时用户消息位置的占位内容
+     */
+    public static final String USER_CONTENT_PLACEHOLDER = "__USER_CONTENT__";
+    private static final MediaType JSON = MediaType.parse("application/json");
+    private static final byte[] STREAM_SUFFIX = ",\"stream\":true}".getBytes(StandardCharsets.UTF_8);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] prefix;  // 用户消息之前的部分，包含左引号
+    private final byte[] suffix;  // 用户消息之后的部分，包含右引号，不包含最后的}
+
+    private ChatRequestTemplate(byte[] prefix, byte[] suffix) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+
+    /**
+     * 编译请求模板
+     * @param requestBody 完整的请求体，用户消息内容为{@link #USER_CONTENT_PLACEHOLDER}，不包含stream字段
+     * @throws IllegalArgumentException 请求体中占位内容不是恰好出现一次
+     */
+    public static ChatRequestTemplate compile(JsonObject requestBody) {
+        String json = requestBody.toString();
+        String placeholder = "\"" + USER_CONTENT_PLACEHOLDER + "\"";
+        int index = json.indexOf(placeholder);
+        if (index < 0 || json.indexOf(placeholder, index + 1) >= 0 || !json.endsWith("}")) {
+            throw new IllegalArgumentException("请求模板中的用户消息占位必须恰好出现一次");
+        }
+        String prefix = json.substring(0, index + 1);
+        String suffix = json.substring(index + placeholder.length() - 1, json.length() - 1);
+        return new ChatRequestTemplate(prefix.getBytes(StandardCharsets.UTF_8), suffix.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 生成请求体
+     * 返回的请求体可以重复写出，重试时直接复用同一个对象
+     * @param userContent 用户消息
+     * @param stream 是否请求流式响应
+     */
+    public RequestBody newBody(String userContent, boolean stream) {
+        return new TemplateBody(escape(userContent), stream);
+    }
+
+    private class TemplateBody extends RequestBody {
+        private final byte[] userContent;
+        private final boolean stream;
+
+        TemplateBody(byte[] userContent, boolean stream) {
+            this.userContent = userContent;
+            this.stream = stream;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JSON;
+        }
+
+        @Override
+        public long contentLength() {
+            return prefix.length + userContent.length + suffix.length + (stream ? STREAM_SUFFIX.length : 1);
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            sink.write(prefix);
+            sink.write(userContent);
+            sink.write(suffix);
+            if (stream) {
+                sink.write(STREAM_SUFFIX);
+            } else {
+                sink.writeByte('}');
+            }
+        }
+    }
+
+    /**
+     * 按JSON字符串规则转义，结果不含两侧引号
+     */
+    static byte[] escape(String value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(value.length() + 16);
+        StringBuilder ascii = new StringBuilder(8);
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c == '"') {
+                replacement = "\\\"";
+            } else if (c == '\\') {
+                replacement = "\\\\";
+            } else if (c == '\n') {
+                replacement = "\\n";
+            } else if (c == '\r') {
+                replacement = "\\r";
+            } else if (c == '\t') {
+                replacement = "\\t";
+            } else if (c < 0x20) {
+                ascii.setLength(0);
+                ascii.append("\\u").append(HEX[(c >> 12) & 0xf]).append(HEX[(c >> 8) & 0xf])
+                        .append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+                replacement = ascii.toString();
+            } else {
+                continue;
+            }
+            writeUtf8(out, value.substring(start, i));
+            writeUtf8(out, replacement);
+            start = i + 1;
+        }
+        if (out.size() == 0) {
+            // 没有需要转义的字符
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+        writeUtf8(out, value.substring(start));
+        return out.toByteArray();
+    }
+
+    private static void writeUtf8(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.caiyunweather.api;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+import okhttp3.HttpUrl;
+import okio.ByteString;
+
+/**
+ * 彩云天气预报磁盘缓存
+ * 按去掉token后的URL作为键，容量受限，超出后按最近最少使用淘汰
+ */
+public class ForecastDiskCache {
+    private static final String TAG = "ForecastDiskCache";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_CONTENT_TYPE = "contentType";
+    private static final String KEY_STORED_AT = "storedAt";
+
+    private final File directory;
+    private final long maxSize;
+
+    public ForecastDiskCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "创建缓存目录失败: " + directory);
+        }
+    }
+
+    /**
+     * 缓存条目
+     */
+    public static class Entry {
+        private final byte[] body;
+        private final String etag;
+        private final String lastModified;
+        private final String contentType;
+        private final long storedAt;
+
+        Entry(byte[] body, String etag, String lastModified, String contentType, long storedAt) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.storedAt = storedAt;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public long getStoredAt() {
+            return storedAt;
+        }
+    }
+
+    /**
+     * 计算缓存键
+     * 彩云天气的URL形如 v2.5/{token}/{经度},{纬度}/weather.json，去掉token，坐标按URL中的原文参与计算。
+     * 坐标已由ForecastGrid吸附到网格中心，这里不能再取整，否则相邻网格的中心（例如73.075和73.085）
+     * 会得到同一个键，互相读到对方的预报
+     * @return 缓存键，无法识别的URL返回null
+     */
+    public static String keyFor(HttpUrl url) {
+        List<String> segments = url.pathSegments();
+        if (segments.size() < 4) {
+            return null;
+        }
+        String location = segments.get(2);
+        String[] coordinates = location.split(",");
+        if (coordinates.length != 2) {
+            return null;
+        }
+        try {
+            Double.parseDouble(coordinates[0]);
+            Double.parseDouble(coordinates[1]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        key.append(url.host()).append('/').append(segments.get(0)).append('/').append(location);
+        for (int i = 3; i < segments.size(); i++) {
+            key.append('/').append(segments.get(i));
+        }
+        if (url.encodedQuery() != null) {
+            key.append('?').append(url.encodedQuery());
+        }
+        return ByteString.encodeUtf8(key.toString()).md5().hex();
+    }
+
+    /**
+     * 读取缓存条目，同时刷新其访问时间
+     */
+    public synchronized Entry get(String key) {
+        File bodyFile = new File(directory, key + BODY_SUFFIX);
+        File metaFile = new File(directory, key + META_SUFFIX);
+        if (!bodyFile.exists() || !metaFile.exists()) {
+            return null;
+        }
+        try {
+            Properties meta = new Properties();
+            try (InputStream in = new FileInputStream(metaFile)) {
+                meta.load(in);
+            }
+            byte[] body = readFully(bodyFile);
+            long now = System.currentTimeMillis();
+            bodyFile.setLastModified(now);
+            metaFile.setLastModified(now);
+            return new Entry(body,
+                    meta.getProperty(KEY_ETAG),
+                    meta.getProperty(KEY_LAST_MODIFIED),
+                    meta.getProperty(KEY_CONTENT_TYPE),
+                    Long.parseLong(meta.getProperty(KEY_STORED_AT, "0")));
+        } catch (IOException | NumberFormatException e) {
+            Log.w(TAG, "读取缓存失败: " + key, e);
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * 写入缓存条目，写入后按容量淘汰最久未使用的条目
+     */
+    public synchronized void put(String key, byte[] body, String etag, String lastModified, String contentType) {
+        Properties meta = new Properties();
+        if (etag != null) {
+            meta.setProperty(KEY_ETAG, etag);
+        }
+        if (lastModified != null) {
+            meta.setProperty(KEY_LAST_MODIFIED, lastModified);
+        }
+        if (contentType != null) {
+            meta.setProperty(KEY_CONTENT_TYPE, contentType);
+        }
+        meta.setProperty(KEY_STORED_AT, String.valueOf(System.currentTimeMillis()));
+        try {
+            // 先写临时文件再重命名，避免读到写了一半的条目
+            File tmpBody = new File(directory, key + BODY_SUFFIX + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmpBody)) {
+                out.write(body);
+            }
+            File tmpMeta = new File(directory, key + META_SUFFIX + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmpMeta)) {
+                meta.store(out, null);
+            }
+            if (!tmpBody.renameTo(new File(directory, key + BODY_SUFFIX))
+                    || !tmpMeta.renameTo(new File(directory, key + META_SUFFIX))) {
+                throw new IOException("重命名缓存文件失败");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "写入缓存失败: " + key, e);
+            remove(key);
+            return;
+        }
+        trimToSize();
+    }
+
+    /**
+     * 刷新条目的存储时间（条件请求返回304时调用）
+     */
+    public synchronized void touch(String key) {
+        Entry entry = get(key);
+        if (entry != null) {
+            put(key, entry.getBody(), entry.getEtag(), entry.getLastModified(), entry.getContentType());
+        }
+    }
+
+    public synchronized void remove(String key) {
+        new File(directory, key + BODY_SUFFIX).delete();
+        new File(directory, key + META_SUFFIX).delete();
+    }
+
+    /**
+     * 当前缓存占用的字节数
+     */
+    public synchronized long size() {
+        long total = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    private void trimToSize() {
+        File[] bodies = directory.listFiles((dir, name) -> name.endsWith(BODY_SUFFIX));
+        if (bodies == null) {
+            return;
+        }
+        long total = size();
+        if (total <= maxSize) {
+            return;
+        }
+        // 按访问时间从旧到新淘汰
+        Arrays.sort(bodies, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File body : bodies) {
+            if (total <= maxSize) {
+                break;
+            }
+            String key = body.getName().substring(0, body.getName().length() - BODY_SUFFIX.length());
+            File meta = new File(directory, key + META_SUFFIX);
+            total -= body.length() + meta.length();
+            remove(key);
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    throw new IOException("缓存文件被截断: " + file);
+                }
+                offset += read;
+            }
+        }
+        return data;
+    }
+}
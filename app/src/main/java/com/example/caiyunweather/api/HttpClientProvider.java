@@ -0,0 +1,148 @@
+package com.example.caiyunweather.api;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.logging.HttpLoggingInterceptor;
+
+/**
+ * 全局共享的HTTP客户端
+ * 所有网络路径共用同一个连接池和调度器，各端点的超时配置通过newBuilder()派生，
+ * 这样对api.deepseek.com和api.caiyunapp.com的重复请求可以复用已建立的TLS/HTTP2连接。
+ * 彩云天气和DeepSeek客户端都经过共享的RateLimiter，Retrofit、直接OkHttp调用和MCP服务器的上游请求共用同一组令牌桶
+ */
+public class HttpClientProvider {
+    private static final int MAX_IDLE_CONNECTIONS = 8;      // 连接池最大空闲连接数
+    private static final long KEEP_ALIVE_MINUTES = 5;       // 空闲连接保活时间
+    private static final int MAX_REQUESTS = 32;             // 调度器最大并发请求数
+    private static final int MAX_REQUESTS_PER_HOST = 6;     // 单个主机最大并发请求数
+    private static final String FORECAST_CACHE_DIR = "caiyun-forecast";
+    private static final long FORECAST_CACHE_SIZE = 10 * 1024 * 1024;  // 预报磁盘缓存上限10MB
+    private static final String LOG_TAG = "OkHttp";
+    // 彩云天气URL路径中的Token（/v2.5/{token}/...），写入日志前替换掉
+    private static final Pattern CAIYUN_TOKEN_IN_PATH = Pattern.compile("(api\\.caiyunapp\\.com/v[^/]+/)[^/]+");
+
+    private static HttpClientProvider instance;
+    private final OkHttpClient baseClient;
+    private final OkHttpClient caiyunClient;
+    private final OkHttpClient deepSeekClient;
+    private final OkHttpClient mcpClient;
+    private final CaiyunCacheInterceptor caiyunCacheInterceptor = new CaiyunCacheInterceptor();
+
+    private HttpClientProvider() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        // 基础客户端，持有唯一的连接池和调度器
+        baseClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .retryOnConnectionFailure(true)
+                .build();
+
+        // 日志拦截器只记录请求行、状态码和耗时：不缓冲响应体，彩云天气Token和DeepSeek的key不写入日志
+        HttpLoggingInterceptor loggingInterceptor = new HttpLoggingInterceptor(
+                message -> Log.d(LOG_TAG, CAIYUN_TOKEN_IN_PATH.matcher(message).replaceAll("$1***")));
+        loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BASIC);
+        loggingInterceptor.redactHeader("Authorization");
+
+        RateLimiter rateLimiter = RateLimiter.getInstance();
+
+        // 彩云天气API配置
+        // 缓存拦截器在限流和日志拦截器之前，命中缓存时不占用令牌，也不产生网络日志
+        caiyunClient = baseClient.newBuilder()
+                .addInterceptor(caiyunCacheInterceptor)
+                .addInterceptor(new RateLimitInterceptor(rateLimiter, RateLimiter.PROVIDER_CAIYUN,
+                        RateLimitInterceptor::caiyunKeyOf))
+                .addInterceptor(loggingInterceptor)
+                .connectTimeout(30, TimeUnit.SECONDS)  // 连接超时时间
+                .readTimeout(30, TimeUnit.SECONDS)     // 读取超时时间
+                .writeTimeout(30, TimeUnit.SECONDS)    // 写入超时时间
+                .build();
+
+        // DeepSeek API配置，模型推理耗时较长，使用更长的超时时间
+        deepSeekClient = baseClient.newBuilder()
+                .addInterceptor(new RateLimitInterceptor(rateLimiter, RateLimiter.PROVIDER_DEEPSEEK,
+                        RateLimitInterceptor::bearerKeyOf))
+                .addInterceptor(loggingInterceptor)
+                .connectTimeout(120, TimeUnit.SECONDS)   // 连接超时时间增加到120秒
+                .readTimeout(120, TimeUnit.SECONDS)      // 读取超时时间增加到120秒
+                .writeTimeout(120, TimeUnit.SECONDS)     // 写入超时时间增加到120秒
+                .followRedirects(true)                   // 跟随重定向
+                .followSslRedirects(true)                // 跟随SSL重定向
+                .build();
+
+        // 本地MCP服务器配置（127.0.0.1明文通信）
+        mcpClient = baseClient.newBuilder()
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public static synchronized HttpClientProvider getInstance() {
+        if (instance == null) {
+            instance = new HttpClientProvider();
+        }
+        return instance;
+    }
+
+    /**
+     * 初始化彩云天气预报磁盘缓存，缓存目录位于应用缓存目录下
+     * @param context 应用上下文
+     */
+    public synchronized void init(Context context) {
+        File directory = new File(context.getApplicationContext().getCacheDir(), FORECAST_CACHE_DIR);
+        caiyunCacheInterceptor.setCache(new ForecastDiskCache(directory, FORECAST_CACHE_SIZE));
+    }
+
+    /**
+     * 获取彩云天气API使用的客户端
+     */
+    public OkHttpClient getCaiyunClient() {
+        return caiyunClient;
+    }
+
+    /**
+     * 获取DeepSeek API使用的客户端
+     */
+    public OkHttpClient getDeepSeekClient() {
+        return deepSeekClient;
+    }
+
+    /**
+     * 获取访问本地MCP服务器使用的客户端
+     */
+    public OkHttpClient getMcpClient() {
+        return mcpClient;
+    }
+
+    /**
+     * 获取上游API共享的限流器，可调整速率和读取排队统计
+     */
+    public RateLimiter getRateLimiter() {
+        return RateLimiter.getInstance();
+    }
+
+    /**
+     * 获取共享的连接池
+     */
+    public ConnectionPool getConnectionPool() {
+        return baseClient.connectionPool();
+    }
+
+    /**
+     * 获取共享的调度器
+     */
+    public Dispatcher getDispatcher() {
+        return baseClient.dispatcher();
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.caiyunweather.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 限流拦截器
+ * 异步调用应当在enqueue之前通过RateLimiter.acquire排队，并把得到的许可作为请求的tag，拦截器直接使用许可发出请求；
+ * 没有许可的请求（例如同步调用）在拦截器中领取令牌，令牌不足时在调用线程上等待，等待期间被取消时归还令牌。
+ * 需要等待超过最长排队时间的请求不发出，直接返回本地生成的429响应，调用方按已有的429逻辑处理
+ */
+public class RateLimitInterceptor implements Interceptor {
+    private static final long WAIT_SLICE_MILLIS = 200;  // 排队时检查取消的间隔
+
+    private final RateLimiter limiter;
+    private final String provider;
+    private final KeyExtractor keyExtractor;
+
+    /**
+     * 从请求中取出区分令牌桶的API key
+     */
+    public interface KeyExtractor {
+        String keyOf(Request request);
+    }
+
+    public RateLimitInterceptor(RateLimiter limiter, String provider, KeyExtractor keyExtractor) {
+        this.limiter = limiter;
+        this.provider = provider;
+        this.keyExtractor = keyExtractor;
+    }
+
+    /**
+     * 彩云天气的key在路径中：v2.5/{token}/{经度},{纬度}/weather.json
+     */
+    public static String caiyunKeyOf(Request request) {
+        List<String> segments = request.url().pathSegments();
+        return segments.size() > 1 ? segments.get(1) : null;
+    }
+
+    /**
+     * DeepSeek的key在Authorization请求头中
+     */
+    public static String bearerKeyOf(Request request) {
+        return request.header("Authorization");
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String apiKey = keyExtractor.keyOf(request);
+        RateLimiter.Permit permit = request.tag(RateLimiter.Permit.class);
+        if (permit != null && permit.isRejected()) {
+            return buildThrottledResponse(request);
+        }
+        // 许可已经用过（例如复制出的调用）时按没有许可处理
+        if (permit == null || !permit.use()) {
+            long waitMillis = limiter.reserve(provider, apiKey);
+            if (waitMillis < 0) {
+                return buildThrottledResponse(request);
+            }
+            if (waitMillis > 0) {
+                try {
+                    await(chain, waitMillis);
+                } catch (IOException e) {
+                    limiter.release(provider, apiKey);
+                    throw e;
+                }
+            }
+        }
+        Response response = chain.proceed(request);
+        limiter.onResponse(provider, apiKey, response);
+        return response;
+    }
+
+    private static void await(Chain chain, long waitMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            if (chain.call().isCanceled()) {
+                throw new IOException("Canceled");
+            }
+            try {
+                Thread.sleep(Math.min(remaining, WAIT_SLICE_MILLIS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("限流排队时被中断");
+            }
+        }
+    }
+
+    private Response buildThrottledResponse(Request request) {
+        String body = "{\"error\":\"rate limited locally\",\"provider\":\"" + provider + "\"}";
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(429)
+                .message("Too Many Requests")
+                // 排队已超过最长排队时间，至少这么久之后才有令牌
+                .header("Retry-After", String.valueOf((limiter.getMaxWaitMillis() + 999) / 1000))
+                .body(ResponseBody.create(body, MediaType.get("application/json")))
+                .sentRequestAtMillis(System.currentTimeMillis())
+                .receivedResponseAtMillis(System.currentTimeMillis())
+                .build();
+    }
+}
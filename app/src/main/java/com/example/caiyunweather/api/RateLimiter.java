@@ -0,0 +1,469 @@
+package com.example.caiyunweather.api;
+
+import android.util.Log;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Response;
+
+/**
+ * 上游API的令牌桶限流
+ * 每个服务商的每个API key各有一个令牌桶，请求先领取令牌，令牌不足时排队等待而不是直接发出。
+ * 收到429时按Retry-After暂停并减半速率；响应带有剩余配额（X-RateLimit-Remaining/Reset）时，
+ * 按剩余配额在重置前均匀发放令牌；之后的成功响应逐步恢复到配置的速率。
+ * 异步调用在enqueue之前通过acquire排队，等待期间不占用OkHttp调度器的线程和每个主机的并发名额
+ */
+public class RateLimiter {
+    private static final String TAG = "RateLimiter";
+    public static final String PROVIDER_CAIYUN = "caiyun";
+    public static final String PROVIDER_DEEPSEEK = "deepseek";
+    private static final long DEFAULT_MAX_WAIT_MILLIS = 20000;  // 排队超过该时长的请求直接以429返回
+    private static final long DEFAULT_BACKOFF_MILLIS = 1000;    // 429没有Retry-After时的暂停时长
+    private static final double MIN_RATE_RATIO = 1.0 / 16;      // 速率最低降到配置值的比例
+    private static final double RECOVERY_RATIO = 0.1;           // 每次成功响应恢复配置速率的比例
+    private static final long EPOCH_SECONDS_THRESHOLD = 1000000000L;  // 大于该值的重置时间视为Unix时间戳
+
+    private static RateLimiter instance;
+    private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, Stats> statsByProvider = new ConcurrentHashMap<>();
+    private volatile long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+
+    private RateLimiter() {
+        // 彩云天气按key计费，DeepSeek单次调用耗时长，默认速率较低
+        configure(PROVIDER_CAIYUN, 10, 10);
+        configure(PROVIDER_DEEPSEEK, 2, 5);
+    }
+
+    public static synchronized RateLimiter getInstance() {
+        if (instance == null) {
+            instance = new RateLimiter();
+        }
+        return instance;
+    }
+
+    /**
+     * 配置服务商的速率，对之后新建的令牌桶和已有的令牌桶都生效
+     * @param permitsPerSecond 每秒发放的令牌数
+     * @param burst 令牌桶容量，即空闲后允许连续发出的请求数
+     */
+    public void configure(String provider, double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate for " + provider + ": " + permitsPerSecond + "/s, burst " + burst);
+        }
+        Limit limit = new Limit(permitsPerSecond, burst);
+        limits.put(provider, limit);
+        String prefix = provider + "|";
+        for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                entry.getValue().setLimit(limit, System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * 设置最长排队时间，需要等待更久的请求不再排队，直接以429返回
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * 领取令牌
+     * @param provider 服务商
+     * @param apiKey 请求使用的API key，可以为null
+     * @return 发出请求前需要等待的毫秒数；需要等待超过最长排队时间时返回-1，此时不占用令牌
+     */
+    public long reserve(String provider, String apiKey) {
+        Stats stats = statsFor(provider);
+        long waitNanos = bucketFor(provider, apiKey).reserve(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(maxWaitMillis));
+        if (waitNanos < 0) {
+            stats.recordRejected();
+            Log.w(TAG, provider + " 排队超过 " + maxWaitMillis + "ms，拒绝请求");
+            return -1;
+        }
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        stats.recordAdmitted(waitMillis);
+        return waitMillis;
+    }
+
+    /**
+     * 在发出异步请求之前领取令牌，需要等待时由调度线程按时完成，不阻塞调用线程
+     * 得到的许可通过请求的tag交给RateLimitInterceptor，拦截器不再重复领取；许可被拒绝时拦截器返回本地的429
+     * @param scheduler 按时完成等待的调度线程，例如RetryPolicy.getScheduler()
+     * @return 可以发出请求时完成；在此之前取消会归还令牌
+     */
+    public CompletableFuture<Permit> acquire(String provider, String apiKey, ScheduledExecutorService scheduler) {
+        long waitMillis = reserve(provider, apiKey);
+        Permit permit = new Permit(waitMillis < 0 ? null : bucketFor(provider, apiKey));
+        if (waitMillis <= 0) {
+            return CompletableFuture.completedFuture(permit);
+        }
+        CompletableFuture<Permit> ready = new CompletableFuture<>();
+        ScheduledFuture<?> timer = scheduler.schedule(() -> ready.complete(permit), waitMillis, TimeUnit.MILLISECONDS);
+        ready.whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                timer.cancel(false);
+                permit.release();
+            }
+        });
+        return ready;
+    }
+
+    /**
+     * 归还reserve领取后没有使用的令牌，例如请求在排队期间被取消
+     */
+    public void release(String provider, String apiKey) {
+        bucketFor(provider, apiKey).refund(System.nanoTime());
+    }
+
+    /**
+     * 按响应调整速率：429时暂停并减速，带剩余配额时按配额发放，其他成功响应逐步恢复
+     */
+    public void onResponse(String provider, String apiKey, Response response) {
+        Bucket bucket = bucketFor(provider, apiKey);
+        long now = System.nanoTime();
+        if (response.code() == 429) {
+            long retryAfterMillis = parseRetryAfterMillis(response.header("Retry-After"), System.currentTimeMillis());
+            long pauseMillis = retryAfterMillis >= 0 ? retryAfterMillis : DEFAULT_BACKOFF_MILLIS;
+            statsFor(provider).recordThrottledResponse();
+            bucket.backOff(now, TimeUnit.MILLISECONDS.toNanos(pauseMillis));
+            Log.w(TAG, provider + " 返回429，暂停 " + pauseMillis + "ms，速率降为 "
+                    + String.format(Locale.US, "%.2f/s", bucket.getRate()));
+            return;
+        }
+        long remaining = parseLong(firstHeader(response, "X-RateLimit-Remaining", "RateLimit-Remaining"));
+        long reset = parseLong(firstHeader(response, "X-RateLimit-Reset", "RateLimit-Reset"));
+        if (remaining >= 0 && reset >= 0) {
+            long resetMillis = reset > EPOCH_SECONDS_THRESHOLD
+                    ? reset * 1000 - System.currentTimeMillis() : reset * 1000;
+            bucket.applyQuota(now, remaining, TimeUnit.MILLISECONDS.toNanos(Math.max(resetMillis, 0)));
+        } else if (response.isSuccessful()) {
+            bucket.recover(now);
+        }
+    }
+
+    /**
+     * 解析Retry-After，支持秒数和HTTP日期两种格式
+     * @param nowMillis 当前时间，用于计算HTTP日期与现在的间隔
+     * @return 毫秒数，没有或无法解析时返回-1
+     */
+    public static long parseRetryAfterMillis(String value, long nowMillis) {
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+        String text = value.trim();
+        long seconds = parseLong(text);
+        if (seconds >= 0) {
+            return seconds * 1000;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(text);
+            return Math.max(date.getTime() - nowMillis, 0);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 服务商的限流统计
+     */
+    public Stats getStats(String provider) {
+        return statsFor(provider);
+    }
+
+    private Bucket bucketFor(String provider, String apiKey) {
+        // 不保存key原文，只用其散列区分同一服务商的不同key
+        String bucketKey = provider + "|" + (apiKey != null ? Integer.toHexString(apiKey.hashCode()) : "-");
+        Bucket bucket = buckets.get(bucketKey);
+        if (bucket == null) {
+            Limit limit = limits.get(provider);
+            Bucket created = new Bucket(limit != null ? limit : limits.get(PROVIDER_CAIYUN), System.nanoTime());
+            bucket = buckets.putIfAbsent(bucketKey, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    private Stats statsFor(String provider) {
+        Stats stats = statsByProvider.get(provider);
+        if (stats == null) {
+            Stats created = new Stats();
+            stats = statsByProvider.putIfAbsent(provider, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    private static String firstHeader(Response response, String... names) {
+        for (String name : names) {
+            String value = response.header(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 非负整数，无法解析时返回-1
+     */
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(Long.parseLong(value.trim()), -1);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Stats> entry : statsByProvider.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append("；");
+            }
+            builder.append(entry.getKey()).append(' ').append(entry.getValue());
+        }
+        return builder.length() > 0 ? builder.toString() : "无数据";
+    }
+
+    /**
+     * acquire领取的许可，通过请求的tag交给RateLimitInterceptor
+     * 许可只能发出一次请求；请求没有经过限流拦截器（被取消或命中缓存）时调用方应当release归还令牌
+     */
+    public static final class Permit {
+        private final Bucket bucket;  // 被拒绝时为null
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        Permit(Bucket bucket) {
+            this.bucket = bucket;
+        }
+
+        /**
+         * 排队超过最长排队时间，请求不应发出
+         */
+        boolean isRejected() {
+            return bucket == null;
+        }
+
+        /**
+         * 拦截器发出请求时调用
+         * @return 第一次使用时返回true，已经使用或归还过时返回false
+         */
+        boolean use() {
+            return bucket != null && settled.compareAndSet(false, true);
+        }
+
+        /**
+         * 归还没有用于发出请求的令牌，已经使用或归还过时不做任何事
+         */
+        public void release() {
+            if (bucket != null && settled.compareAndSet(false, true)) {
+                bucket.refund(System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * 配置的速率
+     */
+    static final class Limit {
+        final double permitsPerSecond;
+        final int burst;
+
+        Limit(double permitsPerSecond, int burst) {
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+    }
+
+    /**
+     * 令牌桶
+     * 领取令牌时直接预约下一个可用时刻，等待的请求按领取顺序依次发出，不需要唤醒线程
+     */
+    static final class Bucket {
+        private Limit limit;
+        private double rate;          // 当前速率（每秒），429后低于配置值
+        private double storedPermits;
+        private long nextFreeNanos;   // 下一个令牌可用的时刻
+        private long pausedUntilNanos;  // 429或配额用完后暂停到的时刻
+
+        Bucket(Limit limit, long now) {
+            this.limit = limit;
+            this.rate = limit.permitsPerSecond;
+            this.storedPermits = limit.burst;
+            this.nextFreeNanos = now;
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+
+        synchronized void setLimit(Limit limit, long now) {
+            resync(now);
+            this.limit = limit;
+            rate = Math.min(rate, limit.permitsPerSecond);
+            storedPermits = Math.min(storedPermits, limit.burst);
+        }
+
+        /**
+         * @return 需要等待的纳秒数，超过maxWaitNanos时返回-1且不占用令牌
+         */
+        synchronized long reserve(long now, long maxWaitNanos) {
+            resync(now);
+            long waitNanos = nextFreeNanos - now;
+            if (waitNanos > maxWaitNanos) {
+                return -1;
+            }
+            double fromStore = Math.min(1, storedPermits);
+            storedPermits -= fromStore;
+            nextFreeNanos += (long) ((1 - fromStore) * intervalNanos());
+            return Math.max(waitNanos, 0);
+        }
+
+        /**
+         * 暂停发放令牌并减半速率
+         */
+        synchronized void backOff(long now, long pauseNanos) {
+            resync(now);
+            storedPermits = 0;
+            nextFreeNanos = Math.max(nextFreeNanos, now + pauseNanos);
+            pausedUntilNanos = Math.max(pausedUntilNanos, now + pauseNanos);
+            rate = Math.max(rate / 2, limit.permitsPerSecond * MIN_RATE_RATIO);
+        }
+
+        /**
+         * 按服务端告知的剩余配额调整：配额用完时暂停到重置，否则在重置前均匀发放剩余配额
+         */
+        synchronized void applyQuota(long now, long remaining, long resetNanos) {
+            resync(now);
+            if (remaining == 0) {
+                storedPermits = 0;
+                nextFreeNanos = Math.max(nextFreeNanos, now + resetNanos);
+                pausedUntilNanos = Math.max(pausedUntilNanos, now + resetNanos);
+                return;
+            }
+            storedPermits = Math.min(storedPermits, remaining);
+            if (resetNanos > 0) {
+                double quotaRate = remaining * 1e9 / resetNanos;
+                rate = Math.max(Math.min(quotaRate, limit.permitsPerSecond), limit.permitsPerSecond * MIN_RATE_RATIO);
+            } else {
+                rate = limit.permitsPerSecond;
+            }
+        }
+
+        /**
+         * 归还一个领取后没有使用的令牌：暂停之后还有预约时撤销一个间隔，否则放回桶中，不缩短暂停
+         */
+        synchronized void refund(long now) {
+            resync(now);
+            long floor = Math.max(now, pausedUntilNanos);  // resync之后nextFreeNanos不早于floor
+            double interval = intervalNanos();
+            double reserved = (nextFreeNanos - floor) / interval;
+            if (reserved >= 1) {
+                nextFreeNanos -= (long) interval;
+                return;
+            }
+            // 不足一个间隔的预约撤销到暂停结束，其余放回桶中
+            nextFreeNanos = floor;
+            storedPermits = Math.min(limit.burst, storedPermits + 1 - reserved);
+        }
+
+        synchronized void recover(long now) {
+            if (rate < limit.permitsPerSecond) {
+                resync(now);
+                rate = Math.min(limit.permitsPerSecond, rate + limit.permitsPerSecond * RECOVERY_RATIO);
+            }
+        }
+
+        /**
+         * 把空闲期间积累的令牌计入桶中
+         */
+        private void resync(long now) {
+            if (now > nextFreeNanos) {
+                storedPermits = Math.min(limit.burst, storedPermits + (now - nextFreeNanos) / intervalNanos());
+                nextFreeNanos = now;
+            }
+        }
+
+        private double intervalNanos() {
+            return 1e9 / rate;
+        }
+    }
+
+    /**
+     * 单个服务商的限流统计
+     */
+    public static class Stats {
+        private long admittedCount;
+        private long delayedCount;
+        private long rejectedCount;
+        private long throttledResponseCount;
+        private long totalWaitMillis;
+        private long maxWaitMillis;
+
+        synchronized void recordAdmitted(long waitMillis) {
+            admittedCount++;
+            if (waitMillis > 0) {
+                delayedCount++;
+                totalWaitMillis += waitMillis;
+                maxWaitMillis = Math.max(maxWaitMillis, waitMillis);
+            }
+        }
+
+        synchronized void recordRejected() {
+            rejectedCount++;
+        }
+
+        synchronized void recordThrottledResponse() {
+            throttledResponseCount++;
+        }
+
+        /**
+         * 因限流排队的请求累计等待的时长
+         */
+        public synchronized long getTotalWaitMillis() {
+            return totalWaitMillis;
+        }
+
+        public synchronized long getDelayedCount() {
+            return delayedCount;
+        }
+
+        public synchronized long getRejectedCount() {
+            return rejectedCount;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "请求 " + admittedCount + " 次，排队 " + delayedCount + " 次（平均 "
+                    + (delayedCount == 0 ? 0 : totalWaitMillis / delayedCount) + "ms，最长 " + maxWaitMillis
+                    + "ms），拒绝 " + rejectedCount + " 次，收到429 " + throttledResponseCount + " 次";
+        }
+    }
+}
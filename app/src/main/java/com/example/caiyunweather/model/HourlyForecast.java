@@ -0,0 +1,38 @@
+package com.example.caiyunweather.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 逐小时天气预报，直接由彩云天气响应流式解析得到
+ */
+public class HourlyForecast {
+    private final List<HourlyWeather> hourly;
+    private final byte[] rawJson;
+
+    public HourlyForecast(List<HourlyWeather> hourly) {
+        this(hourly, null);
+    }
+
+    /**
+     * @param hourly 逐小时数据
+     * @param rawJson 解析来源的原始JSON字节，只在需要时才转换为字符串
+     */
+    public HourlyForecast(List<HourlyWeather> hourly, byte[] rawJson) {
+        this.hourly = Collections.unmodifiableList(hourly);
+        this.rawJson = rawJson;
+    }
+
+    public List<HourlyWeather> getHourly() {
+        return hourly;
+    }
+
+    /**
+     * 获取原始JSON字符串
+     * @return 原始JSON，没有保留原始数据时返回null
+     */
+    public String getRawJson() {
+        return rawJson != null ? new String(rawJson, StandardCharsets.UTF_8) : null;
+    }
+}
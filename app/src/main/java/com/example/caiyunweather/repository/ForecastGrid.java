@@ -0,0 +1,91 @@
+package com.example.caiyunweather.repository;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * 预报网格
+ * 彩云天气的预报以约1公里的网格生成，把坐标吸附到所在网格的中心后，相距很近的请求得到相同的
+ * 缓存键、合并键和上游URL，共用一次上游调用
+ */
+public final class ForecastGrid {
+    public static final double DEFAULT_CELL_DEGREES = 0.01;  // 约1公里
+    private static final BigDecimal HALF = new BigDecimal("0.5");
+
+    private final double cellDegrees;
+    private final BigDecimal cell;  // 网格边长的十进制值
+    private final int scale;  // 网格中心坐标的小数位数
+
+    /**
+     * @param cellDegrees 网格边长（度），例如0.01
+     */
+    public ForecastGrid(double cellDegrees) {
+        if (!(cellDegrees > 0)) {
+            throw new IllegalArgumentException("cellDegrees must be positive: " + cellDegrees);
+        }
+        this.cellDegrees = cellDegrees;
+        this.cell = BigDecimal.valueOf(cellDegrees).stripTrailingZeros();
+        // 中心坐标比网格边长多一位小数，例如边长0.01时中心为116.405
+        this.scale = cell.scale() + 1;
+    }
+
+    /**
+     * 网格单元
+     */
+    public static final class Cell {
+        private final String longitude;
+        private final String latitude;
+        private final String key;
+
+        private Cell(String longitude, String latitude) {
+            this.longitude = longitude;
+            this.latitude = latitude;
+            this.key = longitude + "," + latitude;
+        }
+
+        /**
+         * 网格中心的经度，按固定小数位格式化，用于上游URL
+         */
+        public String getLongitude() {
+            return longitude;
+        }
+
+        /**
+         * 网格中心的纬度，按固定小数位格式化，用于上游URL
+         */
+        public String getLatitude() {
+            return latitude;
+        }
+
+        /**
+         * 缓存和请求合并使用的键，同一网格内的坐标得到相同的键
+         */
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+
+    public double getCellDegrees() {
+        return cellDegrees;
+    }
+
+    /**
+     * 坐标所在的网格
+     */
+    public Cell cellFor(double longitude, double latitude) {
+        return new Cell(center(longitude), center(latitude));
+    }
+
+    private String center(double value) {
+        // 按十进制计算所在网格：二进制浮点的116.32 / 0.01是11631.999…，恰好在网格边上的坐标会落到相邻网格
+        BigDecimal index = BigDecimal.valueOf(value).divide(cell, 0, RoundingMode.FLOOR);
+        return index.add(HALF).multiply(cell)
+                .setScale(scale, RoundingMode.HALF_UP)
+                .toPlainString();
+    }
+}
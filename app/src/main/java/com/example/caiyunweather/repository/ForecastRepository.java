@@ -0,0 +1,361 @@
+package com.example.caiyunweather.repository;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.caiyunweather.api.RateLimiter;
+import com.example.caiyunweather.api.WeatherService;
+import com.example.caiyunweather.model.HourlyForecast;
+import com.example.caiyunweather.utils.ApiKeyManager;
+import com.example.caiyunweather.utils.HourlyForecastDecoder;
+import com.example.caiyunweather.utils.HttpStatusException;
+import com.example.caiyunweather.utils.RetryBudget;
+import com.example.caiyunweather.utils.RetryPolicy;
+import com.example.caiyunweather.utils.SingleFlight;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * 天气预报仓库
+ * 位于调用方与彩云天气API之间，按位置缓存解析后的预报（LRU淘汰）。
+ * 数据过期后先立即返回旧数据，同时在后台刷新（stale-while-revalidate）
+ */
+public class ForecastRepository {
+    private static final String TAG = "ForecastRepository";
+    private static final int DEFAULT_MAX_ENTRIES = 16;
+    private static final long DEFAULT_FRESH_MILLIS = TimeUnit.MINUTES.toMillis(10);   // 新鲜期
+    private static final long DEFAULT_MAX_STALE_MILLIS = TimeUnit.HOURS.toMillis(6);  // 超过此时长的数据不再返回
+    private static final String WEATHER_ENDPOINT = "weather.json";
+
+    private static ForecastRepository instance;
+    private final Map<String, Forecast> cache;
+    // 按(端点, 位置)合并并发的相同请求
+    private final SingleFlight<String, Forecast> upstreamFlights = new SingleFlight<>();
+    // 上游调用是幂等的GET，临时性失败在期限内重试；总期限短于MCP服务器等待数据的30秒
+    private final RetryPolicy upstreamRetry = new RetryPolicy.Builder("caiyun")
+            .maxAttempts(3)
+            .delay(300, 3000)
+            .deadline(25000)
+            .classifier(RetryPolicy.transientErrors(true))
+            .budget(new RetryBudget(0.2, 1, 10))
+            .build();
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    private volatile long freshMillis = DEFAULT_FRESH_MILLIS;
+    private volatile long maxStaleMillis = DEFAULT_MAX_STALE_MILLIS;
+    private volatile ForecastGrid grid = new ForecastGrid(ForecastGrid.DEFAULT_CELL_DEGREES);
+    // 网格统计：调用方的请求数与由同一网格的内存缓存直接返回的次数
+    private final AtomicLong logicalRequests = new AtomicLong();
+    private final AtomicLong cellHits = new AtomicLong();
+    private Context appContext;
+
+    private ForecastRepository() {
+        cache = new LinkedHashMap<String, Forecast>(DEFAULT_MAX_ENTRIES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Forecast> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static synchronized ForecastRepository getInstance() {
+        if (instance == null) {
+            instance = new ForecastRepository();
+        }
+        return instance;
+    }
+
+    /**
+     * 缓存的天气预报
+     */
+    public static class Forecast {
+        private final String locationKey;
+        private final byte[] rawBytes;
+        private final HourlyForecast hourlyForecast;
+        private final long fetchedAt;
+        private final boolean stale;
+
+        Forecast(String locationKey, byte[] rawBytes, HourlyForecast hourlyForecast, long fetchedAt, boolean stale) {
+            this.locationKey = locationKey;
+            this.rawBytes = rawBytes;
+            this.hourlyForecast = hourlyForecast;
+            this.fetchedAt = fetchedAt;
+            this.stale = stale;
+        }
+
+        public String getLocationKey() {
+            return locationKey;
+        }
+
+        /**
+         * 彩云天气API返回的原始JSON
+         */
+        public String getRawJson() {
+            return new String(rawBytes, StandardCharsets.UTF_8);
+        }
+        
+        /**
+         * 彩云天气API返回的原始字节，与缓存共享，调用方不得修改
+         */
+        public byte[] getRawBytes() {
+            return rawBytes;
+        }
+
+        /**
+         * 解析后的逐小时预报
+         */
+        public HourlyForecast getHourlyForecast() {
+            return hourlyForecast;
+        }
+
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+
+        /**
+         * 是否为已过新鲜期的数据（后台刷新正在进行）
+         */
+        public boolean isStale() {
+            return stale;
+        }
+
+        Forecast asStale() {
+            return new Forecast(locationKey, rawBytes, hourlyForecast, fetchedAt, true);
+        }
+    }
+
+    /**
+     * 彩云天气API返回的HTTP错误
+     */
+    public static class HttpError extends HttpStatusException {
+        public HttpError(int code, String errorBody) {
+            this(code, errorBody, -1);
+        }
+
+        /**
+         * @param retryAfterMillis 响应头Retry-After给出的重试间隔，没有时为-1
+         */
+        public HttpError(int code, String errorBody, long retryAfterMillis) {
+            super(code, errorBody, retryAfterMillis);
+        }
+    }
+
+    /**
+     * 设置应用上下文，用于读取彩云天气Token
+     * @param context 应用上下文
+     */
+    public synchronized void setAppContext(Context context) {
+        this.appContext = context.getApplicationContext();
+    }
+
+    /**
+     * 配置缓存新鲜期
+     * @param freshMillis 新鲜期，期内直接返回缓存
+     * @param maxStaleMillis 最大过期时长，超过后必须重新获取
+     */
+    public void setFreshness(long freshMillis, long maxStaleMillis) {
+        this.freshMillis = freshMillis;
+        this.maxStaleMillis = maxStaleMillis;
+    }
+
+    /**
+     * 配置缓存的最大条目数
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * 配置坐标量化的网格边长，缓存键、请求合并和上游URL都使用网格中心坐标
+     * @param cellDegrees 网格边长（度），默认0.01（约1公里）
+     */
+    public void setGridPrecision(double cellDegrees) {
+        this.grid = new ForecastGrid(cellDegrees);
+    }
+
+    /**
+     * 坐标所在网格的键，键相同的坐标共用同一份预报
+     */
+    public String getGridKey(double longitude, double latitude) {
+        return grid.cellFor(longitude, latitude).getKey();
+    }
+
+    /**
+     * 获取天气预报
+     * 新鲜数据直接返回；过期数据立即返回并在后台刷新；无数据时请求网络
+     * 坐标先吸附到所在网格的中心，同一网格内的请求共用缓存和上游调用
+     * @param longitude 经度
+     * @param latitude 纬度
+     */
+    public CompletableFuture<Forecast> getForecast(double longitude, double latitude) {
+        ForecastGrid.Cell cell = grid.cellFor(longitude, latitude);
+        String key = cell.getKey();
+        logicalRequests.incrementAndGet();
+        Forecast cached;
+        synchronized (this) {
+            cached = cache.get(key);
+        }
+        if (cached != null) {
+            long age = System.currentTimeMillis() - cached.getFetchedAt();
+            if (age < freshMillis) {
+                cellHits.incrementAndGet();
+                return CompletableFuture.completedFuture(cached);
+            }
+            if (age < maxStaleMillis) {
+                cellHits.incrementAndGet();
+                Log.d(TAG, "返回过期数据并在后台刷新: " + key);
+                fetch(cell).exceptionally(throwable -> {
+                    Log.w(TAG, "后台刷新失败: " + key, throwable);
+                    return null;
+                });
+                return CompletableFuture.completedFuture(cached.asStale());
+            }
+        }
+        return fetch(cell);
+    }
+
+    /**
+     * 只读取内存中的预报，不触发网络请求
+     * @return 缓存的预报，没有或已超过最大过期时长时返回null
+     */
+    public Forecast peek(double longitude, double latitude) {
+        Forecast cached;
+        synchronized (this) {
+            cached = cache.get(grid.cellFor(longitude, latitude).getKey());
+        }
+        if (cached == null) {
+            return null;
+        }
+        long age = System.currentTimeMillis() - cached.getFetchedAt();
+        if (age >= maxStaleMillis) {
+            return null;
+        }
+        return age < freshMillis ? cached : cached.asStale();
+    }
+
+    /**
+     * 网格量化的效果：调用方请求中有多少由同一网格的内存缓存直接返回，以及实际发起的上游调用数
+     */
+    public String getGridStats() {
+        long requests = logicalRequests.get();
+        long hits = cellHits.get();
+        return String.format(Locale.US, "请求 %d 次，命中网格缓存 %d 次（%.1f%%），上游调用 %d 次，网格边长 %s°",
+                requests, hits, requests == 0 ? 0.0 : 100.0 * hits / requests,
+                upstreamFlights.getIssuedCount(), grid.getCellDegrees());
+    }
+
+    /**
+     * 获取上游请求的合并统计，用于观察并发相同请求节省的调用
+     */
+    public SingleFlight<String, Forecast> getUpstreamFlights() {
+        return upstreamFlights;
+    }
+
+    private CompletableFuture<Forecast> fetch(ForecastGrid.Cell cell) {
+        // 同一网格的并发请求（包括后台刷新）只发起一次上游调用，所有调用方共享解析结果
+        return upstreamFlights.execute(WEATHER_ENDPOINT + ":" + cell.getKey(),
+                () -> upstreamRetry.execute(() -> fetchFromUpstream(cell)));
+    }
+
+    /**
+     * 上游调用的重试统计
+     */
+    public RetryPolicy getUpstreamRetry() {
+        return upstreamRetry;
+    }
+
+    private CompletableFuture<Forecast> fetchFromUpstream(ForecastGrid.Cell cell) {
+        String token = getCaiyunWeatherToken();
+        CompletableFuture<Forecast> future = new CompletableFuture<>();
+        // 限流排队在enqueue之前完成，等待期间不占用OkHttp调度器的线程和并发名额
+        CompletableFuture<RateLimiter.Permit> permit = RateLimiter.getInstance()
+                .acquire(RateLimiter.PROVIDER_CAIYUN, token, RetryPolicy.getScheduler());
+        future.whenComplete((forecast, throwable) -> {
+            if (future.isCancelled()) {
+                permit.cancel(false);
+            }
+        });
+        permit.thenAccept(granted -> enqueueUpstream(cell, token, granted, future))
+                .exceptionally(throwable -> {
+                    future.completeExceptionally(throwable);
+                    return null;
+                });
+        return future;
+    }
+
+    private void enqueueUpstream(ForecastGrid.Cell cell, String token, RateLimiter.Permit permit,
+                                 CompletableFuture<Forecast> future) {
+        String key = cell.getKey();
+        // 上游URL使用网格中心坐标，同一网格的请求URL完全相同
+        Call<ResponseBody> call = WeatherService.getInstance().getCaiyunApi()
+                .getWeatherForecastRaw(token, cell.getLongitude(), cell.getLatitude(), permit);
+        future.whenComplete((forecast, throwable) -> {
+            // 请求没有经过限流拦截器（被取消或命中磁盘缓存）时归还令牌
+            permit.release();
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        call.enqueue(new Callback<ResponseBody>() {
+            @Override
+            public void onResponse(Call<ResponseBody> call, Response<ResponseBody> response) {
+                if (response.isSuccessful() && response.body() != null) {
+                    try {
+                        // 响应体只读取一次，逐小时数据直接从字节流解析，不经过对象树
+                        byte[] rawBytes = response.body().bytes();
+                        HourlyForecast hourlyForecast = HourlyForecastDecoder.decode(rawBytes);
+                        Forecast forecast = new Forecast(key, rawBytes, hourlyForecast, System.currentTimeMillis(), false);
+                        synchronized (ForecastRepository.this) {
+                            cache.put(key, forecast);
+                        }
+                        future.complete(forecast);
+                    } catch (Exception e) {
+                        future.completeExceptionally(e);
+                    }
+                } else {
+                    String errorBody = "";
+                    if (response.errorBody() != null) {
+                        try {
+                            errorBody = response.errorBody().string();
+                        } catch (IOException e) {
+                            // 忽略读取错误体的异常
+                        }
+                    }
+                    long retryAfterMillis = RateLimiter.parseRetryAfterMillis(response.headers().get("Retry-After"),
+                            System.currentTimeMillis());
+                    future.completeExceptionally(new HttpError(response.code(), errorBody, retryAfterMillis));
+                }
+            }
+
+            @Override
+            public void onFailure(Call<ResponseBody> call, Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+    }
+
+    /**
+     * 获取彩云天气Token
+     * @return 彩云天气Token
+     */
+    private synchronized String getCaiyunWeatherToken() {
+        if (appContext != null) {
+            String token = ApiKeyManager.getInstance(appContext).getCaiyunWeatherToken();
+            if (token != null && !token.isEmpty() && !token.equals("YOUR_CAIYUN_WEATHER_TOKEN")) {
+                return token;
+            }
+        }
+        return "YOUR_CAIYUN_WEATHER_TOKEN";
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.caiyunweather.repository;
+
+import android.util.Log;
+
+import com.example.caiyunweather.utils.LocationResolver;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 天气预报的推测性预取
+ * 在DeepSeek模型决定调用工具之前就按请求中的位置开始获取预报，使模型往返和彩云天气请求并行；
+ * 工具调用的位置与预取一致时直接使用预取结果，否则丢弃
+ */
+public class SpeculativePrefetcher {
+    private static final String TAG = "SpeculativePrefetcher";
+    private static SpeculativePrefetcher instance;
+    private final AtomicLong launchedCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong wastedCount = new AtomicLong();
+    private volatile boolean enabled = true;
+
+    private SpeculativePrefetcher() {
+    }
+
+    public static synchronized SpeculativePrefetcher getInstance() {
+        if (instance == null) {
+            instance = new SpeculativePrefetcher();
+        }
+        return instance;
+    }
+
+    /**
+     * 一次预取，只能被使用或丢弃一次
+     */
+    public class Prefetch {
+        private final double[] coordinates;
+        private final CompletableFuture<ForecastRepository.Forecast> future;
+        private final AtomicBoolean settled = new AtomicBoolean(false);
+
+        Prefetch(double[] coordinates, CompletableFuture<ForecastRepository.Forecast> future) {
+            this.coordinates = coordinates;
+            this.future = future;
+        }
+
+        /**
+         * 工具调用到达时认领预取结果
+         * @param location 工具调用参数中的位置
+         * @return 位置一致时返回预取的结果，否则返回null（预取被丢弃，调用方自行获取）
+         */
+        public CompletableFuture<ForecastRepository.Forecast> claim(String location) {
+            if (!settled.compareAndSet(false, true)) {
+                return null;
+            }
+            if (Arrays.equals(coordinates, LocationResolver.resolve(location))) {
+                hitCount.incrementAndGet();
+                Log.d(TAG, "预取命中: " + location + "，" + SpeculativePrefetcher.this);
+                return future;
+            }
+            wastedCount.incrementAndGet();
+            Log.d(TAG, "预取位置与工具调用不一致，丢弃: " + location + "，" + SpeculativePrefetcher.this);
+            return null;
+        }
+
+        /**
+         * 模型没有调用工具或请求失败时丢弃预取结果，已认领时不做任何事
+         */
+        public void discard() {
+            if (settled.compareAndSet(false, true)) {
+                wastedCount.incrementAndGet();
+                Log.d(TAG, "预取未被使用，丢弃，" + SpeculativePrefetcher.this);
+            }
+        }
+    }
+
+    /**
+     * 设置是否启用推测性预取
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * 按请求中的位置开始预取
+     * 只对能直接解析坐标的地名预取，预取结果同时写入仓库缓存
+     * @param location 地名，例如"北京"
+     * @return 预取句柄，未启用或地名无法解析时返回null
+     */
+    public Prefetch start(String location) {
+        if (!enabled || !LocationResolver.isKnown(location)) {
+            return null;
+        }
+        double[] coordinates = LocationResolver.resolve(location);
+        CompletableFuture<ForecastRepository.Forecast> future =
+                ForecastRepository.getInstance().getForecast(coordinates[0], coordinates[1]);
+        launchedCount.incrementAndGet();
+        return new Prefetch(coordinates, future);
+    }
+
+    public long getLaunchedCount() {
+        return launchedCount.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getWastedCount() {
+        return wastedCount.get();
+    }
+
+    /**
+     * 命中率：被工具调用使用的预取占已结束预取的比例
+     */
+    public double getHitRate() {
+        long settled = hitCount.get() + wastedCount.get();
+        return settled == 0 ? 0 : (double) hitCount.get() / settled;
+    }
+
+    /**
+     * 浪费率：被丢弃的预取占已结束预取的比例
+     */
+    public double getWastedRate() {
+        long settled = hitCount.get() + wastedCount.get();
+        return settled == 0 ? 0 : (double) wastedCount.get() / settled;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "预取 %d 次，命中 %d 次（%.0f%%），浪费 %d 次（%.0f%%）",
+                launchedCount.get(), hitCount.get(), getHitRate() * 100, wastedCount.get(), getWastedRate() * 100);
+    }
+}
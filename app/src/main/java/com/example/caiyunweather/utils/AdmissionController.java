@@ -0,0 +1,174 @@
+package com.example.caiyunweather.utils;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 并发准入控制
+ * 同时执行的请求数受AIMD自适应上限约束：请求成功时上限缓慢增加，上游超时或失败时按比例减小。
+ * 超过上限的请求进入有界等待队列，等待超过排队期限或队列已满时立即拒绝
+ */
+public class AdmissionController {
+    private static final double BACKOFF_RATIO = 0.9;      // 过载时上限缩小的比例
+    private static final double LATENCY_SMOOTHING = 0.2;  // 平均耗时的指数平滑系数
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long queueTimeoutMillis;
+    private final long slowCallMillis;
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private double averageLatencyMillis;
+    private long admittedCount;
+    private long rejectedCount;
+    private long queueTimeoutCount;
+    private long droppedCount;
+
+    /**
+     * 调用结果，用于调整并发上限
+     */
+    public enum Outcome {
+        SUCCESS,    // 正常完成
+        DROPPED,    // 上游超时或失败，视为过载信号
+        IGNORED     // 与负载无关的失败（例如参数错误），不调整上限
+    }
+
+    /**
+     * @param initialLimit 初始并发上限
+     * @param minLimit 并发上限的下限
+     * @param maxLimit 并发上限的上限
+     * @param maxQueue 等待队列长度
+     * @param queueTimeoutMillis 排队期限，超过后拒绝
+     * @param slowCallMillis 耗时超过该值的成功调用也视为过载信号
+     */
+    public AdmissionController(int initialLimit, int minLimit, int maxLimit, int maxQueue,
+                               long queueTimeoutMillis, long slowCallMillis) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.slowCallMillis = slowCallMillis;
+    }
+
+    /**
+     * 已获准执行的请求，执行完成后必须调用release
+     */
+    public class Permit {
+        private final long startNanos = System.nanoTime();
+        private boolean released;
+
+        /**
+         * 释放许可并按结果调整并发上限
+         */
+        public void release(Outcome outcome) {
+            long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            synchronized (AdmissionController.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                inFlight--;
+                onRelease(outcome, latencyMillis);
+                AdmissionController.this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 申请执行许可，并发已满时在队列中等待
+     * @return 许可；队列已满或排队超过期限时返回null，调用方应立即拒绝请求
+     */
+    public Permit acquire() throws InterruptedException {
+        synchronized (this) {
+            if (inFlight < currentLimit()) {
+                return admit();
+            }
+            if (queued >= maxQueue) {
+                rejectedCount++;
+                return null;
+            }
+            queued++;
+            try {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+                while (inFlight >= currentLimit()) {
+                    long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remainingMillis <= 0) {
+                        queueTimeoutCount++;
+                        rejectedCount++;
+                        return null;
+                    }
+                    wait(remainingMillis);
+                }
+                return admit();
+            } finally {
+                queued--;
+            }
+        }
+    }
+
+    /**
+     * 建议客户端重试前等待的秒数，按平均耗时和当前积压估算
+     */
+    public synchronized int getRetryAfterSeconds() {
+        double backlog = (inFlight + queued) / Math.max(1.0, limit);
+        long millis = (long) (Math.max(averageLatencyMillis, 1) * Math.max(backlog, 1));
+        return (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(millis + 999));
+    }
+
+    public synchronized int getLimit() {
+        return currentLimit();
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueueDepth() {
+        return queued;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public synchronized long getQueueTimeoutCount() {
+        return queueTimeoutCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "并发上限 %d，执行中 %d，排队 %d/%d，已准入 %d，已拒绝 %d（排队超时 %d），过载信号 %d，平均耗时 %.0fms",
+                currentLimit(), inFlight, queued, maxQueue, admittedCount, rejectedCount, queueTimeoutCount,
+                droppedCount, averageLatencyMillis);
+    }
+
+    private Permit admit() {
+        inFlight++;
+        admittedCount++;
+        return new Permit();
+    }
+
+    private int currentLimit() {
+        return (int) limit;
+    }
+
+    private void onRelease(Outcome outcome, long latencyMillis) {
+        if (outcome == Outcome.IGNORED) {
+            return;
+        }
+        averageLatencyMillis = averageLatencyMillis == 0 ? latencyMillis
+                : averageLatencyMillis + LATENCY_SMOOTHING * (latencyMillis - averageLatencyMillis);
+        if (outcome == Outcome.DROPPED || latencyMillis > slowCallMillis) {
+            // 乘性减小
+            droppedCount++;
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        } else {
+            // 加性增加，约每完成limit个请求增加1
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+}
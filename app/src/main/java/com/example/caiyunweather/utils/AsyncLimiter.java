@@ -0,0 +1,131 @@
+package com.example.caiyunweather.utils;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * 异步任务的并发上限
+ * 同时进行的任务数不超过上限，其余任务排队，前面的任务完成后依次启动；不占用等待线程
+ */
+public class AsyncLimiter {
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    // 当前线程是否正在drain循环中启动任务
+    private final ThreadLocal<Boolean> draining = new ThreadLocal<>();
+    private int maxConcurrent;
+    private int running;
+    private long startedCount;
+    private long queuedCount;
+
+    /**
+     * @param maxConcurrent 同时进行的任务数上限
+     */
+    public AsyncLimiter(int maxConcurrent) {
+        setMaxConcurrent(maxConcurrent);
+    }
+
+    /**
+     * 调整并发上限，提高上限时立即启动排队的任务
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+        }
+        synchronized (this) {
+            this.maxConcurrent = maxConcurrent;
+        }
+        drain();
+    }
+
+    public synchronized int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * 提交任务
+     * @param task 启动任务的函数，轮到时才会被调用
+     * @return 任务结果；任务启动失败时以异常结束
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletableFuture<T> future;
+            try {
+                future = task.get();
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            future.whenComplete((value, throwable) -> {
+                release();
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+        boolean startNow;
+        synchronized (this) {
+            startNow = running < maxConcurrent;
+            if (startNow) {
+                running++;
+                startedCount++;
+            } else {
+                waiting.add(start);
+                queuedCount++;
+            }
+        }
+        if (startNow) {
+            start.run();
+        }
+        return result;
+    }
+
+    private void release() {
+        synchronized (this) {
+            running--;
+        }
+        drain();
+    }
+
+    /**
+     * 在锁外启动排队的任务
+     * 任务同步完成时release会在同一线程上再次调用drain，此时直接返回，由外层循环继续启动，
+     * 调用栈深度不随排队任务数增长
+     */
+    private void drain() {
+        if (draining.get() != null) {
+            return;
+        }
+        draining.set(Boolean.TRUE);
+        try {
+            drainLoop();
+        } finally {
+            draining.remove();
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                if (running >= maxConcurrent || waiting.isEmpty()) {
+                    return;
+                }
+                next = waiting.poll();
+                running++;
+                startedCount++;
+            }
+            next.run();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "进行中 %d/%d，排队 %d，累计启动 %d，累计排队 %d",
+                running, maxConcurrent, waiting.size(), startedCount, queuedCount);
+    }
+}
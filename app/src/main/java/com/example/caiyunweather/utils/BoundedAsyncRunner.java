@@ -0,0 +1,115 @@
+package com.example.caiyunweather.utils;
+
+import android.util.Log;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * NanoHTTPD连接处理的有界线程池
+ * 默认的AsyncRunner为每个连接新建线程，这里改为固定上限的线程池加有界等待队列，
+ * 队列已满时直接关闭新连接，保证并发客户端很多时线程数和内存可控
+ */
+public class BoundedAsyncRunner implements NanoHTTPD.AsyncRunner {
+    private static final String TAG = "BoundedAsyncRunner";
+    private final ThreadPoolExecutor executor;
+    private final Set<NanoHTTPD.ClientHandler> running = ConcurrentHashMap.newKeySet();
+    private final AtomicLong acceptedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+
+    /**
+     * @param maxThreads 最大工作线程数，每个保持中的连接占用一个线程
+     * @param queueDepth 等待工作线程的连接数上限
+     */
+    public BoundedAsyncRunner(int maxThreads, int queueDepth) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "McpServer-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueDepth), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        // 空闲线程会被回收
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void exec(NanoHTTPD.ClientHandler clientHandler) {
+        running.add(clientHandler);
+        try {
+            executor.execute(clientHandler);
+            acceptedCount.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            // 线程和队列都已满，立即关闭连接，不再排队
+            running.remove(clientHandler);
+            rejectedCount.incrementAndGet();
+            Log.w(TAG, "连接过多，拒绝新连接: " + this);
+            clientHandler.close();
+        }
+    }
+
+    @Override
+    public void closed(NanoHTTPD.ClientHandler clientHandler) {
+        if (running.remove(clientHandler)) {
+            closedCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void closeAll() {
+        for (NanoHTTPD.ClientHandler clientHandler : running) {
+            clientHandler.close();
+        }
+        running.clear();
+    }
+
+    /**
+     * 关闭线程池，服务器停止后调用
+     */
+    public void shutdown() {
+        closeAll();
+        executor.shutdownNow();
+    }
+
+    /**
+     * 当前打开的连接数（包括等待中的）
+     */
+    public int getOpenConnections() {
+        return running.size();
+    }
+
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueuedConnections() {
+        return executor.getQueue().size();
+    }
+
+    public long getAcceptedCount() {
+        return acceptedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "线程 " + executor.getActiveCount() + "/" + executor.getMaximumPoolSize()
+                + "（峰值 " + executor.getLargestPoolSize() + "），排队 " + executor.getQueue().size()
+                + "，打开连接 " + running.size() + "，已接受 " + acceptedCount.get()
+                + "，已关闭 " + closedCount.get() + "，已拒绝 " + rejectedCount.get();
+    }
+}
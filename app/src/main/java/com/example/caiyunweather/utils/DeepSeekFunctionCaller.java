@@ -3,8 +3,12 @@ package com.example.caiyunweather.utils;
 import android.content.Context;
 import android.util.Log;
 
-import com.example.caiyunweather.api.WeatherService;
-import com.example.caiyunweather.model.WeatherResponse;
+import com.example.caiyunweather.api.ChatRequestTemplate;
+import com.example.caiyunweather.api.HttpClientProvider;
+import com.example.caiyunweather.api.RateLimiter;
+import com.example.caiyunweather.model.HourlyForecast;
+import com.example.caiyunweather.repository.ForecastRepository;
+import com.example.caiyunweather.repository.SpeculativePrefetcher;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
@@ -12,27 +16,75 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import okhttp3.OkHttpClient;
-import retrofit2.Call;
 
-import okhttp3.MediaType;
 import okhttp3.RequestBody;
-import okhttp3.ResponseBody;
-import retrofit2.Callback;
-import retrofit2.Response;
 
 public class DeepSeekFunctionCaller {
     private static final String DEEPSEEK_API_KEY = "YOUR_DEEPSEEK_API_KEY"; // 请替换为您的DeepSeek API密钥
     private static final String FUNCTION_NAME = "get_caiyun_weather"; // 保持下划线命名以匹配实际函数
     private static final String MCP_FUNCTION_NAME = "get_weather_forecast"; // MCP模式下的函数名
+    private static final String TAG = "DeepSeekFunctionCaller";
+    // 耗时统计使用的路径名
+    private static final String PATH_DEEPSEEK = "deepseek";
+    private static final String PATH_MCP = "mcp";
+    private static final String PATH_DIRECT = "direct";
+    private static final String PATH_DIRECT_FALLBACK = "direct->deepseek";
+    private static final String DEFAULT_DEEPSEEK_BASE_URL = "https://api.deepseek.com/";
+    private static final String MISSING_LOCATION_ERROR = "模型的工具调用缺少location参数，无法确定查询的位置";
+    
+    /**
+     * 天气获取模式
+     */
+    public enum Mode {
+        DEEPSEEK,   // DeepSeek Function Calling，由模型决定调用彩云天气
+        MCP,        // DeepSeek Function Calling + MCP服务器
+        DIRECT      // 本地意图解析后直接获取，自由文本才使用DeepSeek
+    }
     
     // 添加上下文引用，用于获取API密钥
     private static Context appContext;
+    // DeepSeek API地址，测试时可指向本地的SSE模拟服务器
+    private static volatile String deepSeekBaseUrl = DEFAULT_DEEPSEEK_BASE_URL;
+    // 是否使用流式（SSE）响应
+    private static volatile boolean streamingEnabled = true;
+    // 预编译的请求模板，系统提示词和工具定义只序列化一次
+    private static ChatRequestTemplate deepSeekTemplate;
+    private static ChatRequestTemplate mcpTemplate;
+    private static JsonObject mcpTemplateTools;  // 编译mcpTemplate时使用的工具列表响应
+    // DeepSeek请求的重试策略：chat/completions按非幂等调用处理（每次都计费，结果也不同），
+    // 只重试请求未被处理的失败，最多重试2次，间隔1~8秒去相关抖动，整个调用不超过90秒
+    private static final RetryPolicy DEEPSEEK_RETRY = new RetryPolicy.Builder("deepseek")
+            .maxAttempts(3)
+            .delay(1000, 8000)
+            .deadline(90000)
+            .classifier(DeepSeekFunctionCaller::isRetryableDeepSeekError)
+            .budget(new RetryBudget(0.2, 0.1, 5))
+            .build();
     
     public interface WeatherCallback {
-        void onSuccess(String weatherData);
+        /**
+         * 获取到逐小时预报（原始JSON可通过HourlyForecast.getRawJson()按需获取）
+         */
+        void onForecast(HourlyForecast forecast);
+        
+        /**
+         * 模型没有调用工具，直接返回了文本内容
+         */
+        void onText(String content);
+        
+        /**
+         * 流式模式下收到模型输出的文本增量，完整内容随后通过onText交付
+         */
+        default void onTextDelta(String delta) {
+        }
+        
         void onError(String error);
     }
     
@@ -42,6 +94,23 @@ public class DeepSeekFunctionCaller {
      */
     public static void setAppContext(Context context) {
         appContext = context.getApplicationContext();
+        ForecastRepository.getInstance().setAppContext(context);
+    }
+    
+    /**
+     * 设置DeepSeek API地址，例如本地的SSE模拟服务器"http://127.0.0.1:8081/"
+     * @param baseUrl 以"/"结尾的地址，传入null恢复默认地址
+     */
+    public static void setDeepSeekBaseUrl(String baseUrl) {
+        deepSeekBaseUrl = baseUrl != null ? baseUrl : DEFAULT_DEEPSEEK_BASE_URL;
+    }
+    
+    /**
+     * 设置是否使用流式响应
+     * 流式模式下工具调用参数一旦完整就立即获取天气数据，文本内容实时通过onTextDelta交付
+     */
+    public static void setStreamingEnabled(boolean enabled) {
+        streamingEnabled = enabled;
     }
     
     /**
@@ -64,7 +133,7 @@ public class DeepSeekFunctionCaller {
      * @param callback 回调接口
      */
     public static void getWeatherForecast(String location, WeatherCallback callback) {
-        getWeatherForecastWithRetry(location, callback, 8, 0); // 最多重试8次
+        getWeatherForecast(location, Mode.DEEPSEEK, callback);
     }
     
     /**
@@ -74,94 +143,143 @@ public class DeepSeekFunctionCaller {
      * @param callback 回调接口
      */
     public static void getWeatherForecast(String location, boolean useMcp, WeatherCallback callback) {
-        if (useMcp) {
-            getWeatherForecastWithMcp(location, callback);
+        getWeatherForecast(location, useMcp ? Mode.MCP : Mode.DEEPSEEK, callback);
+    }
+    
+    /**
+     * 按指定模式获取天气预报
+     * @param query DeepSeek/MCP模式下为位置信息，例如"北京"；直连模式下为用户输入，例如"北京未来24小时的天气预报"
+     * @param mode 获取模式
+     * @param callback 回调接口
+     */
+    public static void getWeatherForecast(String query, Mode mode, WeatherCallback callback) {
+        switch (mode) {
+            case MCP:
+                getWeatherForecastWithMcp(query, timed(PATH_MCP, callback));
+                break;
+            case DIRECT:
+                getWeatherForecastDirect(query, callback);
+                break;
+            default: {
+                // 推测性预取：在模型决定调用工具之前就开始获取该位置的预报，两段耗时重叠
+                SpeculativePrefetcher.Prefetch prefetch = SpeculativePrefetcher.getInstance().start(query);
+                getWeatherForecastWithRetry(createDeepSeekBody(createUserMessage(query)),
+                        timed(PATH_DEEPSEEK, discarding(prefetch, callback)), prefetch);
+                break;
+            }
+        }
+    }
+    
+    /**
+     * 直连模式：本地意图解析能识别位置时直接获取彩云天气数据，跳过DeepSeek模型的往返；
+     * 只有无法识别的自由文本才交给DeepSeek处理
+     */
+    private static void getWeatherForecastDirect(String query, WeatherCallback callback) {
+        String location = WeatherIntentResolver.resolveLocation(query);
+        if (location != null) {
+            Log.d(TAG, "直连模式识别到位置: " + location);
+            getCaiyunWeatherData(location, timed(PATH_DIRECT, callback));
         } else {
-            getWeatherForecastWithRetry(location, callback, 8, 0); // 最多重试8次
+            Log.d(TAG, "直连模式无法识别请求，交给DeepSeek处理: " + query);
+            getWeatherForecastWithRetry(createDeepSeekBody(query), timed(PATH_DIRECT_FALLBACK, callback), null);
+        }
+    }
+    
+    /**
+     * 包装回调，在第一次得到结果时记录该路径的耗时
+     */
+    private static WeatherCallback timed(String path, WeatherCallback callback) {
+        long startNanos = System.nanoTime();
+        AtomicBoolean recorded = new AtomicBoolean(false);
+        return new WeatherCallback() {
+            private void record() {
+                if (recorded.compareAndSet(false, true)) {
+                    LatencyTracker.getInstance().record(path, (System.nanoTime() - startNanos) / 1000000);
+                }
+            }
+            
+            @Override
+            public void onForecast(HourlyForecast forecast) {
+                record();
+                callback.onForecast(forecast);
+            }
+            
+            @Override
+            public void onText(String content) {
+                record();
+                callback.onText(content);
+            }
+            
+            @Override
+            public void onTextDelta(String delta) {
+                callback.onTextDelta(delta);
+            }
+            
+            @Override
+            public void onError(String error) {
+                record();
+                callback.onError(error);
+            }
+        };
+    }
+    
+    /**
+     * 包装回调，模型没有调用工具或请求失败时丢弃未使用的预取
+     */
+    private static WeatherCallback discarding(SpeculativePrefetcher.Prefetch prefetch, WeatherCallback callback) {
+        if (prefetch == null) {
+            return callback;
         }
+        return new WeatherCallback() {
+            @Override
+            public void onForecast(HourlyForecast forecast) {
+                callback.onForecast(forecast);
+            }
+            
+            @Override
+            public void onText(String content) {
+                prefetch.discard();
+                callback.onText(content);
+            }
+            
+            @Override
+            public void onTextDelta(String delta) {
+                callback.onTextDelta(delta);
+            }
+            
+            @Override
+            public void onError(String error) {
+                prefetch.discard();
+                callback.onError(error);
+            }
+        };
     }
     
     /**
      * 通过MCP模式获取天气预报
      */
     private static void getWeatherForecastWithMcp(String location, WeatherCallback callback) {
-        // 首先获取MCP服务器的工具列表
+        // 首先获取MCP服务器的工具列表，会话内已缓存时不再请求服务器
         McpClient mcpClient = McpClient.getInstance();
-        mcpClient.listTools().thenAccept(toolsResponse -> {
+        mcpClient.getTools().thenAccept(toolsResponse -> {
             if (toolsResponse.has("error")) {
                 callback.onError("获取MCP工具列表失败: " + toolsResponse.toString());
                 return;
             }
             
-            // 创建请求体
-            JsonObject requestBody = new JsonObject();
-            requestBody.addProperty("model", "deepseek-chat");
-            requestBody.add("messages", createMessages(location, true));
-            requestBody.add("tools", createMcpFunctionsFromResponse(toolsResponse));  // 使用从MCP服务器获取的工具列表
-            requestBody.addProperty("temperature", 0.0);
-            
-            // 将JsonObject转换为RequestBody
-            String json = requestBody.toString();
-            RequestBody body = RequestBody.create(MediaType.parse("application/json"), json);
-            
-            // 创建OkHttpClient实例并配置超时时间
-            OkHttpClient client = new OkHttpClient.Builder()
-                    .connectTimeout(120, TimeUnit.SECONDS)
-                    .readTimeout(120, TimeUnit.SECONDS)
-                    .writeTimeout(120, TimeUnit.SECONDS)
-                    .retryOnConnectionFailure(true)
-                    .followRedirects(true)
-                    .followSslRedirects(true)
-                    .build();
+            // 创建请求体，工具列表没有变化时复用已编译的模板，只拼接用户消息
+            RequestBody body = getMcpTemplate(toolsResponse).newBody(createUserMessage(location), streamingEnabled);
             
-            // 创建请求
-            okhttp3.Request request = new okhttp3.Request.Builder()
-                    .url("https://api.deepseek.com/chat/completions")
-                    .post(body)
-                    .addHeader("Authorization", "Bearer " + getApiKey())
-                    .addHeader("Content-Type", "application/json")
-                    .build();
-            
-            // 发送异步请求
-            client.newCall(request).enqueue(new okhttp3.Callback() {
-                @Override
-                public void onFailure(okhttp3.Call call, IOException e) {
-                    // 特别处理网络超时错误
-                    if (e instanceof java.net.SocketTimeoutException) {
-                        callback.onError("DeepSeek API请求超时，请检查网络连接或稍后重试");
-                    } else if (e instanceof java.net.UnknownHostException) {
-                        callback.onError("无法连接到DeepSeek API，请检查网络设置");
-                    } else {
-                        callback.onError("DeepSeek API调用失败: " + e.getMessage());
-                    }
+            // 经过重试策略发送请求，流式内容已交付后不再重试
+            callDeepSeek(body, (response, delivered) -> {
+                if (isEventStream(response)) {
+                    handleStreamingResponse(response, true, callback, null, delivered);
+                } else {
+                    handleMcpFunctionCallResponse(response.body().string(), callback);
                 }
-                
-                @Override
-                public void onResponse(okhttp3.Call call, okhttp3.Response response) throws IOException {
-                    if (response.isSuccessful() && response.body() != null) {
-                        try {
-                            String responseBody = response.body().string();
-                            handleMcpFunctionCallResponse(responseBody, callback);
-                        } catch (Exception e) {
-                            callback.onError("解析响应失败: " + e.getMessage());
-                        }
-                    } else {
-                        String errorBody = "";
-                        if (response.body() != null) {
-                            try {
-                                errorBody = response.body().string();
-                            } catch (IOException e) {
-                                // 忽略读取错误体的异常
-                            }
-                        }
-                        
-                        // 特别处理429错误（API配额用完）
-                        if (response.code() == 429) {
-                            callback.onError("DeepSeek API调用失败：API配额已用完，请稍后再试");
-                        } else {
-                            callback.onError("DeepSeek API调用失败，状态码: " + response.code() + "，错误信息: " + errorBody);
-                        }
-                    }
+            }).whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    callback.onError(describeDeepSeekError(unwrap(throwable)));
                 }
             });
         }).exceptionally(throwable -> {
@@ -208,29 +326,20 @@ public class DeepSeekFunctionCaller {
                     String functionName = function.get("name").getAsString();
 
                     if (MCP_FUNCTION_NAME.equals(functionName)) {
-                        // 从参数中获取位置信息
-                        String location = "北京"; // 默认位置
-                        // 解析arguments字符串
-                        if (function.has("arguments")) {
-                            try {
-                                String argumentsStr = function.get("arguments").getAsString();
-                                JsonObject arguments = new JsonParser().parse(argumentsStr).getAsJsonObject();
-                                if (arguments.has("location")) {
-                                    location = arguments.get("location").getAsString();
-                                }
-                            } catch (Exception e) {
-                                Log.e("BBBB", "解析arguments失败", e);
-                            }
-                        }
                         // 对于MCP模式，我们直接调用MCP服务器获取天气数据
-                        getWeatherDataFromMcp(location, callback);
+                        String location = parseLocationArgument(function);
+                        if (location == null) {
+                            callback.onError(MISSING_LOCATION_ERROR);
+                        } else {
+                            getWeatherDataFromMcp(location, callback);
+                        }
                     } else {
                         callback.onError("未知的函数调用: " + functionName);
                     }
                 } else {
                     // 直接返回内容
                     String content = message.get("content").getAsString();
-                    callback.onSuccess(content);
+                    callback.onText(content);
                 }
             } else if (message.has("function_call")) {
                 // 兼容旧版本的function_call
@@ -238,29 +347,20 @@ public class DeepSeekFunctionCaller {
                 String functionName = functionCall.get("name").getAsString();
 
                 if (MCP_FUNCTION_NAME.equals(functionName)) {
-                    // 从参数中获取位置信息
-                    String location = "北京"; // 默认位置
-                    // 解析arguments字符串
-                    if (functionCall.has("arguments")) {
-                        try {
-                            String argumentsStr = functionCall.get("arguments").getAsString();
-                            JsonObject arguments = new JsonParser().parse(argumentsStr).getAsJsonObject();
-                            if (arguments.has("location")) {
-                                location = arguments.get("location").getAsString();
-                            }
-                        } catch (Exception e) {
-                            Log.e("BBBB", "解析arguments失败", e);
-                        }
-                    }
                     // 对于MCP模式，我们直接调用MCP服务器获取天气数据
-                    getWeatherDataFromMcp(location, callback);
+                    String location = parseLocationArgument(functionCall);
+                    if (location == null) {
+                        callback.onError(MISSING_LOCATION_ERROR);
+                    } else {
+                        getWeatherDataFromMcp(location, callback);
+                    }
                 } else {
                     callback.onError("未知的函数调用: " + functionName);
                 }
             } else {
                 // 直接返回内容
                 String content = message.get("content").getAsString();
-                callback.onSuccess(content);
+                callback.onText(content);
             }
 
         } catch (Exception e) {
@@ -276,25 +376,13 @@ public class DeepSeekFunctionCaller {
             // 创建MCP客户端
             McpClient mcpClient = McpClient.getInstance();
             
-            // 初始化MCP连接
-            mcpClient.initialize().thenCompose(initResponse -> {
-                if (initResponse.has("error")) {
-                    throw new RuntimeException("MCP初始化失败: " + initResponse.toString());
-                }
-                
-                // 调用天气预报工具
+            // 复用已协商的MCP会话，稳定状态下每次预报只有一次tools/call
+            mcpClient.ensureSession().thenCompose(initResponse -> {
+                // 调用天气预报工具，响应直接解析为逐小时预报
                 JsonObject arguments = new JsonObject();
                 arguments.addProperty("location", location);
-                return mcpClient.callTool("get_weather_forecast", arguments);
-            }).thenAccept(weatherResponse -> {
-                if (weatherResponse.has("error")) {
-                    callback.onError("获取天气数据失败: " + weatherResponse.toString());
-                } else {
-                    // 提取天气数据
-                    String weatherData = weatherResponse.toString();
-                    callback.onSuccess(weatherData);
-                }
-            }).exceptionally(throwable -> {
+                return mcpClient.callForecastTool("get_weather_forecast", arguments);
+            }).thenAccept(callback::onForecast).exceptionally(throwable -> {
                 callback.onError("获取天气数据失败: " + throwable.getMessage());
                 return null;
             });
@@ -304,130 +392,259 @@ public class DeepSeekFunctionCaller {
     }
     
     /**
-     * 带重试机制的天气预报获取方法
-     * @param location 位置信息
+     * 带重试机制的天气预报获取方法，临时性失败按DEEPSEEK_RETRY在后台重试
+     * @param body 请求体，重试时复用同一个请求体
      * @param callback 回调接口
-     * @param maxRetries 最大重试次数
-     * @param retryCount 当前重试次数
+     * @param prefetch 推测性预取，没有时为null
      */
-    private static void getWeatherForecastWithRetry(String location, WeatherCallback callback, int maxRetries, int retryCount) {
-        
-        // 创建请求体
-        JsonObject requestBody = new JsonObject();
-        requestBody.addProperty("model", "deepseek-chat");
-        requestBody.add("messages", createMessages(location, false));
-        requestBody.add("tools", createFunctions());  // 使用tools而不是functions
-        requestBody.addProperty("temperature", 0.0);
-        
-        // 将JsonObject转换为RequestBody
-        String json = requestBody.toString();
-        RequestBody body = RequestBody.create(MediaType.parse("application/json"), json);
-        
-        // 创建OkHttpClient实例并配置超时时间
-        OkHttpClient client = new OkHttpClient.Builder()
-                .connectTimeout(120, TimeUnit.SECONDS)
-                .readTimeout(120, TimeUnit.SECONDS)
-                .writeTimeout(120, TimeUnit.SECONDS)
-                .retryOnConnectionFailure(true)
-                .followRedirects(true)
-                .followSslRedirects(true)
-                .build();
-        
-        // 创建请求
-        okhttp3.Request request = new okhttp3.Request.Builder()
-                .url("https://api.deepseek.com/chat/completions")
-                .post(body)
-                .addHeader("Authorization", "Bearer " + getApiKey())
-                .addHeader("Content-Type", "application/json")
-                .build();
+    private static void getWeatherForecastWithRetry(RequestBody body, WeatherCallback callback,
+                                                    SpeculativePrefetcher.Prefetch prefetch) {
+        callDeepSeek(body, (response, delivered) -> {
+            if (isEventStream(response)) {
+                handleStreamingResponse(response, false, callback, prefetch, delivered);
+            } else {
+                handleFunctionCallResponse(response.body().string(), callback, prefetch);
+            }
+        }).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                String error = describeDeepSeekError(unwrap(throwable));
+                new android.os.Handler(android.os.Looper.getMainLooper()).post(() -> callback.onError(error));
+            }
+        });
+    }
+    
+    /**
+     * 处理DeepSeek的成功响应
+     */
+    private interface ResponseConsumer {
+        /**
+         * @param delivered 已经向回调交付过内容时置为true，之后的失败不再重试
+         */
+        void accept(okhttp3.Response response, AtomicBoolean delivered) throws Exception;
+    }
+    
+    /**
+     * 响应内容已经部分交付后读取失败，重试会让界面重复显示，不再重试
+     */
+    private static class ResponseInterruptedException extends IOException {
+        ResponseInterruptedException(Exception cause) {
+            super("读取流式响应失败: " + cause.getMessage(), cause);
+        }
+    }
+    
+    /**
+     * 发送chat/completions请求，连接失败和响应体之前的429、5xx按重试策略重试
+     * @return 响应处理完成后完成；取消它会取消正在进行的请求和尚未开始的重试
+     */
+    private static CompletableFuture<Void> callDeepSeek(RequestBody body, ResponseConsumer consumer) {
+        return DEEPSEEK_RETRY.execute(() -> sendChatRequest(body, consumer));
+    }
+    
+    private static CompletableFuture<Void> sendChatRequest(RequestBody body, ResponseConsumer consumer) {
+        String authorization = "Bearer " + getApiKey();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        // 限流排队在enqueue之前完成，等待期间不占用OkHttp调度器的线程和并发名额
+        CompletableFuture<RateLimiter.Permit> permit = RateLimiter.getInstance()
+                .acquire(RateLimiter.PROVIDER_DEEPSEEK, authorization, RetryPolicy.getScheduler());
+        future.whenComplete((result, throwable) -> {
+            if (future.isCancelled()) {
+                permit.cancel(false);
+            }
+        });
+        permit.thenAccept(granted -> enqueueChatRequest(body, authorization, granted, consumer, future))
+                .exceptionally(throwable -> {
+                    future.completeExceptionally(throwable);
+                    return null;
+                });
+        return future;
+    }
+    
+    private static void enqueueChatRequest(RequestBody body, String authorization, RateLimiter.Permit permit,
+                                           ResponseConsumer consumer, CompletableFuture<Void> future) {
+        // 使用共享的DeepSeek客户端，复用连接池和调度器
+        OkHttpClient client = HttpClientProvider.getInstance().getDeepSeekClient();
+        okhttp3.Call call = client.newCall(createChatRequest(body, authorization, permit));
+        future.whenComplete((result, throwable) -> {
+            // 请求没有经过限流拦截器（被取消）时归还令牌
+            permit.release();
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
         
         // 发送异步请求
-        client.newCall(request).enqueue(new okhttp3.Callback() {
+        call.enqueue(new okhttp3.Callback() {
             @Override
             public void onFailure(okhttp3.Call call, IOException e) {
-                // 特别处理网络超时错误
-                if (e instanceof java.net.SocketTimeoutException) {
-                    if (retryCount < maxRetries) {
-                        retryCallWithDelay(location, callback, maxRetries, retryCount + 1);
-                    } else {
-                        callback.onError("DeepSeek API请求超时，请检查网络连接或稍后重试");
-                    }
-                } else if (e instanceof java.net.UnknownHostException) {
-                    if (retryCount < maxRetries) {
-                        retryCallWithDelay(location, callback, maxRetries, retryCount + 1);
-                    } else {
-                        callback.onError("无法连接到DeepSeek API，请检查网络设置");
-                    }
-                } else {
-                    if (retryCount < maxRetries) {
-                        retryCallWithDelay(location, callback, maxRetries, retryCount + 1);
-                    } else {
-                        callback.onError("DeepSeek API调用失败: " + e.getMessage());
-                    }
-                }
+                future.completeExceptionally(e);
             }
             
             @Override
-            public void onResponse(okhttp3.Call call, okhttp3.Response response) throws IOException {
-                if (response.isSuccessful() && response.body() != null) {
-                    try {
-                        String responseBody = response.body().string();
-                        handleFunctionCallResponse(responseBody, callback);
-                    } catch (Exception e) {
-                        if (retryCount < maxRetries) {
-                            retryCallWithDelay(location, callback, maxRetries, retryCount + 1);
-                        } else {
-                            callback.onError("解析响应失败: " + e.getMessage());
+            public void onResponse(okhttp3.Call call, okhttp3.Response response) {
+                try (okhttp3.Response r = response) {
+                    if (r.isSuccessful() && r.body() != null) {
+                        AtomicBoolean delivered = new AtomicBoolean(false);
+                        try {
+                            consumer.accept(r, delivered);
+                            future.complete(null);
+                        } catch (Exception e) {
+                            future.completeExceptionally(delivered.get() ? new ResponseInterruptedException(e) : e);
                         }
+                        return;
                     }
-                } else {
                     String errorBody = "";
-                    if (response.body() != null) {
+                    if (r.body() != null) {
                         try {
-                            errorBody = response.body().string();
+                            errorBody = r.body().string();
                         } catch (IOException e) {
                             // 忽略读取错误体的异常
                         }
                     }
-                    
-                    // 特别处理429错误（API配额用完）
-                    if (response.code() == 429) {
-                        if (retryCount < maxRetries) {
-                            retryCallWithDelay(location, callback, maxRetries, retryCount + 1);
-                        } else {
-                            callback.onError("DeepSeek API调用失败：API配额已用完，请稍后再试");
-                        }
-                    } else {
-                        if (retryCount < maxRetries) {
-                            retryCallWithDelay(location, callback, maxRetries, retryCount + 1);
-                        } else {
-                            callback.onError("DeepSeek API调用失败，状态码: " + response.code() + "，错误信息: " + errorBody);
-                        }
-                    }
+                    // 429响应带有Retry-After时，重试不早于该时间
+                    long retryAfterMillis = RateLimiter.parseRetryAfterMillis(r.header("Retry-After"), System.currentTimeMillis());
+                    future.completeExceptionally(new HttpStatusException(r.code(), errorBody, retryAfterMillis));
                 }
             }
         });
     }
     
     /**
-     * 延迟后重试调用
+     * DeepSeek请求是否值得重试：只重试连接没有建立，或者在响应体之前就收到429、5xx状态码的请求
+     * 读取超时、连接中断和已经部分交付的响应都可能已被处理并计费，不重试
      */
-    private static void retryCallWithDelay(String location, WeatherCallback callback, int maxRetries, int retryCount) {
-        // 延迟重试，每次重试增加延迟时间（指数退避）
-        int delayMillis = (int) (2000 * Math.pow(2, retryCount)); // 2秒, 4秒, 8秒, 16秒, 32秒...
-        // 最大延迟不超过120秒
-        delayMillis = Math.min(delayMillis, 120000);
-        
-        // 在主线程中延迟执行重试
-        new android.os.Handler(android.os.Looper.getMainLooper()).postDelayed(() -> {
-            getWeatherForecastWithRetry(location, callback, maxRetries, retryCount);
-        }, delayMillis);
+    private static boolean isRetryableDeepSeekError(Throwable error) {
+        if (error instanceof HttpStatusException) {
+            int code = ((HttpStatusException) error).getCode();
+            return code == 429 || code >= 500;
+        }
+        return error instanceof ConnectException || error instanceof UnknownHostException
+                || error instanceof NoRouteToHostException;
+    }
+    
+    /**
+     * 将DeepSeek API的失败原因转换为提示信息
+     */
+    private static String describeDeepSeekError(Throwable t) {
+        if (t instanceof HttpStatusException) {
+            HttpStatusException httpError = (HttpStatusException) t;
+            // 特别处理429错误（API配额用完）
+            if (httpError.getCode() == 429) {
+                return "DeepSeek API调用失败：API配额已用完，请稍后再试";
+            }
+            return "DeepSeek API调用失败，状态码: " + httpError.getCode() + "，错误信息: " + httpError.getErrorBody();
+        } else if (t instanceof java.net.SocketTimeoutException || t instanceof java.util.concurrent.TimeoutException) {
+            // 特别处理网络超时错误
+            return "DeepSeek API请求超时，请检查网络连接或稍后重试";
+        } else if (t instanceof java.net.UnknownHostException) {
+            return "无法连接到DeepSeek API，请检查网络设置";
+        } else if (t instanceof ResponseInterruptedException) {
+            return t.getMessage();
+        } else if (t instanceof com.google.gson.JsonParseException || t instanceof com.google.gson.stream.MalformedJsonException) {
+            return "解析响应失败: " + t.getMessage();
+        }
+        return "DeepSeek API调用失败: " + t.getMessage();
+    }
+    
+    /**
+     * 创建chat/completions请求
+     */
+    private static okhttp3.Request createChatRequest(RequestBody body, String authorization, RateLimiter.Permit permit) {
+        return new okhttp3.Request.Builder()
+                .url(deepSeekBaseUrl + "chat/completions")
+                .post(body)
+                .addHeader("Authorization", authorization)
+                .addHeader("Content-Type", "application/json")
+                .tag(RateLimiter.Permit.class, permit)
+                .build();
+    }
+    
+    /**
+     * 响应是否为server-sent events，服务端忽略stream参数时仍按普通JSON响应处理
+     */
+    private static boolean isEventStream(okhttp3.Response response) {
+        String contentType = response.header("Content-Type");
+        return contentType != null && contentType.startsWith("text/event-stream");
+    }
+    
+    /**
+     * 边接收边解析流式响应：第一个工具调用的参数完整后立即获取天气数据，不等待响应结束；
+     * 文本内容逐段通过onTextDelta交付，结束时再通过onText交付完整内容
+     * @param useMcp 是否为MCP模式，MCP模式在当前线程回调，否则切换到主线程回调
+     * @param prefetch 推测性预取，没有时为null
+     * @param delivered 已经向回调交付过内容时置为true
+     * @throws IOException 读取流失败；工具调用已经发出时不再抛出，结果由工具调用交付，避免界面先显示天气再显示错误
+     */
+    static void handleStreamingResponse(okhttp3.Response response, boolean useMcp, WeatherCallback callback,
+                                        SpeculativePrefetcher.Prefetch prefetch, AtomicBoolean delivered) throws IOException {
+        AtomicBoolean toolDispatched = new AtomicBoolean(false);
+        try (okhttp3.ResponseBody body = response.body()) {
+            new DeepSeekStreamParser(new DeepSeekStreamParser.Listener() {
+                @Override
+                public void onContentDelta(String delta) {
+                    delivered.set(true);
+                    deliver(!useMcp, () -> callback.onTextDelta(delta));
+                }
+                
+                @Override
+                public void onToolCall(String name, JsonObject arguments) {
+                    if (!toolDispatched.compareAndSet(false, true)) {
+                        // 与非流式模式一致，只处理第一个工具调用
+                        return;
+                    }
+                    delivered.set(true);
+                    dispatchToolCall(name, arguments, useMcp, prefetch, callback);
+                }
+                
+                @Override
+                public void onComplete(String content, boolean toolCalled) {
+                    if (!toolDispatched.get()) {
+                        delivered.set(true);
+                        deliver(!useMcp, () -> callback.onText(content));
+                    }
+                }
+            }).parse(body.source());
+        } catch (IOException | RuntimeException e) {
+            if (!toolDispatched.get()) {
+                throw e;
+            }
+            Log.w(TAG, "工具调用已发出，忽略流式响应剩余部分的错误: " + e);
+        }
+    }
+    
+    /**
+     * 执行流式响应中解析出的工具调用，缺少位置参数时报告错误而不是查询默认位置
+     */
+    private static void dispatchToolCall(String functionName, JsonObject arguments, boolean useMcp,
+                                         SpeculativePrefetcher.Prefetch prefetch, WeatherCallback callback) {
+        String location = readLocation(arguments);
+        if (location == null) {
+            deliver(!useMcp, () -> callback.onError(MISSING_LOCATION_ERROR));
+        } else if (useMcp && MCP_FUNCTION_NAME.equals(functionName)) {
+            getWeatherDataFromMcp(location, callback);
+        } else if (!useMcp && FUNCTION_NAME.equals(functionName)) {
+            getCaiyunWeatherData(location, prefetch, callback);
+        } else {
+            deliver(!useMcp, () -> callback.onError("未知的函数调用: " + functionName));
+        }
+    }
+    
+    /**
+     * 交付回调
+     * @param onMainThread 是否切换到主线程
+     */
+    private static void deliver(boolean onMainThread, Runnable action) {
+        if (onMainThread) {
+            new android.os.Handler(android.os.Looper.getMainLooper()).post(action);
+        } else {
+            action.run();
+        }
     }
     
     /**
      * 处理Function Calling响应
      */
-    private static void handleFunctionCallResponse(String response, WeatherCallback callback) {
+    private static void handleFunctionCallResponse(String response, WeatherCallback callback,
+                                                   SpeculativePrefetcher.Prefetch prefetch) {
         try {
             JsonElement responseElement;
             try {
@@ -481,7 +698,7 @@ public class DeepSeekFunctionCaller {
 
                     if (FUNCTION_NAME.equals(functionName)) {
                         // 调用彩云天气API获取真实数据
-                        getCaiyunWeatherData(callback);
+                        getCaiyunWeatherData(parseLocationArgument(function), prefetch, callback);
                     } else {
                         // 确保在主线程中调用回调
                         new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
@@ -498,7 +715,7 @@ public class DeepSeekFunctionCaller {
                     new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
                         @Override
                         public void run() {
-                            callback.onSuccess(content);
+                            callback.onText(content);
                         }
                     });
                 }
@@ -509,7 +726,7 @@ public class DeepSeekFunctionCaller {
 
                 if (FUNCTION_NAME.equals(functionName)) {
                     // 调用彩云天气API获取真实数据
-                    getCaiyunWeatherData(callback);
+                    getCaiyunWeatherData(parseLocationArgument(functionCall), prefetch, callback);
                 } else {
                     // 确保在主线程中调用回调
                     new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
@@ -526,7 +743,7 @@ public class DeepSeekFunctionCaller {
                 new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
                     @Override
                     public void run() {
-                        callback.onSuccess(content);
+                        callback.onText(content);
                     }
                 });
             }
@@ -542,142 +759,116 @@ public class DeepSeekFunctionCaller {
     }
     
     /**
-     * 调用彩云天气API获取真实数据
+     * 从函数调用中解析位置参数
+     * @return 位置，没有或解析失败时返回null
      */
-    private static void getCaiyunWeatherData(WeatherCallback callback) {
-        // 获取位置信息（这里使用北京的经纬度作为示例）
-        double longitude = 116.4074; // 北京经度
-        double latitude = 39.9042;   // 北京纬度
-        String token = "YOUR_CAIYUN_WEATHER_TOKEN"; // 彩云天气免费token
-        
-        // 如果应用上下文可用，尝试从配置文件中获取token
-        if (appContext != null) {
-            String configToken = ApiKeyManager.getInstance(appContext).getCaiyunWeatherToken();
-            if (configToken != null && !configToken.isEmpty() && !configToken.equals("YOUR_CAIYUN_WEATHER_TOKEN")) {
-                token = configToken;
+    private static String parseLocationArgument(JsonObject function) {
+        if (function.has("arguments")) {
+            try {
+                String argumentsStr = function.get("arguments").getAsString();
+                return readLocation(new JsonParser().parse(argumentsStr).getAsJsonObject());
+            } catch (Exception e) {
+                Log.e(TAG, "解析arguments失败", e);
             }
         }
-        
-        // 调用彩云天气API
-        Call<ResponseBody> call = WeatherService.getInstance().getCaiyunApi()
-                .getWeatherForecastRaw(token, longitude, latitude);
-
-        call.enqueue(new Callback<ResponseBody>() {
-            @Override
-            public void onResponse(Call<ResponseBody> call, retrofit2.Response<ResponseBody> response) {
-                if (response.isSuccessful() && response.body() != null) {
-                    try {
-                        String responseBody = response.body().string();
-                        
-                        // 解析响应
-                        Gson gson = new Gson();
-                        WeatherResponse weatherResponse = gson.fromJson(responseBody, WeatherResponse.class);
-                        
-                        // 将WeatherResponse对象转换为JSON字符串
-                        String jsonResponse = gson.toJson(weatherResponse);
-                        // 确保在主线程中调用回调
-                        new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
-                            @Override
-                            public void run() {
-                                callback.onSuccess(jsonResponse);
-                            }
-                        });
-                    } catch (Exception e) {
-                        // 确保在主线程中调用回调
-                        new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
-                            @Override
-                            public void run() {
-                                callback.onError("解析彩云天气API响应失败: " + e.getMessage());
-                            }
-                        });
-                    }
-                } else {
-                    if (response.errorBody() != null) {
-                        try {
-                            String errorBody = response.errorBody().string();
-                            
-                            // 特别处理429错误（API配额用完）
-                            if (response.code() == 429) {
-                                // 确保在主线程中调用回调
-                                new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        callback.onError("彩云天气API调用失败：API配额已用完，请稍后再试或使用付费token");
-                                    }
-                                });
-                            } else {
-                                // 确保在主线程中调用回调
-                                new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        callback.onError("彩云天气API调用失败，状态码: " + response.code() + "，错误信息: " + errorBody);
-                                    }
-                                });
-                            }
-                        } catch (Exception e) {
-                            // 确保在主线程中调用回调
-                            new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
-                                @Override
-                                public void run() {
-                                    callback.onError("彩云天气API调用失败，状态码: " + response.code());
-                                }
-                            });
-                        }
-                    } else {
-                        // 特别处理429错误（API配额用完）
-                        if (response.code() == 429) {
-                            // 确保在主线程中调用回调
-                            new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
-                                @Override
-                                public void run() {
-                                    callback.onError("彩云天气API调用失败：API配额已用完，请稍后再试或使用付费token");
-                                }
-                            });
-                        } else {
-                            // 确保在主线程中调用回调
-                            new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
-                                @Override
-                                public void run() {
-                                    callback.onError("彩云天气API调用失败，状态码: " + response.code());
-                                }
-                            });
-                        }
-                    }
-                }
+        return null;
+    }
+    
+    /**
+     * 读取工具调用参数中的位置
+     * @return 位置，没有或为空时返回null
+     */
+    private static String readLocation(JsonObject arguments) {
+        JsonElement location = arguments.get("location");
+        if (location == null || !location.isJsonPrimitive() || location.getAsString().trim().isEmpty()) {
+            return null;
+        }
+        return location.getAsString();
+    }
+    
+    /**
+     * 调用彩云天气API获取真实数据
+     */
+    private static void getCaiyunWeatherData(String location, WeatherCallback callback) {
+        getCaiyunWeatherData(location, null, callback);
+    }
+    
+    /**
+     * 调用彩云天气API获取真实数据，位置与推测性预取一致时直接使用预取结果
+     * @param location 位置，模型没有给出位置时为null
+     * @param prefetch 推测性预取，没有时为null
+     */
+    private static void getCaiyunWeatherData(String location, SpeculativePrefetcher.Prefetch prefetch, WeatherCallback callback) {
+        if (location == null) {
+            new android.os.Handler(android.os.Looper.getMainLooper()).post(() -> callback.onError(MISSING_LOCATION_ERROR));
+            return;
+        }
+        CompletableFuture<ForecastRepository.Forecast> future = prefetch != null ? prefetch.claim(location) : null;
+        if (future == null) {
+            // 获取位置坐标
+            double[] coordinates = LocationResolver.resolve(location);
+            if (coordinates == null) {
+                new android.os.Handler(android.os.Looper.getMainLooper()).post(() -> callback.onError("未知的位置: " + location));
+                return;
             }
+            double longitude = coordinates[0];
+            double latitude = coordinates[1];
             
-            @Override
-            public void onFailure(Call<ResponseBody> call, Throwable t) {
-                // 特别处理网络超时错误
-                if (t instanceof java.net.SocketTimeoutException) {
-                    // 确保在主线程中调用回调
-                    new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
-                        @Override
-                        public void run() {
-                            callback.onError("彩云天气API请求超时，请检查网络连接或稍后重试");
-                        }
-                    });
-                } else if (t instanceof java.net.UnknownHostException) {
-                    // 确保在主线程中调用回调
-                    new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
-                        @Override
-                        public void run() {
-                            callback.onError("无法连接到彩云天气API，请检查网络设置");
-                        }
-                    });
-                } else {
-                    // 确保在主线程中调用回调
-                    new android.os.Handler(android.os.Looper.getMainLooper()).post(new Runnable() {
-                        @Override
-                        public void run() {
-                            callback.onError("彩云天气API调用失败: " + t.getMessage());
-                        }
-                    });
-                }
+            // 通过预报仓库获取数据，缓存新鲜时不访问网络，过期时先返回旧数据再后台刷新
+            future = ForecastRepository.getInstance().getForecast(longitude, latitude);
+        }
+        future.whenComplete((forecast, throwable) -> {
+            if (throwable == null) {
+                // 直接交付解析好的逐小时预报，不再序列化为字符串
+                HourlyForecast hourlyForecast = forecast.getHourlyForecast();
+                // 确保在主线程中调用回调
+                new android.os.Handler(android.os.Looper.getMainLooper()).post(() -> callback.onForecast(hourlyForecast));
+            } else {
+                String error = describeCaiyunError(unwrap(throwable));
+                // 确保在主线程中调用回调
+                new android.os.Handler(android.os.Looper.getMainLooper()).post(() -> callback.onError(error));
             }
         });
     }
     
+    /**
+     * 将彩云天气API的失败原因转换为提示信息
+     */
+    private static String describeCaiyunError(Throwable t) {
+        if (t instanceof ForecastRepository.HttpError) {
+            ForecastRepository.HttpError httpError = (ForecastRepository.HttpError) t;
+            // 特别处理429错误（API配额用完）
+            if (httpError.getCode() == 429) {
+                long retryAfterSeconds = (httpError.getRetryAfterMillis() + 999) / 1000;
+                return retryAfterSeconds > 0
+                        ? "彩云天气API调用失败：API配额已用完，请 " + retryAfterSeconds + " 秒后再试或使用付费token"
+                        : "彩云天气API调用失败：API配额已用完，请稍后再试或使用付费token";
+            }
+            if (httpError.getErrorBody() != null && !httpError.getErrorBody().isEmpty()) {
+                return "彩云天气API调用失败，状态码: " + httpError.getCode() + "，错误信息: " + httpError.getErrorBody();
+            }
+            return "彩云天气API调用失败，状态码: " + httpError.getCode();
+        } else if (t instanceof java.net.SocketTimeoutException) {
+            // 特别处理网络超时错误
+            return "彩云天气API请求超时，请检查网络连接或稍后重试";
+        } else if (t instanceof java.net.UnknownHostException) {
+            return "无法连接到彩云天气API，请检查网络设置";
+        } else if (t instanceof com.google.gson.stream.MalformedJsonException) {
+            return "解析彩云天气API响应失败: " + t.getMessage();
+        }
+        return "彩云天气API调用失败: " + t.getMessage();
+    }
+    
+    /**
+     * 取出CompletableFuture包装的原始异常
+     */
+    private static Throwable unwrap(Throwable throwable) {
+        if (throwable instanceof java.util.concurrent.CompletionException && throwable.getCause() != null) {
+            return throwable.getCause();
+        }
+        return throwable;
+    }
+    
     private static String getWeatherCondition(int hour) {
         // 根据时间模拟天气状况
         if (hour >= 6 && hour <= 18) {
@@ -797,10 +988,56 @@ public class DeepSeekFunctionCaller {
         return functions;
     }
     
+    /**
+     * 使用DeepSeek模式的请求模板生成请求体
+     * @param userContent 用户消息
+     */
+    private static RequestBody createDeepSeekBody(String userContent) {
+        return getDeepSeekTemplate().newBody(userContent, streamingEnabled);
+    }
+    
+    private static synchronized ChatRequestTemplate getDeepSeekTemplate() {
+        if (deepSeekTemplate == null) {
+            deepSeekTemplate = ChatRequestTemplate.compile(createRequestTemplateBody(createFunctions(), false));
+        }
+        return deepSeekTemplate;
+    }
+    
+    /**
+     * 获取MCP模式的请求模板，MCP服务器返回的工具列表变化时重新编译
+     */
+    private static synchronized ChatRequestTemplate getMcpTemplate(JsonObject toolsResponse) {
+        if (mcpTemplate == null || !toolsResponse.equals(mcpTemplateTools)) {
+            // 使用从MCP服务器获取的工具列表
+            mcpTemplate = ChatRequestTemplate.compile(createRequestTemplateBody(createMcpFunctionsFromResponse(toolsResponse), true));
+            mcpTemplateTools = toolsResponse;
+        }
+        return mcpTemplate;
+    }
+    
+    /**
+     * 创建用于编译模板的请求体，用户消息为占位内容
+     */
+    private static JsonObject createRequestTemplateBody(JsonArray tools, boolean useMcp) {
+        JsonObject requestBody = new JsonObject();
+        requestBody.addProperty("model", "deepseek-chat");
+        requestBody.add("messages", createMessages(ChatRequestTemplate.USER_CONTENT_PLACEHOLDER, useMcp));
+        requestBody.add("tools", tools);  // 使用tools而不是functions
+        requestBody.addProperty("temperature", 0.0);
+        return requestBody;
+    }
+    
+    /**
+     * 根据位置生成用户消息
+     */
+    private static String createUserMessage(String location) {
+        return "请告诉我" + location + "未来24小时的天气预报，直接返回JSON数据";
+    }
+    
     /**
      * 创建消息数组
      */
-    private static JsonArray createMessages(String location, boolean useMcp) {
+    private static JsonArray createMessages(String userContent, boolean useMcp) {
         JsonArray messages = new JsonArray();
         
         // 系统消息 - 预设提示词
@@ -816,7 +1053,7 @@ public class DeepSeekFunctionCaller {
         // 用户消息
         JsonObject userMessage = new JsonObject();
         userMessage.addProperty("role", "user");
-        userMessage.addProperty("content", "请告诉我" + location + "未来24小时的天气预报，直接返回JSON数据");
+        userMessage.addProperty("content", userContent);
         messages.add(userMessage);
         
         return messages;
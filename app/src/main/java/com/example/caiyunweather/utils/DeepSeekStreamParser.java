@@ -0,0 +1,235 @@
+package com.example.caiyunweather.utils;
+
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.BufferedSource;
+
+/**
+ * DeepSeek流式（"stream": true）chat/completions响应解析器
+ * 按server-sent events逐条读取delta：文本内容增量立即回调；
+ * tool_calls[].function.arguments逐段拼接，参数JSON一旦完整就立即回调，不必等待整个响应结束。
+ * 参数不完整或不是合法JSON的工具调用不会派发，parse()以异常结束
+ */
+public class DeepSeekStreamParser {
+    private static final String TAG = "DeepSeekStreamParser";
+    private static final String DATA_PREFIX = "data:";
+    private static final String DONE = "[DONE]";
+
+    /**
+     * 解析事件回调，均在读取响应的线程中调用
+     */
+    public interface Listener {
+        /**
+         * 收到文本内容增量
+         */
+        void onContentDelta(String delta);
+
+        /**
+         * 某个工具调用的参数已经完整
+         * @param name 函数名
+         * @param arguments 解析后的参数
+         */
+        void onToolCall(String name, JsonObject arguments);
+
+        /**
+         * 流结束
+         * @param content 完整的文本内容
+         * @param toolCalled 是否出现过工具调用
+         */
+        void onComplete(String content, boolean toolCalled);
+    }
+
+    private final Listener listener;
+    private final StringBuilder content = new StringBuilder();
+    private final List<ToolCallBuilder> toolCalls = new ArrayList<>();
+    private boolean completed;
+    private boolean toolDispatched;
+
+    public DeepSeekStreamParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 读取整个事件流直到[DONE]或连接结束
+     * @throws MalformedJsonException 流已结束，但工具调用的参数不完整或不是合法的JSON对象，且没有派发过其他工具调用
+     * @throws EOFException 连接在[DONE]或finish_reason之前结束，且没有派发过工具调用
+     */
+    public void parse(BufferedSource source) throws IOException {
+        StringBuilder data = new StringBuilder();
+        String line;
+        while (!completed && (line = source.readUtf8Line()) != null) {
+            if (line.isEmpty()) {
+                // 空行表示一个事件结束
+                dispatchEvent(data);
+                data.setLength(0);
+            } else if (line.startsWith(DATA_PREFIX)) {
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(line.substring(DATA_PREFIX.length()).trim());
+            }
+            // 以冒号开头的注释行（如": keep-alive"）和其他字段忽略
+        }
+        dispatchEvent(data);
+        if (!completed) {
+            // 没有收到结束标记，响应被截断；已经派发的工具调用不受影响
+            if (!toolDispatched) {
+                throw new EOFException("流式响应在结束标记之前中断");
+            }
+            finish();
+        }
+    }
+
+    private void dispatchEvent(StringBuilder data) throws IOException {
+        if (data.length() == 0 || completed) {
+            return;
+        }
+        String payload = data.toString();
+        if (DONE.equals(payload)) {
+            finish();
+            return;
+        }
+        JsonObject chunk;
+        try {
+            chunk = new JsonParser().parse(payload).getAsJsonObject();
+        } catch (Exception e) {
+            Log.w(TAG, "忽略无法解析的事件: " + payload);
+            return;
+        }
+        JsonArray choices = chunk.getAsJsonArray("choices");
+        if (choices == null || choices.size() == 0) {
+            return;
+        }
+        JsonObject choice = choices.get(0).getAsJsonObject();
+        JsonObject delta = choice.has("delta") && choice.get("delta").isJsonObject()
+                ? choice.getAsJsonObject("delta") : null;
+        if (delta != null) {
+            handleDelta(delta);
+        }
+        if (choice.has("finish_reason") && !choice.get("finish_reason").isJsonNull()) {
+            finish();
+        }
+    }
+
+    private void handleDelta(JsonObject delta) throws IOException {
+        JsonElement contentElement = delta.get("content");
+        if (contentElement != null && !contentElement.isJsonNull()) {
+            String text = contentElement.getAsString();
+            if (!text.isEmpty()) {
+                content.append(text);
+                listener.onContentDelta(text);
+            }
+        }
+        JsonElement toolCallsElement = delta.get("tool_calls");
+        if (toolCallsElement == null || !toolCallsElement.isJsonArray()) {
+            return;
+        }
+        for (JsonElement element : toolCallsElement.getAsJsonArray()) {
+            JsonObject toolCall = element.getAsJsonObject();
+            int index = toolCall.has("index") ? toolCall.get("index").getAsInt() : 0;
+            while (toolCalls.size() <= index) {
+                toolCalls.add(new ToolCallBuilder());
+            }
+            ToolCallBuilder builder = toolCalls.get(index);
+            JsonObject function = toolCall.getAsJsonObject("function");
+            if (function == null) {
+                continue;
+            }
+            if (function.has("name") && !function.get("name").isJsonNull()) {
+                builder.name = function.get("name").getAsString();
+            }
+            if (function.has("arguments") && !function.get("arguments").isJsonNull()) {
+                builder.append(function.get("arguments").getAsString());
+            }
+            if (builder.isArgumentsComplete()) {
+                dispatchToolCall(builder);
+            }
+        }
+    }
+
+    private void dispatchToolCall(ToolCallBuilder builder) {
+        if (builder.dispatched || builder.invalid || builder.name == null) {
+            return;
+        }
+        JsonObject arguments;
+        try {
+            arguments = new JsonParser().parse(builder.arguments.toString()).getAsJsonObject();
+        } catch (Exception e) {
+            // 不派发空参数，否则会查询默认位置而不是用户询问的位置
+            Log.w(TAG, "工具调用参数不是合法的JSON对象: " + builder.arguments);
+            builder.invalid = true;
+            return;
+        }
+        builder.dispatched = true;
+        toolDispatched = true;
+        listener.onToolCall(builder.name, arguments);
+    }
+
+    private void finish() throws IOException {
+        if (completed) {
+            return;
+        }
+        completed = true;
+        if (!toolDispatched) {
+            // 参数不完整或无法解析的工具调用报告为错误
+            for (ToolCallBuilder builder : toolCalls) {
+                if (builder.name != null) {
+                    throw new MalformedJsonException("工具调用 " + builder.name + " 的参数不完整或无效: " + builder.arguments);
+                }
+            }
+        }
+        listener.onComplete(content.toString(), !toolCalls.isEmpty());
+    }
+
+    /**
+     * 逐段拼接的工具调用，跟踪括号深度以判断参数JSON是否已经完整
+     */
+    private static class ToolCallBuilder {
+        private String name;
+        private final StringBuilder arguments = new StringBuilder();
+        private int depth;
+        private boolean started;
+        private boolean inString;
+        private boolean escaped;
+        private boolean dispatched;
+        private boolean invalid;
+
+        void append(String fragment) {
+            arguments.append(fragment);
+            for (int i = 0; i < fragment.length(); i++) {
+                char c = fragment.charAt(i);
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (c == '\\') {
+                        escaped = true;
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                    started = true;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+        }
+
+        boolean isArgumentsComplete() {
+            return started && depth == 0 && !inString;
+        }
+    }
+}
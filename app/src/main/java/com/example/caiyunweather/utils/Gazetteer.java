@@ -0,0 +1,259 @@
+package com.example.caiyunweather.utils;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 离线地名库
+ * 数据来自assets/gazetteer.bin（由tools/gazetteer/build_gazetteer.py生成），包括地点坐标和按键排序的
+ * 汉字、拼音索引；查询在索引上二分查找，直接比较字符池中的字符，不创建字符串，也不访问网络
+ */
+public final class Gazetteer {
+    static final String ASSET_NAME = "gazetteer.bin";
+    private static final int MAGIC = 0x475A5431;          // "GZT1"
+    private static final int HEADER_SIZE = 20;
+    private static final int PLACE_SIZE = 16;
+    private static final int ENTRY_SIZE = 8;
+    private static final int MIN_MATCH_LENGTH = 2;          // 前缀匹配的最短长度
+    private static final int MAX_PREFIX_CANDIDATES = 64;    // 前缀匹配最多比较的索引项
+
+    private final ByteBuffer buffer;
+    private final int placeCount;
+    private final int placesStart;
+    private final int nameCount;
+    private final int namesStart;
+    private final int pinyinCount;
+    private final int pinyinStart;
+    private final int poolStart;
+
+    private Gazetteer(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("地名库格式错误");
+        }
+        placeCount = buffer.getInt(4);
+        nameCount = buffer.getInt(8);
+        pinyinCount = buffer.getInt(12);
+        int poolLength = buffer.getInt(16);
+        placesStart = HEADER_SIZE;
+        namesStart = placesStart + placeCount * PLACE_SIZE;
+        pinyinStart = namesStart + nameCount * ENTRY_SIZE;
+        poolStart = pinyinStart + pinyinCount * ENTRY_SIZE;
+        if (poolStart + poolLength * 2 > buffer.capacity()) {
+            throw new IOException("地名库数据不完整");
+        }
+    }
+
+    /**
+     * 打开应用内置的地名库
+     * 资源未压缩时直接内存映射，否则读入内存（约10KB）
+     */
+    public static Gazetteer open(Context context) throws IOException {
+        try (AssetFileDescriptor descriptor = context.getAssets().openFd(ASSET_NAME);
+             FileInputStream input = descriptor.createInputStream()) {
+            return new Gazetteer(input.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getLength()));
+        } catch (IOException e) {
+            // 资源被压缩时无法获取文件描述符
+            try (InputStream input = context.getAssets().open(ASSET_NAME)) {
+                return load(input);
+            }
+        }
+    }
+
+    /**
+     * 从输入流读取地名库
+     */
+    public static Gazetteer load(InputStream input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int count;
+        while ((count = input.read(chunk)) != -1) {
+            out.write(chunk, 0, count);
+        }
+        return new Gazetteer(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    public int size() {
+        return placeCount;
+    }
+
+    /**
+     * 查找地点
+     * 依次尝试：完整匹配（汉字，包括"某某市"别名；或拼音，忽略大小写、空格和撇号）、
+     * 索引中最长的作为查询前缀的地名（例如"杭州西湖"匹配杭州）、以查询为前缀的地名（例如"乌鲁"匹配乌鲁木齐）
+     * @param query 地名
+     * @return 地点序号，找不到时返回-1
+     */
+    public int find(String query) {
+        return find(query, false);
+    }
+
+    /**
+     * 只按完整的地名或拼音查找，不做前缀匹配
+     * @return 地点序号，找不到时返回-1
+     */
+    public int findExact(String query) {
+        return find(query, true);
+    }
+
+    public String getName(int place) {
+        int base = placesStart + place * PLACE_SIZE;
+        int offset = buffer.getInt(base + 8);
+        int length = buffer.getShort(base + 12);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = poolChar(offset + i);
+        }
+        return new String(chars);
+    }
+
+    public double getLongitude(int place) {
+        return buffer.getInt(placesStart + place * PLACE_SIZE) / 1e5;
+    }
+
+    public double getLatitude(int place) {
+        return buffer.getInt(placesStart + place * PLACE_SIZE + 4) / 1e5;
+    }
+
+    /**
+     * 行政级别：1为直辖市或省会，2为地级，3为县级
+     */
+    public int getLevel(int place) {
+        return buffer.get(placesStart + place * PLACE_SIZE + 14);
+    }
+
+    private int find(String query, boolean exactOnly) {
+        if (query == null) {
+            return -1;
+        }
+        String key = query.trim();
+        if (key.isEmpty()) {
+            return -1;
+        }
+        if (key.charAt(0) < 0x80) {
+            return find(pinyinStart, pinyinCount, normalizePinyin(key), exactOnly);
+        }
+        return find(namesStart, nameCount, key, exactOnly);
+    }
+
+    private int find(int indexStart, int count, String key, boolean exactOnly) {
+        // 完整匹配
+        int entry = lowerBound(indexStart, count, key, key.length());
+        if (entry < count && compare(indexStart, entry, key, key.length()) == 0) {
+            return placeOf(indexStart, entry);
+        }
+        if (exactOnly) {
+            return -1;
+        }
+        // 索引中作为查询前缀的最长地名
+        for (int length = key.length() - 1; length >= MIN_MATCH_LENGTH; length--) {
+            entry = lowerBound(indexStart, count, key, length);
+            if (entry < count && compare(indexStart, entry, key, length) == 0) {
+                return placeOf(indexStart, entry);
+            }
+        }
+        // 以查询为前缀的地名，级别最高的优先
+        if (key.length() < MIN_MATCH_LENGTH) {
+            return -1;
+        }
+        entry = lowerBound(indexStart, count, key, key.length());
+        int best = -1;
+        int limit = Math.min(count, entry + MAX_PREFIX_CANDIDATES);
+        for (; entry < limit && startsWith(indexStart, entry, key); entry++) {
+            int place = placeOf(indexStart, entry);
+            if (best == -1 || getLevel(place) < getLevel(best)) {
+                best = place;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 第一个不小于key[0, length)的索引项
+     */
+    private int lowerBound(int indexStart, int count, String key, int length) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(indexStart, middle, key, length) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 比较索引项的键与key[0, length)
+     */
+    private int compare(int indexStart, int entry, String key, int length) {
+        int base = indexStart + entry * ENTRY_SIZE;
+        int offset = buffer.getInt(base);
+        int entryLength = buffer.getShort(base + 4);
+        int common = Math.min(entryLength, length);
+        for (int i = 0; i < common; i++) {
+            char c = poolChar(offset + i);
+            char k = key.charAt(i);
+            if (c != k) {
+                return c - k;
+            }
+        }
+        return entryLength - length;
+    }
+
+    private boolean startsWith(int indexStart, int entry, String key) {
+        int base = indexStart + entry * ENTRY_SIZE;
+        int offset = buffer.getInt(base);
+        int entryLength = buffer.getShort(base + 4);
+        if (entryLength < key.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (poolChar(offset + i) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int placeOf(int indexStart, int entry) {
+        return buffer.getChar(indexStart + entry * ENTRY_SIZE + 6);
+    }
+
+    private char poolChar(int index) {
+        return buffer.getChar(poolStart + index * 2);
+    }
+
+    /**
+     * 拼音只保留小写字母，例如"Xi'an"变为"xian"
+     */
+    private static String normalizePinyin(String text) {
+        StringBuilder builder = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean keep = c >= 'a' && c <= 'z';
+            if (keep && builder == null) {
+                continue;
+            }
+            if (builder == null) {
+                builder = new StringBuilder(text.length()).append(text, 0, i);
+            }
+            if (keep) {
+                builder.append(c);
+            } else if (c >= 'A' && c <= 'Z') {
+                builder.append((char) (c + ('a' - 'A')));
+            }
+        }
+        return builder != null ? builder.toString() : text;
+    }
+}
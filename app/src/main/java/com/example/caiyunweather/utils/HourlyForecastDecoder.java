@@ -0,0 +1,338 @@
+package com.example.caiyunweather.utils;
+
+import com.example.caiyunweather.model.HourlyForecast;
+import com.example.caiyunweather.model.HourlyWeather;
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 彩云天气响应的流式解析器
+ * 基于JsonReader单次读取，跳过所有不展示的字段，不构建JsonElement树，
+ * 读到hourly对象后直接生成逐小时数据并停止读取
+ */
+public final class HourlyForecastDecoder {
+    public static final int MAX_HOURS = 24;  // 只展示24小时
+    private static final long ANY_ID = Long.MIN_VALUE;  // 不核对JSON-RPC响应id
+    private static final String UNKNOWN_TIME = "未知时间";
+
+    private HourlyForecastDecoder() {
+    }
+
+    /**
+     * 从完整的响应字节解析，返回的预报保留原始字节以便按需获取原始JSON
+     */
+    public static HourlyForecast decode(byte[] json) throws IOException {
+        HourlyForecast forecast = decode(new ByteArrayInputStream(json));
+        return new HourlyForecast(forecast.getHourly(), json);
+    }
+
+    /**
+     * 解析MCP工具调用的JSON-RPC响应，并核对响应id与请求一致
+     * 响应id可能在信封末尾，读到逐小时数据后继续跳过其余内容直到响应结束
+     * @param id 请求id，响应没有id时不核对
+     * @throws IOException 响应id与请求不匹配
+     */
+    public static HourlyForecast decodeResponse(byte[] json, long id) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8));
+        HourlyForecast forecast = read(reader, id);
+        return new HourlyForecast(forecast.getHourly(), json);
+    }
+
+    /**
+     * 从已解析的JSON-RPC响应读取，并核对响应id与请求一致
+     * @param id 请求id，响应没有id时不核对
+     */
+    public static HourlyForecast decodeResponse(JsonElement json, long id) throws IOException {
+        if (json.isJsonObject()) {
+            JsonElement responseId = json.getAsJsonObject().get("id");
+            if (responseId != null && responseId.isJsonPrimitive() && responseId.getAsJsonPrimitive().isNumber()) {
+                checkId(responseId.getAsLong(), id);
+            }
+        }
+        return decode(json);
+    }
+
+    /**
+     * 从字符串解析
+     */
+    public static HourlyForecast decode(String json) throws IOException {
+        return decode(new StringReader(json));
+    }
+
+    /**
+     * 从响应体字节流解析，调用方负责关闭输入流
+     */
+    public static HourlyForecast decode(InputStream in) throws IOException {
+        return decode(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 从已解析的JSON对象读取（例如进程内MCP传输的逐项响应）
+     * 只使用Gson的公开API：把对象树序列化后按流读取
+     */
+    public static HourlyForecast decode(JsonElement json) throws IOException {
+        return decode(json.toString());
+    }
+
+    /**
+     * 解析彩云天气响应
+     * 支持彩云天气原始结构（result.hourly）、直接的hourly结构以及MCP响应包装（result.data.result.hourly）
+     * @throws MalformedJsonException 数据不是JSON、其中没有逐小时数据，或status不是ok（彩云天气的错误响应）
+     * @throws IOException 读取输入失败，或者是JSON-RPC错误响应（异常信息为错误内容）
+     */
+    public static HourlyForecast decode(Reader in) throws IOException {
+        return read(new JsonReader(in), ANY_ID);
+    }
+
+    private static HourlyForecast read(JsonReader reader, long id) throws IOException {
+        try {
+            HourlyForecast forecast = readEnvelope(reader, id != ANY_ID, id);
+            if (forecast == null) {
+                throw new MalformedJsonException("响应中没有逐小时天气数据");
+            }
+            return forecast;
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader在类型不符时抛出IllegalStateException
+            MalformedJsonException exception = new MalformedJsonException("解析逐小时天气数据失败: " + e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+    /**
+     * 在外层结构中查找hourly对象，只深入result和data字段
+     * @param readToEnd 拿到逐小时数据后是否继续读完当前对象，需要核对信封末尾的id时为true
+     * @param id 最外层响应应有的id，ANY_ID表示不核对
+     */
+    private static HourlyForecast readEnvelope(JsonReader reader, boolean readToEnd, long id) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        HourlyForecast found = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            HourlyForecast forecast = null;
+            if ("id".equals(name) && id != ANY_ID && reader.peek() == JsonToken.NUMBER) {
+                checkId(reader.nextLong(), id);
+            } else if (found != null) {
+                reader.skipValue();
+            } else if ("hourly".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                forecast = readHourly(reader);
+            } else if ("result".equals(name) || "data".equals(name)) {
+                forecast = readEnvelope(reader, readToEnd, ANY_ID);
+            } else if ("error".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                // JSON-RPC错误响应
+                throw readError(reader);
+            } else if ("status".equals(name) && reader.peek() == JsonToken.STRING) {
+                checkStatus(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+            if (forecast != null) {
+                if (!readToEnd) {
+                    // 已经拿到需要的数据，剩余内容不再读取
+                    return forecast;
+                }
+                found = forecast;
+            }
+        }
+        reader.endObject();
+        return found;
+    }
+
+    private static void checkId(long responseId, long id) throws IOException {
+        if (responseId != id) {
+            throw new IOException("响应id与请求不匹配，请求: " + id + "，响应: " + responseId);
+        }
+    }
+
+    /**
+     * 彩云天气响应和逐小时数据的status为ok，MCP响应包装为success；其他值（例如failed）是错误响应
+     */
+    private static void checkStatus(String status) throws MalformedJsonException {
+        if (!"ok".equals(status) && !"success".equals(status)) {
+            throw new MalformedJsonException("彩云天气返回错误状态: " + status);
+        }
+    }
+
+    private static McpErrorException readError(JsonReader reader) throws IOException {
+        String message = null;
+        int code = 0;
+        long retryAfterMillis = -1;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("message".equals(name) && reader.peek() == JsonToken.STRING) {
+                message = reader.nextString();
+            } else if ("code".equals(name) && reader.peek() == JsonToken.NUMBER) {
+                code = reader.nextInt();
+            } else if ("data".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                retryAfterMillis = readRetryAfterMillis(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new McpErrorException("错误码: " + code + "，错误信息: " + message, code, retryAfterMillis);
+    }
+
+    /**
+     * 服务器繁忙时error.data中的retryAfter（秒）
+     */
+    private static long readRetryAfterMillis(JsonReader reader) throws IOException {
+        long retryAfterMillis = -1;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("retryAfter".equals(reader.nextName()) && reader.peek() == JsonToken.NUMBER) {
+                retryAfterMillis = reader.nextLong() * 1000;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return retryAfterMillis;
+    }
+
+    private static HourlyForecast readHourly(JsonReader reader) throws IOException {
+        // 温度和天气现象在响应中是两个独立的数组，先按列读入定长数组再组装成行
+        double[] temperatures = new double[MAX_HOURS];
+        String[] skycons = new String[MAX_HOURS];
+        String[] datetimes = new String[MAX_HOURS];
+        int temperatureCount = 0;
+        int skyconCount = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("status".equals(name) && reader.peek() == JsonToken.STRING) {
+                checkStatus(reader.nextString());
+            } else if ("temperature".equals(name)) {
+                temperatureCount = readTemperatures(reader, temperatures);
+            } else if ("skycon".equals(name)) {
+                skyconCount = readSkycons(reader, skycons, datetimes);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        int count = Math.min(temperatureCount, skyconCount);
+        List<HourlyWeather> hourly = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            hourly.add(new HourlyWeather(
+                    formatHour(datetimes[i]),
+                    temperatures[i],
+                    getWeatherDescription(skycons[i]),
+                    skycons[i],
+                    60.0,  // 模拟湿度数据
+                    1013.0, // 模拟气压数据
+                    5.0    // 模拟风速数据
+            ));
+        }
+        return new HourlyForecast(hourly);
+    }
+
+    private static int readTemperatures(JsonReader reader, double[] temperatures) throws IOException {
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (count >= temperatures.length) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("value".equals(reader.nextName())) {
+                    temperatures[count] = reader.nextDouble();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            count++;
+        }
+        reader.endArray();
+        return count;
+    }
+
+    private static int readSkycons(JsonReader reader, String[] skycons, String[] datetimes) throws IOException {
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (count >= skycons.length) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("value".equals(name)) {
+                    skycons[count] = reader.nextString();
+                } else if ("datetime".equals(name)) {
+                    datetimes[count] = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            count++;
+        }
+        reader.endArray();
+        return count;
+    }
+
+    /**
+     * 从ISO 8601格式的时间字符串中提取小时，例如 2024-01-01T15:00+08:00 -> 15:00
+     */
+    static String formatHour(String datetime) {
+        if (datetime == null) {
+            return UNKNOWN_TIME;
+        }
+        int t = datetime.indexOf('T');
+        if (t < 0) {
+            return UNKNOWN_TIME;
+        }
+        int colon = datetime.indexOf(':', t + 1);
+        if (colon < 0) {
+            return UNKNOWN_TIME;
+        }
+        return datetime.substring(t + 1, colon) + ":00";
+    }
+
+    /**
+     * 天气现象代码转中文描述
+     */
+    public static String getWeatherDescription(String weatherValue) {
+        if (weatherValue == null) {
+            return "未知";
+        }
+        switch (weatherValue) {
+            case "CLEAR_DAY":
+                return "晴天";
+            case "CLOUDY":
+                return "多云";
+            case "RAIN":
+                return "雨天";
+            case "PARTLY_CLOUDY":
+                return "局部多云";
+            case "THUNDERSTORM":
+                return "雷雨";
+            default:
+                return "未知";
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.caiyunweather.utils;
+
+import android.util.Log;
+
+import com.example.caiyunweather.api.HttpClientProvider;
+import com.example.caiyunweather.api.RateLimiter;
+import com.google.gson.JsonElement;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * 通过HTTP访问MCP服务器
+ * 请求通过enqueue交给共享的调度器，不占用等待线程
+ */
+public class HttpMcpTransport implements McpTransport {
+    private static final String TAG = "HttpMcpTransport";
+    private static final MediaType JSON = MediaType.get("application/json");
+    private final String serverUrl;
+    private final OkHttpClient client;
+
+    /**
+     * @param serverUrl MCP服务器地址，例如"http://127.0.0.1:8080"
+     */
+    public HttpMcpTransport(String serverUrl) {
+        this.serverUrl = serverUrl;
+        // 使用共享的MCP客户端（明文HTTP通信仅用于本地服务器）
+        this.client = HttpClientProvider.getInstance().getMcpClient();
+    }
+
+    @Override
+    public String getName() {
+        return "http";
+    }
+
+    @Override
+    public <T> CompletableFuture<T> send(JsonElement request, long deadlineMillis, ResponseHandler<T> handler) {
+        RequestBody body = RequestBody.create(request.toString(), JSON);
+        Call call = client.newCall(new Request.Builder()
+                .url(serverUrl)
+                .post(body)
+                .build());
+        call.timeout().timeout(deadlineMillis, TimeUnit.MILLISECONDS);
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.whenComplete((result, throwable) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    if (r.isSuccessful() && r.body() != null) {
+                        // 响应在回调线程中直接处理，逐项返回的响应可以边接收边处理
+                        future.complete(handler.fromStream(r.body().byteStream()));
+                    } else {
+                        long retryAfterMillis = RateLimiter.parseRetryAfterMillis(r.header("Retry-After"), System.currentTimeMillis());
+                        future.completeExceptionally(new HttpStatusException(r.code(), null, retryAfterMillis));
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "处理响应失败", e);
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.caiyunweather.utils;
+
+import java.io.IOException;
+
+/**
+ * 上游返回的非2xx响应
+ * 保留状态码、错误体和Retry-After，供RetryPolicy判断是否重试以及最早何时重试
+ */
+public class HttpStatusException extends IOException implements RetryPolicy.RetryHint {
+    private final int code;
+    private final String errorBody;
+    private final long retryAfterMillis;
+
+    /**
+     * @param retryAfterMillis 响应头Retry-After给出的重试间隔，没有时为-1
+     */
+    public HttpStatusException(int code, String errorBody, long retryAfterMillis) {
+        super("HTTP " + code);
+        this.code = code;
+        this.errorBody = errorBody;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getErrorBody() {
+        return errorBody;
+    }
+
+    @Override
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.caiyunweather.utils;
+
+import com.google.gson.JsonElement;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 进程内MCP传输
+ * 客户端与McpServer在同一应用中时直接把请求对象交给服务器的分发器，
+ * 没有套接字、HTTP编解码和JSON序列化。请求在服务器专门处理进程内调用的小线程池中分发，
+ * 不与HTTP连接争用连接处理线程；tools/call同样经过准入控制，排队已满时返回服务器繁忙错误。
+ * 等待彩云天气数据的响应在数据到达时解码，等待期间不占用线程
+ */
+public class InProcessMcpTransport implements McpTransport {
+    private final McpServer server;
+
+    public InProcessMcpTransport(McpServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public String getName() {
+        return "in-process";
+    }
+
+    @Override
+    public <T> CompletableFuture<T> send(JsonElement request, long deadlineMillis, ResponseHandler<T> handler) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Future<?> task;
+        try {
+            // 准入控制可能排队等待，在服务器的进程内调用线程中分发
+            task = server.submitInProcess(() -> {
+                try {
+                    McpReply reply = server.handle(request);
+                    if (reply.isEmpty()) {
+                        throw new IOException("请求全部是通知，没有响应");
+                    }
+                    reply.whenResolved().whenComplete((resolved, throwable) -> {
+                        if (throwable != null) {
+                            future.completeExceptionally(throwable);
+                            return;
+                        }
+                        try {
+                            future.complete(decode(resolved, handler));
+                        } catch (Exception e) {
+                            future.completeExceptionally(e);
+                        }
+                    });
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 线程和队列都已满，与HTTP传输一样以服务器繁忙的JSON-RPC错误响应
+            try {
+                future.complete(handler.fromJson(server.createOverloadedResponse(request)));
+            } catch (IOException handlerError) {
+                future.completeExceptionally(handlerError);
+            }
+            return future;
+        } catch (IllegalStateException e) {
+            future.completeExceptionally(new IOException(e.getMessage(), e));
+            return future;
+        }
+        Future<?> deadline;
+        try {
+            deadline = server.scheduleDeadline(() -> {
+                future.completeExceptionally(new TimeoutException("MCP调用超过期限: " + deadlineMillis + "ms"));
+            }, deadlineMillis);
+        } catch (RuntimeException e) {
+            // 服务器在提交后停止
+            task.cancel(true);
+            future.completeExceptionally(new IOException("MCP服务器未启动", e));
+            return future;
+        }
+        future.whenComplete((result, throwable) -> {
+            deadline.cancel(false);
+            if (future.isCancelled() || throwable instanceof TimeoutException) {
+                task.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 天气预报响应是原始字节拼接的，交给流式解码，不构建对象树；逐项响应在各项完成时即可读到
+     */
+    private static <T> T decode(McpReply reply, ResponseHandler<T> handler) throws IOException {
+        return reply.getJson() != null ? handler.fromJson(reply.getJson()) : handler.fromStream(reply.openStream());
+    }
+}
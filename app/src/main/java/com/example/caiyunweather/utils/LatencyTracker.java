@@ -0,0 +1,96 @@
+package com.example.caiyunweather.utils;
+
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按获取路径统计天气请求的端到端耗时
+ */
+public class LatencyTracker {
+    private static final String TAG = "LatencyTracker";
+    private static LatencyTracker instance;
+    private final Map<String, Stats> statsByPath = new ConcurrentHashMap<>();
+
+    public static synchronized LatencyTracker getInstance() {
+        if (instance == null) {
+            instance = new LatencyTracker();
+        }
+        return instance;
+    }
+
+    /**
+     * 单个路径的耗时统计
+     */
+    public static class Stats {
+        private long count;
+        private long totalMillis;
+        private long minMillis = Long.MAX_VALUE;
+        private long maxMillis;
+        private long lastMillis;
+
+        synchronized void record(long millis) {
+            count++;
+            totalMillis += millis;
+            minMillis = Math.min(minMillis, millis);
+            maxMillis = Math.max(maxMillis, millis);
+            lastMillis = millis;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getAverageMillis() {
+            return count == 0 ? 0 : totalMillis / count;
+        }
+
+        public synchronized long getLastMillis() {
+            return lastMillis;
+        }
+
+        @Override
+        public synchronized String toString() {
+            if (count == 0) {
+                return "无数据";
+            }
+            return "最近 " + lastMillis + "ms，平均 " + (totalMillis / count) + "ms，最小 " + minMillis
+                    + "ms，最大 " + maxMillis + "ms，共 " + count + " 次";
+        }
+    }
+
+    /**
+     * 记录一次请求耗时
+     * @param path 获取路径，例如 deepseek、mcp、direct
+     * @param millis 耗时（毫秒）
+     */
+    public void record(String path, long millis) {
+        Stats stats = statsByPath.get(path);
+        if (stats == null) {
+            statsByPath.putIfAbsent(path, new Stats());
+            stats = statsByPath.get(path);
+        }
+        stats.record(millis);
+        Log.d(TAG, "路径 " + path + " 耗时: " + stats);
+    }
+
+    /**
+     * 获取指定路径的统计
+     * @return 统计信息，该路径还没有记录时返回null
+     */
+    public Stats getStats(String path) {
+        return statsByPath.get(path);
+    }
+
+    /**
+     * 所有路径的统计摘要
+     */
+    public String summary() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Stats> entry : statsByPath.entrySet()) {
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.caiyunweather.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * 地名到经纬度的解析
+ * 使用应用内置的离线地名库，支持汉字、拼音和前缀匹配，不访问网络
+ */
+public class LocationResolver {
+    private static final String TAG = "LocationResolver";
+
+    private static Context appContext;
+    private static Gazetteer gazetteer;
+    private static boolean loadFailed;
+
+    private LocationResolver() {
+    }
+
+    /**
+     * 设置应用上下文，地名库在第一次查询时加载
+     * @param context 应用上下文
+     */
+    public static synchronized void setAppContext(Context context) {
+        appContext = context.getApplicationContext();
+    }
+
+    /**
+     * 直接指定地名库，不从应用资源加载（测试使用）
+     * @param places 地名库，传入null时恢复为按应用上下文加载
+     */
+    static synchronized void setGazetteer(Gazetteer places) {
+        gazetteer = places;
+        loadFailed = false;
+    }
+
+    /**
+     * 是否是可以直接解析坐标的地名
+     */
+    public static boolean isKnown(String location) {
+        return find(location) >= 0;
+    }
+
+    /**
+     * 地名的标准写法，例如"北京市"、"beijing"都返回"北京"
+     * @param exactOnly 为true时只接受完整的地名或拼音，不做前缀匹配
+     * @return 标准地名，未知地名返回null
+     */
+    public static String getCanonicalName(String location, boolean exactOnly) {
+        Gazetteer places = getGazetteer();
+        if (places == null) {
+            return null;
+        }
+        int place = exactOnly ? places.findExact(location) : places.find(location);
+        return place >= 0 ? places.getName(place) : null;
+    }
+
+    /**
+     * 获取位置坐标
+     * @param location 地名，例如"北京"、"北京市"、"beijing"
+     * @return {经度, 纬度}，未知地名返回null
+     */
+    public static double[] resolve(String location) {
+        int place = find(location);
+        if (place < 0) {
+            return null;
+        }
+        Gazetteer places = getGazetteer();
+        return new double[]{places.getLongitude(place), places.getLatitude(place)};
+    }
+
+    private static int find(String location) {
+        Gazetteer places = getGazetteer();
+        return places != null ? places.find(location) : -1;
+    }
+
+    private static synchronized Gazetteer getGazetteer() {
+        if (gazetteer == null && !loadFailed && appContext != null) {
+            try {
+                gazetteer = Gazetteer.open(appContext);
+                Log.d(TAG, "地名库已加载: " + gazetteer.size() + " 个地点");
+            } catch (IOException e) {
+                // 地名库随应用发布，加载失败时不再重试
+                loadFailed = true;
+                Log.e(TAG, "加载地名库失败", e);
+            }
+        }
+        return gazetteer;
+    }
+}
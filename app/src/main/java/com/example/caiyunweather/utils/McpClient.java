@@ -2,36 +2,55 @@ package com.example.caiyunweather.utils;
 
 import android.util.Log;
 
-import com.google.gson.Gson;
+import com.example.caiyunweather.model.HourlyForecast;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class McpClient {
     private static final String TAG = "McpClient";
-    private static final String MCP_SERVER_URL = "http://127.0.0.1:8080";  // 使用127.0.0.1而不是localhost
+    public static final String MCP_SERVER_URL = "http://127.0.0.1:8080";  // 使用127.0.0.1而不是localhost
+    private static final int ERROR_UNKNOWN_TOOL = -32601;  // tools/call的工具不存在
+    private static final String BATCH_FORECAST_TOOL = "get_weather_forecast_batch";
+    private static final long DEFAULT_DEADLINE_MILLIS = 30000;  // 单次调用的默认期限
+    private static final RetryPolicy.ErrorClassifier TRANSIENT_ERRORS = RetryPolicy.transientErrors(true);
     private static McpClient instance;
-    private final OkHttpClient client;
-    private final Gson gson;
+    // 服务器与客户端在同一应用中，默认使用进程内传输；访问独立的服务器时换成HttpMcpTransport
+    private volatile McpTransport transport;
+    // JSON-RPC请求id单调递增，正在进行的请求按id登记
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final Map<Long, PendingRequest> pending = new ConcurrentHashMap<>();
+    // 初始化、工具列表和天气查询都是只读调用，连接失败和服务器繁忙时在期限内重试
+    private final RetryPolicy mcpRetry = new RetryPolicy.Builder("mcp")
+            .maxAttempts(3)
+            .delay(100, 2000)
+            .classifier(McpClient::isRetryableMcpError)
+            .budget(new RetryBudget(0.2, 1, 10))
+            .build();
+    // 已协商的会话（initialize的响应）和缓存的工具列表，失败的请求不会被缓存
+    private CompletableFuture<JsonObject> session;
+    private CompletableFuture<JsonObject> toolsCatalog;
     
     private McpClient() {
-        // 配置OkHttpClient以允许明文HTTP通信（仅用于开发环境）
-        client = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .build();
-        gson = new Gson();
+        transport = new InProcessMcpTransport(McpServer.getInstance());
     }
     
     public static synchronized McpClient getInstance() {
@@ -41,89 +60,612 @@ public class McpClient {
         return instance;
     }
     
+    /**
+     * 设置传输方式，例如new HttpMcpTransport(McpClient.MCP_SERVER_URL)
+     * 更换后会重置会话
+     */
+    public void setTransport(McpTransport transport) {
+        this.transport = transport;
+        resetSession();
+    }
+    
+    /**
+     * 获取已协商的MCP会话，只在第一次调用或会话重置后发送initialize
+     * @return initialize的响应，服务器返回错误时以异常结束
+     */
+    public synchronized CompletableFuture<JsonObject> ensureSession() {
+        if (session == null) {
+            CompletableFuture<JsonObject> future = initialize().thenApply(response -> {
+                if (response.has("error")) {
+                    throw new CompletionException(new IOException("MCP初始化失败: " + response));
+                }
+                return response;
+            });
+            session = future;
+            future.whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    clearSession(future);
+                }
+            });
+        }
+        return session;
+    }
+    
+    /**
+     * 获取工具列表，已缓存时不再请求服务器
+     * 服务器通过HTTP请求/响应通信，没有推送通知的通道，缓存在以下情况失效：
+     * 调用工具时服务器返回工具不存在、调用invalidateTools、resetSession或更换传输方式
+     * @return tools/list的响应，服务器返回错误时以异常结束
+     */
+    public synchronized CompletableFuture<JsonObject> getTools() {
+        if (toolsCatalog == null) {
+            CompletableFuture<JsonObject> future = ensureSession().thenCompose(initResponse -> listTools()).thenApply(response -> {
+                if (response.has("error")) {
+                    throw new CompletionException(new IOException("获取MCP工具列表失败: " + response));
+                }
+                return response;
+            });
+            toolsCatalog = future;
+            future.whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    clearToolsCatalog(future);
+                }
+            });
+        }
+        return toolsCatalog;
+    }
+    
+    /**
+     * 使缓存的工具列表失效，下次getTools时重新获取
+     */
+    public synchronized void invalidateTools() {
+        toolsCatalog = null;
+    }
+    
+    /**
+     * 重置会话（例如服务器重启后），下次调用时重新initialize并获取工具列表
+     */
+    public synchronized void resetSession() {
+        session = null;
+        toolsCatalog = null;
+    }
+    
+    private synchronized void clearSession(CompletableFuture<JsonObject> failed) {
+        if (session == failed) {
+            session = null;
+        }
+    }
+    
+    private synchronized void clearToolsCatalog(CompletableFuture<JsonObject> failed) {
+        if (toolsCatalog == failed) {
+            toolsCatalog = null;
+        }
+    }
+    
     /**
      * 初始化MCP连接
      */
     public CompletableFuture<JsonObject> initialize() {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                JsonObject request = new JsonObject();
-                request.addProperty("method", "initialize");
-                request.addProperty("jsonrpc", "2.0");
-                request.addProperty("id", 1);
-                
-                return sendRequest(request);
-            } catch (Exception e) {
-                Log.e(TAG, "初始化MCP连接失败", e);
-                throw new RuntimeException(e);
-            }
-        });
+        return sendRequest("initialize", null, DEFAULT_DEADLINE_MILLIS);
     }
     
     /**
      * 获取工具列表
      */
     public CompletableFuture<JsonObject> listTools() {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                JsonObject request = new JsonObject();
-                request.addProperty("method", "tools/list");
-                request.addProperty("jsonrpc", "2.0");
-                request.addProperty("id", 2);
-                
-                return sendRequest(request);
-            } catch (Exception e) {
-                Log.e(TAG, "获取工具列表失败", e);
-                throw new RuntimeException(e);
-            }
-        });
+        return sendRequest("tools/list", null, DEFAULT_DEADLINE_MILLIS);
     }
     
     /**
      * 调用工具
      */
     public CompletableFuture<JsonObject> callTool(String toolName, JsonObject arguments) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                JsonObject params = new JsonObject();
-                params.addProperty("name", toolName);
-                params.add("arguments", arguments);
-                
-                JsonObject request = new JsonObject();
-                request.addProperty("method", "tools/call");
-                request.add("params", params);
-                request.addProperty("jsonrpc", "2.0");
-                request.addProperty("id", 3);
-                
-                return sendRequest(request);
-            } catch (Exception e) {
-                Log.e(TAG, "调用工具失败: " + toolName, e);
-                throw new RuntimeException(e);
+        return callTool(toolName, arguments, DEFAULT_DEADLINE_MILLIS);
+    }
+    
+    /**
+     * 调用工具
+     * @param deadlineMillis 整个调用（含排队、连接和读取响应）的最长时间
+     */
+    public CompletableFuture<JsonObject> callTool(String toolName, JsonObject arguments, long deadlineMillis) {
+        CompletableFuture<JsonObject> future = sendRequest("tools/call", createToolParams(toolName, arguments), deadlineMillis);
+        future.thenAccept(response -> {
+            JsonElement error = response.get("error");
+            if (error != null && error.isJsonObject() && isUnknownTool(error.getAsJsonObject().get("code"))) {
+                onUnknownTool(toolName);
             }
         });
+        return future;
     }
     
-    private JsonObject sendRequest(JsonObject requestJson) throws IOException {
-        String json = gson.toJson(requestJson);
-        RequestBody body = RequestBody.create(json, MediaType.get("application/json"));
-        
-        Request request = new Request.Builder()
-                .url(MCP_SERVER_URL)
-                .post(body)
-                .build();
+    /**
+     * 调用天气预报工具，响应体直接流式解析为逐小时预报，不构建JsonObject
+     */
+    public CompletableFuture<HourlyForecast> callForecastTool(String toolName, JsonObject arguments) {
+        return callForecastTool(toolName, arguments, DEFAULT_DEADLINE_MILLIS);
+    }
+    
+    /**
+     * 调用天气预报工具
+     * @param deadlineMillis 整个调用的最长时间，取消返回的Future会同时取消HTTP请求
+     */
+    public CompletableFuture<HourlyForecast> callForecastTool(String toolName, JsonObject arguments, long deadlineMillis) {
+        CompletableFuture<HourlyForecast> future = send("tools/call", createToolParams(toolName, arguments), deadlineMillis,
+                id -> new McpTransport.ResponseHandler<HourlyForecast>() {
+                    @Override
+                    public HourlyForecast fromBytes(byte[] body) throws IOException {
+                        // 与sendRequest一样按JSON-RPC id核对响应与请求是否对应
+                        return HourlyForecastDecoder.decodeResponse(body, id);
+                    }
+                    
+                    @Override
+                    public HourlyForecast fromJson(JsonElement response) throws IOException {
+                        return HourlyForecastDecoder.decodeResponse(response, id);
+                    }
+                });
+        future.whenComplete((forecast, throwable) -> {
+            Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+            if (cause instanceof McpErrorException && ((McpErrorException) cause).getCode() == ERROR_UNKNOWN_TOOL) {
+                onUnknownTool(toolName);
+            }
+        });
+        return future;
+    }
+    
+    private static boolean isUnknownTool(JsonElement code) {
+        return code != null && code.isJsonPrimitive() && code.getAsInt() == ERROR_UNKNOWN_TOOL;
+    }
+    
+    /**
+     * 服务器已没有缓存的工具列表中的工具，说明列表已过期
+     */
+    private void onUnknownTool(String toolName) {
+        Log.d(TAG, "服务器不再提供工具 " + toolName + "，清除工具列表缓存");
+        invalidateTools();
+    }
+    
+    /**
+     * 多城市天气预报的逐项结果
+     * 回调在传输线程中按结果到达的顺序调用，更新界面时需要切换到主线程
+     */
+    public interface BatchForecastListener {
+        void onForecast(String location, HourlyForecast forecast);
         
-        try (Response response = client.newCall(request).execute()) {
-            if (response.isSuccessful() && response.body() != null) {
-                String responseBody = response.body().string();
+        void onError(String location, String message);
+    }
+    
+    /**
+     * 获取多个位置的天气预报，每个位置的结果一到达就交给listener，不等待整个响应
+     */
+    public CompletableFuture<Integer> getForecastBatch(List<String> locations, BatchForecastListener listener) {
+        return getForecastBatch(locations, listener, DEFAULT_DEADLINE_MILLIS);
+    }
+    
+    /**
+     * 获取多个位置的天气预报
+     * @param locations 地名列表，1到McpServer.MAX_BATCH_LOCATIONS个，落在同一预报网格的位置在服务器端只请求一次
+     * @param deadlineMillis 整个调用的最长时间
+     * @return 所有结果都已交给listener后完成，值为结果数量；整个调用失败（例如参数错误）时以异常结束
+     * @throws IllegalArgumentException 位置数量超出范围
+     */
+    public CompletableFuture<Integer> getForecastBatch(List<String> locations, BatchForecastListener listener, long deadlineMillis) {
+        if (locations.isEmpty() || locations.size() > McpServer.MAX_BATCH_LOCATIONS) {
+            // 与服务器的上限一致，超出的请求不发送
+            throw new IllegalArgumentException("locations must contain 1 to " + McpServer.MAX_BATCH_LOCATIONS
+                    + " items: " + locations.size());
+        }
+        JsonArray locationArray = new JsonArray();
+        for (String location : locations) {
+            locationArray.add(location);
+        }
+        JsonObject arguments = new JsonObject();
+        arguments.add("locations", locationArray);
+        // 结果边读边交给listener，重试会重复回调，因此只发送一次
+        return sendOnce("tools/call", createToolParams(BATCH_FORECAST_TOOL, arguments), deadlineMillis,
+                id -> new BatchForecastHandler(id, listener));
+    }
+    
+    /**
+     * 正在进行的请求数量
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+    
+    /**
+     * 取消所有正在进行的请求
+     */
+    public void cancelAll() {
+        for (PendingRequest request : pending.values()) {
+            Log.d(TAG, "取消请求: " + request.method);
+            request.future.cancel(true);
+        }
+    }
+    
+    private static JsonObject createToolParams(String toolName, JsonObject arguments) {
+        JsonObject params = new JsonObject();
+        params.addProperty("name", toolName);
+        params.add("arguments", arguments);
+        return params;
+    }
+    
+    private CompletableFuture<JsonObject> sendRequest(String method, JsonObject params, long deadlineMillis) {
+        return send(method, params, deadlineMillis, id -> new McpTransport.ResponseHandler<JsonObject>() {
+            @Override
+            public JsonObject fromBytes(byte[] body) throws IOException {
+                String responseBody = new String(body, StandardCharsets.UTF_8);
                 // 确保响应体是有效的JSON
-                JsonElement jsonElement = new JsonParser().parse(responseBody);
-                if (jsonElement.isJsonObject()) {
-                    return jsonElement.getAsJsonObject();
+                return fromJson(new JsonParser().parse(responseBody));
+            }
+            
+            @Override
+            public JsonObject fromJson(JsonElement jsonElement) throws IOException {
+                if (!jsonElement.isJsonObject()) {
+                    throw new IOException("Response is not a valid JSON object: " + jsonElement);
+                }
+                JsonObject response = jsonElement.getAsJsonObject();
+                // 按JSON-RPC id核对响应与请求是否对应
+                JsonElement responseId = response.get("id");
+                if (responseId != null && !responseId.isJsonNull() && responseId.getAsLong() != id) {
+                    throw new IOException("响应id与请求不匹配，请求: " + id + "，响应: " + responseId);
+                }
+                // 服务器繁忙时以异常结束，由重试策略按建议的间隔重试
+                JsonElement error = response.get("error");
+                if (error != null && error.isJsonObject()) {
+                    McpErrorException exception = McpErrorException.fromError(method + "失败: ", error.getAsJsonObject());
+                    if (exception.getCode() == McpErrorException.SERVER_OVERLOADED) {
+                        throw exception;
+                    }
+                }
+                return response;
+            }
+        });
+    }
+    
+    /**
+     * 多城市天气预报的响应处理
+     * 用JsonReader边读边处理results数组，每读完一项即解码并回调，不等待后面的项
+     */
+    private static class BatchForecastHandler implements McpTransport.ResponseHandler<Integer> {
+        private final long id;
+        private final BatchForecastListener listener;
+        
+        BatchForecastHandler(long id, BatchForecastListener listener) {
+            this.id = id;
+            this.listener = listener;
+        }
+        
+        @Override
+        public Integer fromStream(InputStream body) throws IOException {
+            return read(new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8)));
+        }
+        
+        @Override
+        public Integer fromBytes(byte[] body) throws IOException {
+            return fromStream(new ByteArrayInputStream(body));
+        }
+        
+        @Override
+        public Integer fromJson(JsonElement response) throws IOException {
+            // 只使用Gson的公开API：把对象树序列化后按流读取
+            return read(new JsonReader(new StringReader(response.toString())));
+        }
+        
+        private Integer read(JsonReader reader) throws IOException {
+            try {
+                int count = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if ("result".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        count = readResult(reader);
+                    } else if ("error".equals(name)) {
+                        JsonElement error = new JsonParser().parse(reader);
+                        if (error.isJsonObject()) {
+                            throw McpErrorException.fromError("多城市天气预报失败: ", error.getAsJsonObject());
+                        }
+                        throw new IOException("多城市天气预报失败: " + error);
+                    } else if ("id".equals(name) && reader.peek() == JsonToken.NUMBER) {
+                        long responseId = reader.nextLong();
+                        if (responseId != id) {
+                            throw new IOException("响应id与请求不匹配，请求: " + id + "，响应: " + responseId);
+                        }
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                return count;
+            } catch (IllegalStateException | NumberFormatException e) {
+                throw new IOException("解析多城市天气预报失败: " + e.getMessage(), e);
+            }
+        }
+        
+        private int readResult(JsonReader reader) throws IOException {
+            int count = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("results".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        dispatchItem(new JsonParser().parse(reader).getAsJsonObject());
+                        count++;
+                    }
+                    reader.endArray();
                 } else {
-                    throw new IOException("Response is not a valid JSON object: " + responseBody);
+                    reader.skipValue();
                 }
+            }
+            reader.endObject();
+            return count;
+        }
+        
+        private void dispatchItem(JsonObject item) {
+            String location = item.get("location").getAsString();
+            JsonElement data = item.get("data");
+            if (data == null) {
+                JsonElement error = item.get("error");
+                listener.onError(location, error != null ? error.getAsString() : "响应中没有天气数据");
+                return;
+            }
+            try {
+                listener.onForecast(location, HourlyForecastDecoder.decode(data));
+            } catch (IOException e) {
+                listener.onError(location, e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * 按请求id创建响应处理
+     */
+    private interface HandlerFactory<T> {
+        McpTransport.ResponseHandler<T> create(long id);
+    }
+    
+    /**
+     * 正在进行的请求
+     */
+    private static class PendingRequest {
+        final String method;
+        final CompletableFuture<?> future;
+        
+        PendingRequest(String method, CompletableFuture<?> future) {
+            this.method = method;
+            this.future = future;
+        }
+    }
+    
+    /**
+     * 异步发送JSON-RPC请求，临时性失败按重试策略重试，总耗时不超过deadlineMillis
+     */
+    private <T> CompletableFuture<T> send(String method, JsonObject params, long deadlineMillis, HandlerFactory<T> handlerFactory) {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        return mcpRetry.execute(() -> sendOnce(method, params,
+                Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime())), handlerFactory), deadlineMillis);
+    }
+    
+    /**
+     * 异步发送一次JSON-RPC请求，不占用等待线程；每次调用的耗时按传输方式记录
+     */
+    private <T> CompletableFuture<T> sendOnce(String method, JsonObject params, long deadlineMillis, HandlerFactory<T> handlerFactory) {
+        long id = nextId.getAndIncrement();
+        McpTransport current = transport;
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> future = current.send(createRequest(method, params, id), deadlineMillis, handlerFactory.create(id));
+        pending.put(id, new PendingRequest(method, future));
+        future.whenComplete((result, throwable) -> {
+            pending.remove(id);
+            if (throwable == null) {
+                recordLatency(current, startNanos);
             } else {
-                throw new IOException("Request failed with code: " + response.code());
+                Log.e(TAG, "请求失败: " + method + " #" + id, throwable);
+            }
+        });
+        return future;
+    }
+    
+    /**
+     * 连接失败、服务器繁忙（-32003）和408、429、5xx等临时性错误可以重试；其他JSON-RPC错误不重试
+     */
+    private static boolean isRetryableMcpError(Throwable error) {
+        if (error instanceof McpErrorException) {
+            return ((McpErrorException) error).getCode() == McpErrorException.SERVER_OVERLOADED;
+        }
+        return TRANSIENT_ERRORS.isRetryable(error);
+    }
+    
+    /**
+     * 重试统计
+     */
+    public RetryPolicy getRetryPolicy() {
+        return mcpRetry;
+    }
+    
+    private static void recordLatency(McpTransport transport, long startNanos) {
+        LatencyTracker.getInstance().record("mcp." + transport.getName(), (System.nanoTime() - startNanos) / 1000000);
+    }
+    
+    private static JsonObject createRequest(String method, JsonObject params, long id) {
+        JsonObject requestJson = new JsonObject();
+        requestJson.addProperty("method", method);
+        if (params != null) {
+            requestJson.add("params", params);
+        }
+        requestJson.addProperty("jsonrpc", "2.0");
+        requestJson.addProperty("id", id);
+        return requestJson;
+    }
+    
+    /**
+     * 创建JSON-RPC批量请求，加入的所有请求在一次HTTP往返中发送
+     */
+    public Batch newBatch() {
+        return new Batch();
+    }
+    
+    /**
+     * JSON-RPC批量请求
+     * 先加入请求得到各自的Future，再调用send一次发出；响应按id分发给对应的Future
+     */
+    public class Batch {
+        private final JsonArray requests = new JsonArray();
+        private final Map<Long, BatchMember<?>> members = new HashMap<>();
+        private boolean sent;
+        
+        private Batch() {
+        }
+        
+        public CompletableFuture<JsonObject> initialize() {
+            return add("initialize", null, response -> response);
+        }
+        
+        public CompletableFuture<JsonObject> listTools() {
+            return add("tools/list", null, response -> response);
+        }
+        
+        public CompletableFuture<JsonObject> callTool(String toolName, JsonObject arguments) {
+            return add("tools/call", createToolParams(toolName, arguments), response -> response);
+        }
+        
+        /**
+         * 加入天气预报工具调用，响应解析为逐小时预报
+         */
+        public CompletableFuture<HourlyForecast> callForecastTool(String toolName, JsonObject arguments) {
+            return add("tools/call", createToolParams(toolName, arguments),
+                    HourlyForecastDecoder::decode);
+        }
+        
+        public int size() {
+            return requests.size();
+        }
+        
+        public CompletableFuture<Void> send() {
+            return send(DEFAULT_DEADLINE_MILLIS);
+        }
+        
+        /**
+         * 发送批量请求
+         * @param deadlineMillis 整个批量请求的最长时间
+         * @return 所有响应都已分发后完成；取消它会尽可能取消请求，未完成的成员随之失败
+         */
+        public synchronized CompletableFuture<Void> send(long deadlineMillis) {
+            if (sent) {
+                throw new IllegalStateException("批量请求已经发送");
+            }
+            sent = true;
+            if (requests.size() == 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+            
+            McpTransport current = transport;
+            long startNanos = System.nanoTime();
+            // 成员在请求真正发出时才登记为进行中，未发送的批量请求不会留在pending中
+            for (Map.Entry<Long, BatchMember<?>> entry : members.entrySet()) {
+                pending.put(entry.getKey(), new PendingRequest(entry.getValue().method, entry.getValue().future));
+            }
+            CompletableFuture<Void> written = null;
+            try {
+                written = current.send(requests, deadlineMillis, new McpTransport.ResponseHandler<Void>() {
+                    @Override
+                    public Void fromBytes(byte[] body) throws IOException {
+                        return fromJson(new JsonParser().parse(new String(body, StandardCharsets.UTF_8)));
+                    }
+                    
+                    @Override
+                    public Void fromJson(JsonElement response) throws IOException {
+                        dispatchResponses(response);
+                        return null;
+                    }
+                });
+            } finally {
+                if (written == null) {
+                    // 传输在发出请求前失败，这些请求不会再有响应
+                    release(new IOException("批量请求未能发出"));
+                }
+            }
+            CompletableFuture<Void> future = written;
+            future.whenComplete((result, throwable) -> {
+                release(throwable);
+                if (throwable == null) {
+                    recordLatency(current, startNanos);
+                } else {
+                    Log.e(TAG, "批量请求失败，共 " + requests.size() + " 个", throwable);
+                }
+            });
+            return future;
+        }
+        
+        private synchronized <T> CompletableFuture<T> add(String method, JsonObject params, BatchParser<T> parser) {
+            if (sent) {
+                throw new IllegalStateException("批量请求已经发送");
+            }
+            long id = nextId.getAndIncrement();
+            requests.add(createRequest(method, params, id));
+            CompletableFuture<T> future = new CompletableFuture<>();
+            members.put(id, new BatchMember<>(method, future, parser));
+            return future;
+        }
+        
+        /**
+         * 从pending中移除所有成员
+         * @param failure 批量请求失败的原因，成功时为null；尚未完成的成员以它结束
+         */
+        private void release(Throwable failure) {
+            for (Map.Entry<Long, BatchMember<?>> entry : members.entrySet()) {
+                pending.remove(entry.getKey());
+                if (failure != null) {
+                    entry.getValue().future.completeExceptionally(failure);
+                }
+            }
+        }
+        
+        private void dispatchResponses(JsonElement payload) throws IOException {
+            if (!payload.isJsonArray()) {
+                // 整个批量请求被拒绝时服务器返回单个错误对象
+                throw new IOException("批量请求失败: " + payload);
+            }
+            for (JsonElement element : payload.getAsJsonArray()) {
+                JsonObject response = element.getAsJsonObject();
+                JsonElement id = response.get("id");
+                BatchMember<?> member = id != null && !id.isJsonNull() ? members.get(id.getAsLong()) : null;
+                if (member == null) {
+                    Log.w(TAG, "忽略无法对应请求的批量响应: " + response);
+                    continue;
+                }
+                member.complete(response);
+            }
+            for (Map.Entry<Long, BatchMember<?>> entry : members.entrySet()) {
+                if (!entry.getValue().future.isDone()) {
+                    entry.getValue().future.completeExceptionally(new IOException("批量响应中缺少请求 #" + entry.getKey() + " 的响应"));
+                }
+            }
+        }
+    }
+    
+    /**
+     * 批量响应成员的解析
+     */
+    private interface BatchParser<T> {
+        T parse(JsonObject response) throws IOException;
+    }
+    
+    private static class BatchMember<T> {
+        final String method;
+        final CompletableFuture<T> future;
+        final BatchParser<T> parser;
+        
+        BatchMember(String method, CompletableFuture<T> future, BatchParser<T> parser) {
+            this.method = method;
+            this.future = future;
+            this.parser = parser;
+        }
+        
+        void complete(JsonObject response) {
+            try {
+                future.complete(parser.parse(response));
+            } catch (Exception e) {
+                future.completeExceptionally(e);
             }
         }
     }
@@ -0,0 +1,48 @@
+package com.example.caiyunweather.utils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+
+/**
+ * MCP服务器返回的JSON-RPC错误
+ * 服务器繁忙（-32003）时附带建议的重试间隔，供RetryPolicy使用
+ */
+public class McpErrorException extends IOException implements RetryPolicy.RetryHint {
+    public static final int SERVER_OVERLOADED = -32003;
+
+    private final int code;
+    private final long retryAfterMillis;
+
+    /**
+     * @param retryAfterMillis 服务器建议的重试间隔，没有时为-1
+     */
+    public McpErrorException(String message, int code, long retryAfterMillis) {
+        super(message);
+        this.code = code;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * 由JSON-RPC的error对象创建
+     * @param prefix 异常信息的前缀
+     */
+    static McpErrorException fromError(String prefix, JsonObject error) {
+        JsonElement code = error.get("code");
+        JsonElement data = error.get("data");
+        JsonElement retryAfter = data != null && data.isJsonObject() ? data.getAsJsonObject().get("retryAfter") : null;
+        return new McpErrorException(prefix + error,
+                code != null && code.isJsonPrimitive() ? code.getAsInt() : 0,
+                retryAfter != null && retryAfter.isJsonPrimitive() ? retryAfter.getAsLong() * 1000 : -1);
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    @Override
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
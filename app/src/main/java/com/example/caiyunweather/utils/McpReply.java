@@ -0,0 +1,371 @@
+package com.example.caiyunweather.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * McpServer的响应
+ * 普通响应是JSON对象；天气预报响应把彩云天气的原始字节原样拼接进result.data，
+ * 只按字节片段输出，不构建对象树；批量响应由各成员依次写出，拼接成数组。
+ * 逐项响应（例如多城市天气预报）的结果数组按各项完成的顺序输出，完成一项写出一项；
+ * 待定响应（例如等待彩云天气数据的预报）在内容确定后才能写出，生成响应的线程不必等待
+ */
+final class McpReply {
+    static final McpReply EMPTY = new McpReply(JsonNull.INSTANCE, null, Collections.emptyList());
+    private static final byte[] OPEN_BRACE = {'{'};
+    private static final byte[] CLOSE_BRACE = {'}'};
+    private static final byte[] COMMA = {','};
+    private static final byte[] ITEMS = new byte[0];  // 片段列表中逐项输出部分的占位
+    // 与JsonElement.toString()一致：保留null值（例如"id":null），不转义HTML字符
+    private static final Gson GSON = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+
+    private final JsonElement json;          // 普通响应
+    private final List<byte[]> segments;     // 拼接响应的字节片段
+    private final List<McpReply> members;    // 批量响应的成员
+    private final BlockingQueue<CompletableFuture<List<byte[]>>> completedItems;  // 逐项响应中已完成的项
+    private final int itemCount;
+    private CompletableFuture<?> completion;  // 上游工作结束时完成，上游失败时异常完成；null表示生成响应时已经结束
+    private CompletableFuture<McpReply> pending;  // 待定响应的实际内容
+
+    private McpReply(JsonElement json, List<byte[]> segments, List<McpReply> members) {
+        this(json, segments, members, null, 0);
+    }
+
+    private McpReply(JsonElement json, List<byte[]> segments, List<McpReply> members,
+                     BlockingQueue<CompletableFuture<List<byte[]>>> completedItems, int itemCount) {
+        this.json = json;
+        this.segments = segments;
+        this.members = members;
+        this.completedItems = completedItems;
+        this.itemCount = itemCount;
+    }
+
+    static McpReply of(JsonElement json) {
+        return new McpReply(json, null, null);
+    }
+
+    /**
+     * 成功结果为已编码JSON的响应
+     * @param resultPrefix result对象中data之前的部分，例如{"status":"success","data":
+     * @param data 原样输出的JSON字节
+     */
+    static McpReply spliced(String resultPrefix, byte[] data) {
+        List<byte[]> segments = new ArrayList<>(4);
+        segments.add(("{\"result\":" + resultPrefix).getBytes(StandardCharsets.UTF_8));
+        segments.add(data);
+        segments.add(CLOSE_BRACE);
+        segments.add(CLOSE_BRACE);
+        return new McpReply(null, segments, null);
+    }
+
+    /**
+     * 结果中包含逐项完成的数组的响应，数组元素按完成顺序输出，只能写出一次
+     * @param resultPrefix result对象中数组之前的部分，例如{"status":"success","results":[
+     * @param items 各项的JSON字节片段，必须正常完成（失败的项应编码为错误对象）
+     * @param resultSuffix result对象中数组之后的部分，例如]}
+     */
+    static McpReply streamed(String resultPrefix, List<CompletableFuture<List<byte[]>>> items, String resultSuffix) {
+        BlockingQueue<CompletableFuture<List<byte[]>>> completed = new LinkedBlockingQueue<>();
+        for (CompletableFuture<List<byte[]>> item : items) {
+            item.whenComplete((value, throwable) -> completed.add(item));
+        }
+        List<byte[]> segments = new ArrayList<>(4);
+        segments.add(("{\"result\":" + resultPrefix).getBytes(StandardCharsets.UTF_8));
+        segments.add(ITEMS);
+        segments.add(resultSuffix.getBytes(StandardCharsets.UTF_8));
+        segments.add(CLOSE_BRACE);
+        return new McpReply(null, segments, null, completed, items.size());
+    }
+
+    /**
+     * 由预先编码的成员组成的响应，用于内容固定、可缓存的响应
+     * @param members 已编码的对象成员，不含外层大括号，例如"tools":[...]
+     */
+    static McpReply encoded(byte[] members) {
+        List<byte[]> segments = new ArrayList<>(3);
+        segments.add(OPEN_BRACE);
+        segments.add(members);
+        segments.add(CLOSE_BRACE);
+        return new McpReply(null, segments, null);
+    }
+
+    /**
+     * 内容要等上游完成才能确定的响应，写出时等待
+     * @param reply 实际的响应，必须正常完成（失败应编码为错误响应）
+     */
+    static McpReply deferred(CompletableFuture<McpReply> reply) {
+        McpReply deferred = new McpReply(null, null, null);
+        deferred.pending = reply;
+        return deferred;
+    }
+
+    static McpReply batch(List<McpReply> members) {
+        return members.isEmpty() ? EMPTY : new McpReply(null, null, members);
+    }
+
+    /**
+     * 补上jsonrpc版本并回显请求id
+     * @param id 请求id，通知为null
+     */
+    McpReply withEnvelope(JsonElement id) {
+        if (pending != null) {
+            pending = pending.thenApply(reply -> reply.withEnvelope(id));
+        } else if (json != null && json.isJsonObject()) {
+            json.getAsJsonObject().addProperty("jsonrpc", "2.0");
+            if (id != null) {
+                json.getAsJsonObject().add("id", id);
+            }
+        } else if (segments != null) {
+            // 去掉最外层的右括号，接上信封字段
+            segments.remove(segments.size() - 1);
+            String tail = ",\"jsonrpc\":\"2.0\"" + (id != null ? ",\"id\":" + id : "") + "}";
+            segments.add(tail.getBytes(StandardCharsets.UTF_8));
+        }
+        return this;
+    }
+
+    boolean isEmpty() {
+        return this == EMPTY;
+    }
+
+    /**
+     * 标记响应返回后仍在进行的上游工作，例如逐项响应中各位置的预报请求
+     * @param completion 上游工作全部结束时完成，任一上游请求失败时异常完成
+     */
+    McpReply completingWith(CompletableFuture<?> completion) {
+        this.completion = completion;
+        return this;
+    }
+
+    /**
+     * 响应内容确定时完成，得到可以直接读取的响应；不是待定响应时立即完成
+     */
+    CompletableFuture<McpReply> whenResolved() {
+        return pending != null ? pending : CompletableFuture.completedFuture(this);
+    }
+
+    /**
+     * 响应返回后仍在进行的上游工作，生成响应时已经结束的返回null
+     */
+    CompletableFuture<?> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * 普通响应的JSON对象，拼接响应、批量响应和待定响应返回null
+     */
+    JsonElement getJson() {
+        return json;
+    }
+
+    /**
+     * 批量响应的成员，单个响应返回只包含自身的列表
+     */
+    List<McpReply> getMembers() {
+        return members != null ? members : Collections.singletonList(this);
+    }
+
+    /**
+     * 片段响应的总字节数；普通响应和批量响应需要序列化才能得知长度，逐项响应和待定响应要等上游完成，都返回-1
+     */
+    long length() {
+        if (segments == null || completedItems != null) {
+            return -1;
+        }
+        long length = 0;
+        for (byte[] segment : segments) {
+            length += segment.length;
+        }
+        return length;
+    }
+
+    /**
+     * 按片段依次读取的输入流，不合并为一个数组
+     * 逐项响应的各项在读取到时才等待完成，读取方可以一边读取一边处理已完成的项
+     */
+    InputStream openStream() {
+        List<Object> pieces = new ArrayList<>();
+        collectPieces(pieces);
+        Iterator<Object> iterator = pieces.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                Object piece = iterator.next();
+                return piece instanceof McpReply ? ((McpReply) piece).openPlaceholder() : new ByteArrayInputStream((byte[]) piece);
+            }
+        });
+    }
+
+    /**
+     * 展开为字节片段，逐项输出的部分和待定响应以所属的响应占位
+     */
+    private void collectPieces(List<Object> pieces) {
+        if (pending != null) {
+            pieces.add(this);
+        } else if (segments != null) {
+            for (byte[] segment : segments) {
+                pieces.add(segment == ITEMS ? this : segment);
+            }
+        } else if (members != null) {
+            pieces.add(new byte[]{'['});
+            for (int i = 0; i < members.size(); i++) {
+                if (i > 0) {
+                    pieces.add(COMMA);
+                }
+                members.get(i).collectPieces(pieces);
+            }
+            pieces.add(new byte[]{']'});
+        } else {
+            pieces.add(json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * 读取到占位时才等待其内容
+     */
+    private InputStream openPlaceholder() {
+        if (pending == null) {
+            return openItems();
+        }
+        try {
+            return resolve().openStream();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private InputStream openItems() {
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int taken;
+
+            @Override
+            public boolean hasMoreElements() {
+                return taken < itemCount;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                List<InputStream> streams = new ArrayList<>();
+                if (taken > 0) {
+                    streams.add(new ByteArrayInputStream(COMMA));
+                }
+                try {
+                    for (byte[] piece : nextItem()) {
+                        streams.add(new ByteArrayInputStream(piece));
+                    }
+                } catch (InterruptedIOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                taken++;
+                return new SequenceInputStream(Collections.enumeration(streams));
+            }
+        });
+    }
+
+    /**
+     * 等待下一个完成的项
+     */
+    private List<byte[]> nextItem() throws InterruptedIOException {
+        try {
+            return completedItems.take().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待结果时被中断");
+        }
+    }
+
+    /**
+     * 等待待定响应的实际内容
+     */
+    private McpReply resolve() throws IOException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待结果时被中断");
+        } catch (ExecutionException e) {
+            throw new IOException("生成响应失败", e.getCause());
+        }
+    }
+
+    /**
+     * 依次写出各片段，JSON对象通过JsonWriter直接写入输出流，不生成中间字符串
+     * 不关闭输出流
+     */
+    void writeTo(OutputStream out) throws IOException {
+        if (pending != null) {
+            resolve().writeTo(out);
+        } else if (segments != null) {
+            for (byte[] segment : segments) {
+                if (segment == ITEMS) {
+                    writeItems(out);
+                } else {
+                    out.write(segment);
+                }
+            }
+        } else if (members != null) {
+            out.write('[');
+            for (int i = 0; i < members.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                members.get(i).writeTo(out);
+            }
+            out.write(']');
+        } else {
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            GSON.toJson(json, writer);
+            writer.flush();
+        }
+    }
+
+    /**
+     * 按完成顺序写出各项，每项写出后立即刷新，使客户端尽早收到
+     */
+    private void writeItems(OutputStream out) throws IOException {
+        for (int i = 0; i < itemCount; i++) {
+            List<byte[]> item = nextItem();
+            if (i > 0) {
+                out.write(',');
+            }
+            for (byte[] piece : item) {
+                out.write(piece);
+            }
+            out.flush();
+        }
+    }
+
+    byte[] toBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return out.toByteArray();
+    }
+}
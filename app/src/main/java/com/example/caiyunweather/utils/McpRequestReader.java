@@ -0,0 +1,130 @@
+package com.example.caiyunweather.utils;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.CharArrayReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * McpServer的请求体读取
+ * 按Content-Length从连接中直接读取请求体到线程复用的缓冲区，不经过NanoHTTPD的parseBody
+ * （超过1KB的请求体会写入临时文件）和中间字符串；解析时只保留分发需要的method、id和params，
+ * 其余字段直接跳过
+ */
+final class McpRequestReader {
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    // 每个连接处理线程复用一组缓冲区和解码器，按需扩大
+    private static final ThreadLocal<Buffers> BUFFERS = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    private static class Buffers {
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        byte[] bytes = new byte[INITIAL_BUFFER_SIZE];
+        char[] chars = new char[INITIAL_BUFFER_SIZE];
+    }
+
+    private McpRequestReader() {
+    }
+
+    /**
+     * 读取并解析请求体
+     * @param in 连接输入流，只读取length个字节，保持连接上的下一个请求不受影响
+     * @param length 请求体长度（Content-Length），调用方负责限制上限
+     * @return 单个请求为只含method、id、params的JsonObject，批量请求为JsonArray
+     * @throws IOException 连接读取失败或请求体不完整
+     * @throws JsonParseException 请求体不是合法的JSON
+     */
+    static JsonElement read(InputStream in, int length) throws IOException {
+        Buffers buffers = BUFFERS.get();
+        if (buffers.bytes.length < length) {
+            buffers.bytes = new byte[Math.max(length, buffers.bytes.length * 2)];
+            // UTF-8解码后的字符数不会超过字节数
+            buffers.chars = new char[buffers.bytes.length];
+        }
+        byte[] bytes = buffers.bytes;
+        int offset = 0;
+        while (offset < length) {
+            int count = in.read(bytes, offset, length - offset);
+            if (count < 0) {
+                throw new EOFException("请求体不完整: " + offset + "/" + length);
+            }
+            offset += count;
+        }
+        
+        // 一次解码到复用的字符缓冲区，解析器直接读取该缓冲区
+        CharBuffer chars = CharBuffer.wrap(buffers.chars);
+        buffers.decoder.reset();
+        buffers.decoder.decode(ByteBuffer.wrap(bytes, 0, length), chars, true);
+        buffers.decoder.flush(chars);
+        return parse(new CharArrayReader(buffers.chars, 0, chars.position()));
+    }
+
+    private static JsonElement parse(Reader source) {
+        JsonReader reader = new JsonReader(source);
+        try {
+            JsonElement payload;
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                JsonArray batch = new JsonArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    batch.add(readRequest(reader));
+                }
+                reader.endArray();
+                payload = batch;
+            } else {
+                payload = readRequest(reader);
+            }
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonParseException("请求体末尾有多余内容");
+            }
+            return payload;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new JsonParseException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 读取单个请求，非对象的元素原样返回，由分发器按无效请求处理
+     */
+    private static JsonElement readRequest(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return new JsonParser().parse(reader);
+        }
+        JsonObject request = new JsonObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "method":
+                case "id":
+                case "params":
+                    request.add(name, new JsonParser().parse(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return request;
+    }
+}
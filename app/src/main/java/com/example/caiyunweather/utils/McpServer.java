@@ -3,34 +3,122 @@ package com.example.caiyunweather.utils;
 import android.content.Context;
 import android.util.Log;
 
+import com.example.caiyunweather.api.RateLimiter;
+import com.example.caiyunweather.repository.ForecastRepository;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
 
 import fi.iki.elonen.NanoHTTPD;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
 
 public class McpServer extends NanoHTTPD {
     private static final String TAG = "McpServer";
     private static final int PORT = 8080;
+    private static final long UPSTREAM_TIMEOUT_SECONDS = 30;  // 等待彩云天气数据的超时时间
+    private static final int BATCH_DISPATCH_THREADS = 4;       // 批量请求并发分发的线程数
+    private static final int DEFAULT_WORKER_THREADS = 8;       // 处理连接的最大线程数
+    private static final int DEFAULT_QUEUE_DEPTH = 16;         // 等待处理的连接数上限
+    private static final int DEFAULT_IN_PROCESS_THREADS = 4;   // 进程内调用的最大线程数
+    private static final int DEFAULT_IN_PROCESS_QUEUE_DEPTH = 16;  // 等待处理的进程内调用数上限
+    private static final int ERROR_SERVER_OVERLOADED = -32003;  // 服务器繁忙，tools/call被拒绝
+    private static final int STREAM_BUFFER_SIZE = 8192;        // 流式响应的管道缓冲区大小
+    private static final int MAX_REQUEST_BYTES = 256 * 1024;   // 请求体大小上限
+    private static final int GZIP_MIN_BYTES = 1024;            // 小于该长度的响应不压缩
+    public static final int MAX_BATCH_LOCATIONS = 50;          // 多城市预报一次最多的位置数
+    private static final int DEFAULT_BATCH_CONCURRENCY = 4;    // 多城市预报同时进行的上游请求数
     private static McpServer instance;
     private final Gson gson = new Gson();
-    private final OkHttpClient client = new OkHttpClient();
+    private final ThreadPoolExecutor batchExecutor;
+    private volatile ThreadPoolExecutor responseWriter;
+    // tools/call的准入控制：AIMD并发上限 1~32（初始8），最多排队32个，排队超过2秒拒绝，耗时超过10秒视为过载
+    private final AdmissionController admissionController = new AdmissionController(8, 1, 32, 32, 2000, 10000);
+    private final McpToolRegistry toolRegistry;
+    // 多城市预报的上游请求并发上限，所有批量调用共用
+    private final AsyncLimiter batchForecastLimiter = new AsyncLimiter(DEFAULT_BATCH_CONCURRENCY);
+    // 天气预报、多城市预报和进程内调用的期限计时，服务器运行期间存在
+    private volatile ScheduledExecutorService deadlines;
     private ScheduledExecutorService scheduler;
+    private BoundedAsyncRunner asyncRunner;
+    // 进程内调用的线程池，与HTTP连接分开：保持中的HTTP连接会占用连接处理线程直到空闲超时
+    private ThreadPoolExecutor inProcessExecutor;
+    private int inProcessThreads = DEFAULT_IN_PROCESS_THREADS;
+    private int inProcessQueueDepth = DEFAULT_IN_PROCESS_QUEUE_DEPTH;
+    private int workerThreads = DEFAULT_WORKER_THREADS;
+    private int queueDepth = DEFAULT_QUEUE_DEPTH;
+    private int keepAliveTimeoutMillis = NanoHTTPD.SOCKET_READ_TIMEOUT;  // 保持连接的空闲超时
+    private volatile boolean gzipEnabled = true;
     private Context appContext;
     
     private McpServer() {
-        super("127.0.0.1", PORT);  // 明确指定绑定地址
+        this(PORT);
+    }
+    
+    /**
+     * @param port 监听端口，0表示由系统分配（测试使用）
+     */
+    McpServer(int port) {
+        super("127.0.0.1", port);  // 明确指定绑定地址
+        // 空闲的分发线程会被回收
+        batchExecutor = new ThreadPoolExecutor(BATCH_DISPATCH_THREADS, BATCH_DISPATCH_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        batchExecutor.allowCoreThreadTimeOut(true);
+        toolRegistry = createToolRegistry();
+        // NanoHTTPD分两次写出响应头和响应体，开启Nagle算法时响应体要等客户端的延迟ACK（约40ms）
+        setServerSocketFactory(() -> new ServerSocket() {
+            @Override
+            public Socket accept() throws IOException {
+                Socket socket = super.accept();
+                socket.setTcpNoDelay(true);
+                return socket;
+            }
+        });
+    }
+    
+    /**
+     * 声明服务器提供的工具，新增工具在此注册
+     */
+    private McpToolRegistry createToolRegistry() {
+        return new McpToolRegistry.Builder()
+                .tool("get_weather_forecast", "获取指定位置的24小时天气预报")
+                .param("location", McpToolRegistry.ParamType.STRING, "地理位置，例如：北京、上海等", true)
+                .handler(arguments -> callWeatherForecast(arguments.getString("location")))
+                .tool("get_weather_forecast_batch", "获取多个位置（最多" + MAX_BATCH_LOCATIONS + "个）的24小时天气预报，各位置的结果按完成顺序返回")
+                .param("locations", McpToolRegistry.ParamType.ARRAY, "地理位置列表，例如：[\"北京\", \"上海\"]", true)
+                .handler(arguments -> callWeatherForecastBatch(arguments.getArray("locations")))
+                .build();
     }
     
     public static synchronized McpServer getInstance() {
@@ -46,51 +134,147 @@ public class McpServer extends NanoHTTPD {
      */
     public void setAppContext(Context context) {
         this.appContext = context.getApplicationContext();
+        ForecastRepository.getInstance().setAppContext(context);
+        LocationResolver.setAppContext(context);
     }
     
     /**
-     * 获取彩云天气Token
-     * @return 彩云天气Token
+     * 配置处理连接的线程池，下次启动服务器时生效
+     * @param maxThreads 最大线程数，保持中的连接各占用一个线程
+     * @param queueDepth 等待线程的连接数上限，超过时新连接被直接关闭
      */
-    private String getCaiyunWeatherToken() {
-        if (appContext != null) {
-            String token = ApiKeyManager.getInstance(appContext).getCaiyunWeatherToken();
-            if (token != null && !token.isEmpty() && !token.equals("YOUR_CAIYUN_WEATHER_TOKEN")) {
-                return token;
-            }
-        }
-        return "YOUR_CAIYUN_WEATHER_TOKEN";
+    public synchronized void configureWorkers(int maxThreads, int queueDepth) {
+        this.workerThreads = maxThreads;
+        this.queueDepth = queueDepth;
     }
-
-    public void startServer() {
+    
+    /**
+     * 配置处理进程内调用的线程池，下次启动服务器时生效
+     * @param maxThreads 最大线程数
+     * @param queueDepth 等待线程的调用数上限，超过时返回服务器繁忙错误
+     */
+    public synchronized void configureInProcessWorkers(int maxThreads, int queueDepth) {
+        this.inProcessThreads = maxThreads;
+        this.inProcessQueueDepth = queueDepth;
+    }
+    
+    /**
+     * 配置保持连接（keep-alive）的空闲超时，下次启动服务器时生效
+     * @param timeoutMillis 连接空闲超过该时长后关闭，释放工作线程
+     */
+    public synchronized void setKeepAliveTimeout(int timeoutMillis) {
+        this.keepAliveTimeoutMillis = timeoutMillis;
+    }
+    
+    /**
+     * 客户端声明支持gzip（Accept-Encoding）时是否压缩流式响应，默认开启
+     */
+    public void setGzipEnabled(boolean enabled) {
+        this.gzipEnabled = enabled;
+    }
+    
+    /**
+     * 配置多城市预报的并发
+     * 上游请求都发往彩云天气，这个上限也就是多城市预报对该主机的并发数；
+     * 只作用于多城市预报，不修改其他请求共用的HTTP调度器
+     * @param maxConcurrent 所有批量调用同时进行的上游请求数，超出的位置排队
+     */
+    public void setBatchConcurrency(int maxConcurrent) {
+        batchForecastLimiter.setMaxConcurrent(maxConcurrent);
+    }
+    
+    /**
+     * tools/call的准入控制，可读取当前并发上限、排队数和拒绝次数
+     */
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+    
+    /**
+     * 连接处理线程池，服务器未启动时为null
+     */
+    public synchronized BoundedAsyncRunner getAsyncRunner() {
+        return asyncRunner;
+    }
+    
+    public synchronized void startServer() {
         try {
             if (!isAlive()) {
-                start(NanoHTTPD.SOCKET_READ_TIMEOUT, false);
-                Log.d(TAG, "MCP服务器启动成功，端口: " + PORT);
+                // 使用有界线程池代替每个连接一个线程；同一连接上的请求复用同一个工作线程（HTTP keep-alive）
+                asyncRunner = new BoundedAsyncRunner(workerThreads, queueDepth);
+                setAsyncRunner(asyncRunner);
+                // 每个流式响应占用一个写出线程，同时进行的流式响应不超过连接处理线程数
+                responseWriter = new ThreadPoolExecutor(workerThreads, workerThreads,
+                        30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+                responseWriter.allowCoreThreadTimeOut(true);
+                inProcessExecutor = createInProcessExecutor(inProcessThreads, inProcessQueueDepth);
+                deadlines = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "McpServer-deadlines");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                start(keepAliveTimeoutMillis, false);
+                Log.d(TAG, "MCP服务器启动成功，端口: " + getListeningPort() + "，工作线程: " + workerThreads + "，队列: " + queueDepth);
                 
-                // 启动定期任务来保持服务器运行
-                startKeepAliveTask();
+                // 定期输出线程池统计
+                startStatsTask();
             }
         } catch (IOException e) {
             Log.e(TAG, "MCP服务器启动失败", e);
         }
     }
     
-    public void stopServer() {
+    public synchronized void stopServer() {
         if (isAlive()) {
             stop();
             if (scheduler != null) {
                 scheduler.shutdown();
             }
+            if (asyncRunner != null) {
+                asyncRunner.shutdown();
+                asyncRunner = null;
+            }
+            if (responseWriter != null) {
+                responseWriter.shutdown();
+            }
+            if (inProcessExecutor != null) {
+                inProcessExecutor.shutdownNow();
+                inProcessExecutor = null;
+            }
+            if (deadlines != null) {
+                deadlines.shutdownNow();
+            }
             Log.d(TAG, "MCP服务器已停止");
         }
     }
     
-    private void startKeepAliveTask() {
+    private static ThreadPoolExecutor createInProcessExecutor(int maxThreads, int queueDepth) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueDepth), runnable -> {
+                    Thread thread = new Thread(runnable, "McpServer-in-process-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        // 空闲线程会被回收
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+    
+    private void startStatsTask() {
+        BoundedAsyncRunner runner = asyncRunner;
+        ThreadPoolExecutor inProcess = inProcessExecutor;
         scheduler = Executors.newSingleThreadScheduledExecutor();
         scheduler.scheduleWithFixedDelay(() -> {
-            // 定期任务，保持服务器活跃
-            Log.d(TAG, "MCP服务器运行中...");
+            Log.d(TAG, "MCP服务器运行中... 连接: " + runner
+                    + "；进程内调用: 线程 " + inProcess.getActiveCount() + "/" + inProcess.getMaximumPoolSize()
+                    + "，排队 " + inProcess.getQueue().size() + "，已完成 " + inProcess.getCompletedTaskCount()
+                    + "；准入: " + admissionController
+                    + "；上游请求合并: " + ForecastRepository.getInstance().getUpstreamFlights()
+                    + "；预报网格: " + ForecastRepository.getInstance().getGridStats()
+                    + "；多城市预报: " + batchForecastLimiter
+                    + "；上游限流: " + RateLimiter.getInstance()
+                    + "；上游重试: " + ForecastRepository.getInstance().getUpstreamRetry());
         }, 30, 30, TimeUnit.SECONDS);
     }
     
@@ -105,38 +289,196 @@ public class McpServer extends NanoHTTPD {
                 return createCorsResponse();
             }
             
-            // 读取请求体
-            Map<String, String> files = new HashMap<>();
-            session.parseBody(files);
-            String body = files.get("postData");
-            
-            Log.d(TAG, "请求体: " + body);
+            // 按Content-Length直接读取请求体
+            String contentLength = session.getHeaders().get("content-length");
+            if (contentLength == null) {
+                return createHttpErrorResponse(Response.Status.LENGTH_REQUIRED, "Content-Length required");
+            }
+            long length;
+            try {
+                length = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                // 无法确定请求体的边界，连接上的后续数据无法再解析，发送响应后关闭连接
+                Response response = createHttpErrorResponse(Response.Status.BAD_REQUEST,
+                        "Invalid Content-Length: " + contentLength);
+                response.closeConnection(true);
+                return response;
+            }
+            if (length < 0 || length > MAX_REQUEST_BYTES) {
+                // 请求体未读取，连接上的后续数据无法再解析，发送响应后关闭连接
+                Response response = createHttpErrorResponse(Response.Status.PAYLOAD_TOO_LARGE,
+                        "Request body too large: " + length + " bytes (max " + MAX_REQUEST_BYTES + ")");
+                response.closeConnection(true);
+                return response;
+            }
+            JsonElement payload;
+            try {
+                payload = McpRequestReader.read(session.getInputStream(), (int) length);
+            } catch (JsonParseException e) {
+                JsonObject errorResponse = createErrorResponse(-32700, "Parse error: " + e.getMessage());
+                errorResponse.addProperty("jsonrpc", "2.0");
+                errorResponse.add("id", JsonNull.INSTANCE);
+                return createJsonResponse(errorResponse.toString());
+            }
             
-            // 解析JSON请求
-            JsonObject request = new JsonParser().parse(body).getAsJsonObject();
+            McpReply reply = handle(payload);
+            if (reply.isEmpty()) {
+                // 批量请求全部是通知时不返回内容
+                return createNoContentResponse();
+            }
+            String acceptEncoding = session.getHeaders().get("accept-encoding");
+            boolean gzip = gzipEnabled && acceptEncoding != null && acceptEncoding.contains("gzip");
+            long replyLength = reply.length();
+            Response httpResponse;
+            if (reply.getJson() != null) {
+                // 普通响应（初始化、错误）体积小，直接按定长输出
+                httpResponse = createJsonResponse(reply.getJson().toString());
+            } else if (replyLength >= 0 && (!gzip || replyLength < GZIP_MIN_BYTES)) {
+                // 预先编码的响应（天气预报、工具列表）长度已知，按片段定长输出
+                httpResponse = createJsonResponse(reply.openStream(), replyLength);
+            } else {
+                // 批量响应和需要压缩的响应边写边发，彩云天气数据不经过对象树和再次序列化
+                httpResponse = createStreamingResponse(reply, gzip);
+            }
+            int retryAfter = findRetryAfter(reply);
+            if (retryAfter > 0) {
+                // 请求因服务器繁忙被拒绝，告知客户端多久后重试
+                httpResponse.addHeader("Retry-After", String.valueOf(retryAfter));
+            }
+            return httpResponse;
+        } catch (Exception e) {
+            Log.e(TAG, "处理请求时出错", e);
+            JsonObject errorResponse = createErrorResponse(-32603, "Internal error: " + e.getMessage());
+            return createJsonResponse(errorResponse.toString());
+        }
+    }
+    
+    /**
+     * 执行进程内传输的请求
+     * 使用单独的线程池，不与HTTP连接争用连接处理线程
+     * @throws RejectedExecutionException 线程和队列都已满
+     * @throws IllegalStateException 服务器未启动
+     */
+    synchronized Future<?> submitInProcess(Runnable task) {
+        if (inProcessExecutor == null) {
+            throw new IllegalStateException("MCP服务器未启动");
+        }
+        return inProcessExecutor.submit(task);
+    }
+    
+    /**
+     * 在期限计时线程上安排任务，进程内传输用于结束超过期限的调用
+     * @throws IllegalStateException 服务器未启动
+     */
+    ScheduledFuture<?> scheduleDeadline(Runnable task, long delayMillis) {
+        ScheduledExecutorService executor = deadlines;
+        if (executor == null) {
+            throw new IllegalStateException("MCP服务器未启动");
+        }
+        return executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * 服务器繁忙的JSON-RPC错误响应，回显请求id；批量请求整体被拒绝时id为null
+     */
+    JsonObject createOverloadedResponse(JsonElement request) {
+        JsonObject response = createOverloadedError(admissionController.getRetryAfterSeconds());
+        response.addProperty("jsonrpc", "2.0");
+        JsonElement id = request.isJsonObject() ? request.getAsJsonObject().get("id") : null;
+        response.add("id", id != null ? id : JsonNull.INSTANCE);
+        return response;
+    }
+    
+    private JsonObject createOverloadedError(int retryAfter) {
+        JsonObject response = createErrorResponse(ERROR_SERVER_OVERLOADED, "Server overloaded, retry after " + retryAfter + "s");
+        JsonObject data = new JsonObject();
+        data.addProperty("retryAfter", retryAfter);
+        response.getAsJsonObject("error").add("data", data);
+        return response;
+    }
+    
+    /**
+     * 关闭NanoHTTPD对JSON响应的自动压缩
+     * 压缩由本类在流式响应中自行完成（受gzipEnabled和GZIP_MIN_BYTES控制），否则响应会被压缩两次
+     */
+    @Override
+    protected boolean useGzipWhenAccepted(Response response) {
+        return false;
+    }
+    
+    /**
+     * 处理已解析的JSON-RPC请求，HTTP请求和进程内传输共用
+     * @param payload 单个请求或批量请求（数组）
+     * @return 响应或批量响应；批量请求全部是通知时返回McpReply.EMPTY
+     */
+    McpReply handle(JsonElement payload) {
+        if (!payload.isJsonArray()) {
+            return dispatch(payload);
+        }
+        JsonArray batch = payload.getAsJsonArray();
+        if (batch.size() == 0) {
+            return McpReply.of(createErrorResponse(-32600, "Invalid Request: empty batch")).withEnvelope(JsonNull.INSTANCE);
+        }
+        return dispatchBatch(batch);
+    }
+    
+    /**
+     * 分发单个JSON-RPC请求
+     * @param element 请求
+     * @return 回显了请求id的响应
+     */
+    private McpReply dispatch(JsonElement element) {
+        if (!element.isJsonObject() || !element.getAsJsonObject().has("method")) {
+            return McpReply.of(createErrorResponse(-32600, "Invalid Request")).withEnvelope(JsonNull.INSTANCE);
+        }
+        JsonObject request = element.getAsJsonObject();
+        
+        McpReply reply;
+        try {
             String method = request.get("method").getAsString();
-            
-            JsonObject response;
             switch (method) {
                 case "initialize":
-                    response = handleInitialize();
+                    reply = McpReply.of(handleInitialize());
                     break;
                 case "tools/list":
-                    response = handleListTools();
+                    reply = toolRegistry.list();
                     break;
                 case "tools/call":
-                    response = handleCallTool(request);
+                    reply = admitCallTool(request);
                     break;
                 default:
-                    response = createErrorResponse(-32601, "Method not found: " + method);
+                    reply = McpReply.of(createErrorResponse(-32601, "Method not found: " + method));
             }
-            
-            return createJsonResponse(response.toString());
         } catch (Exception e) {
             Log.e(TAG, "处理请求时出错", e);
-            JsonObject errorResponse = createErrorResponse(-32603, "Internal error: " + e.getMessage());
-            return createJsonResponse(errorResponse.toString());
+            reply = McpReply.of(createErrorResponse(-32603, "Internal error: " + e.getMessage()));
+        }
+        
+        // 回显请求id，客户端据此核对响应
+        return reply.withEnvelope(request.get("id"));
+    }
+    
+    /**
+     * 并发分发批量请求中的各个成员，按请求顺序返回响应，通知（没有id的请求）不返回响应
+     */
+    private McpReply dispatchBatch(JsonArray batch) {
+        List<CompletableFuture<McpReply>> futures = new ArrayList<>(batch.size());
+        for (JsonElement element : batch) {
+            futures.add(CompletableFuture.supplyAsync(() -> dispatch(element), batchExecutor));
         }
+        
+        List<McpReply> replies = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            JsonElement element = batch.get(i);
+            boolean notification = element.isJsonObject() && element.getAsJsonObject().has("method")
+                    && !element.getAsJsonObject().has("id");
+            McpReply reply = futures.get(i).join();
+            if (!notification) {
+                replies.add(reply);
+            }
+        }
+        Log.d(TAG, "批量请求: " + batch.size() + " 个，响应: " + replies.size() + " 个");
+        return McpReply.batch(replies);
     }
     
     private JsonObject handleInitialize() {
@@ -155,105 +497,186 @@ public class McpServer extends NanoHTTPD {
         return response;
     }
     
-    private JsonObject handleListTools() {
-        JsonObject response = new JsonObject();
-        JsonArray tools = new JsonArray();
-        
-        // 添加获取天气工具
-        JsonObject getWeatherTool = new JsonObject();
-        getWeatherTool.addProperty("name", "get_weather_forecast");
-        getWeatherTool.addProperty("description", "获取指定位置的24小时天气预报");
-        
-        JsonObject inputSchema = new JsonObject();
-        inputSchema.addProperty("type", "object");
-        
-        JsonObject properties = new JsonObject();
-        JsonObject locationProp = new JsonObject();
-        locationProp.addProperty("type", "string");
-        locationProp.addProperty("description", "地理位置，例如：北京、上海等");
-        properties.add("location", locationProp);
-        
-        inputSchema.add("properties", properties);
-        
-        JsonArray required = new JsonArray();
-        required.add("location");
-        inputSchema.add("required", required);
-        
-        getWeatherTool.add("inputSchema", inputSchema);
-        tools.add(getWeatherTool);
-        
-        response.add("tools", tools);
-        return response;
+    /**
+     * 经过准入控制执行tools/call，服务器繁忙时立即返回错误而不是堆积阻塞的上游请求
+     * 响应返回后仍在进行上游请求的调用（例如多城市预报）在上游工作全部结束后才释放许可
+     */
+    private McpReply admitCallTool(JsonObject request) throws Exception {
+        AdmissionController.Permit permit = admissionController.acquire();
+        if (permit == null) {
+            int retryAfter = admissionController.getRetryAfterSeconds();
+            Log.w(TAG, "服务器繁忙，拒绝tools/call: " + admissionController);
+            return McpReply.of(createOverloadedError(retryAfter));
+        }
+        McpReply reply;
+        try {
+            reply = handleCallTool(request);
+        } catch (Exception e) {
+            permit.release(AdmissionController.Outcome.IGNORED);
+            throw e;
+        }
+        CompletableFuture<?> completion = reply.getCompletion();
+        if (completion == null) {
+            permit.release(classifyOutcome(reply));
+        } else {
+            // 上游请求失败或超过期限视为过载信号，耗时按整个调用计算
+            completion.whenComplete((value, throwable) -> permit.release(throwable == null
+                    ? AdmissionController.Outcome.SUCCESS : AdmissionController.Outcome.DROPPED));
+        }
+        return reply;
     }
     
-    private JsonObject handleCallTool(JsonObject request) {
+    /**
+     * 按tools/call的结果判断是否为过载信号：上游错误（-32000、-32001）视为过载，参数或工具错误不计入
+     */
+    private static AdmissionController.Outcome classifyOutcome(McpReply reply) {
+        JsonElement json = reply.getJson();
+        if (json == null || !json.getAsJsonObject().has("error")) {
+            return AdmissionController.Outcome.SUCCESS;
+        }
+        int code = json.getAsJsonObject().getAsJsonObject("error").get("code").getAsInt();
+        return code == -32000 || code == -32001
+                ? AdmissionController.Outcome.DROPPED : AdmissionController.Outcome.IGNORED;
+    }
+    
+    /**
+     * 查找因服务器繁忙被拒绝的请求建议的重试间隔
+     * @return 秒数，没有被拒绝的请求时返回0
+     */
+    private static int findRetryAfter(McpReply reply) {
+        int retryAfter = 0;
+        for (McpReply member : reply.getMembers()) {
+            JsonElement element = member.getJson();
+            JsonObject error = element != null && element.isJsonObject() ? element.getAsJsonObject().getAsJsonObject("error") : null;
+            if (error != null && error.get("code").getAsInt() == ERROR_SERVER_OVERLOADED && error.has("data")) {
+                retryAfter = Math.max(retryAfter, error.getAsJsonObject("data").get("retryAfter").getAsInt());
+            }
+        }
+        return retryAfter;
+    }
+    
+    private McpReply handleCallTool(JsonObject request) throws Exception {
         JsonObject params = request.getAsJsonObject("params");
         String toolName = params.get("name").getAsString();
         JsonObject arguments = params.getAsJsonObject("arguments");
         
-        switch (toolName) {
-            case "get_weather_forecast":
-                String location = arguments.has("location") ? arguments.get("location").getAsString() : "北京";
-                return callWeatherForecast(location);
-            default:
-                return createErrorResponse(-32601, "Tool not found: " + toolName);
+        try {
+            return toolRegistry.call(toolName, arguments);
+        } catch (McpToolRegistry.UnknownToolException e) {
+            return McpReply.of(createErrorResponse(-32601, e.getMessage()));
+        } catch (McpToolRegistry.InvalidArgumentsException e) {
+            return McpReply.of(createErrorResponse(-32602, "Invalid params: " + e.getMessage()));
         }
     }
     
-    private JsonObject callWeatherForecast(String location) {
+    /**
+     * 单个位置的天气预报
+     * 缓存命中时直接返回响应；需要请求彩云天气时返回待定响应，由写出响应的一方等待数据，
+     * 处理请求的线程不阻塞。超过上游超时时间仍未完成时返回错误
+     */
+    private McpReply callWeatherForecast(String location) {
         try {
             Log.d(TAG, "callWeatherForecast: location " + location);
             // 获取位置坐标
-            double[] coordinates = getLocationCoordinates(location);
-            double longitude = coordinates[0];
-            double latitude = coordinates[1];
-            
-            // 彩云天气API token (需要替换为实际的token)
-            String token = getCaiyunWeatherToken();
-            
-            // 构建API URL
-            String url = String.format("https://api.caiyunapp.com/v2.5/%s/%f,%f/weather.json", 
-                                     token, longitude, latitude);
-            
-            // 创建请求
-            Request httpRequest = new Request.Builder()
-                    .url(url)
-                    .build();
-            
-            // 同步执行请求
-            okhttp3.Response response = client.newCall(httpRequest).execute();
+            double[] coordinates = LocationResolver.resolve(location);
+            if (coordinates == null) {
+                return McpReply.of(createErrorResponse(-32602, "Unknown location: " + location));
+            }
             
-            if (response.isSuccessful() && response.body() != null) {
-                String responseBody = response.body().string();
-                
-                // 解析响应
-                JsonObject result = new JsonObject();
-                result.addProperty("status", "success");
-                result.add("data", new JsonParser().parse(responseBody).getAsJsonObject());
-                
-                JsonObject responseObj = new JsonObject();
-                responseObj.add("result", result);
-
-                Log.d(TAG, "callWeatherForecast: response " + responseObj);
-                return responseObj;
-            } else {
-                return createErrorResponse(-32000, "Failed to get weather data: " + response.code());
+            // 通过预报仓库获取数据，缓存命中时无需访问彩云天气API
+            CompletableFuture<ForecastRepository.Forecast> forecast = ForecastRepository.getInstance()
+                    .getForecast(coordinates[0], coordinates[1]);
+            if (forecast.isDone()) {
+                return forecast.handle(this::createForecastReply).join();
             }
+            CompletableFuture<ForecastRepository.Forecast> upstream = withDeadline(forecast);
+            return McpReply.deferred(upstream.handle(this::createForecastReply)).completingWith(upstream);
         } catch (Exception e) {
-            return createErrorResponse(-32001, "Error calling weather API: " + e.getMessage());
+            return McpReply.of(createErrorResponse(-32001, describeUpstreamError(e)));
+        }
+    }
+    
+    private McpReply createForecastReply(ForecastRepository.Forecast forecast, Throwable throwable) {
+        if (throwable == null) {
+            // 原始字节直接拼接进result.data，不解析也不重新序列化
+            return McpReply.spliced("{\"status\":\"success\",\"data\":", forecast.getRawBytes());
         }
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+        int code = cause instanceof ForecastRepository.HttpError ? -32000 : -32001;
+        return McpReply.of(createErrorResponse(code, describeUpstreamError(cause)));
     }
     
-    private double[] getLocationCoordinates(String location) {
-        // 简化的位置映射，实际应用中可以使用地理编码API
-        Map<String, double[]> locations = new HashMap<>();
-        locations.put("北京", new double[]{116.4074, 39.9042});
-        locations.put("上海", new double[]{121.4737, 31.2304});
-        locations.put("广州", new double[]{113.2644, 23.1291});
-        locations.put("深圳", new double[]{114.0579, 22.5431});
-        locations.put("杭州", new double[]{120.1551, 30.2741});
+    /**
+     * 多城市天气预报
+     * 位置先解析到预报网格，落在同一网格的位置只请求一次；上游请求经过并发上限排队，
+     * 各位置的结果在完成时依次写出，不等待最慢的位置。单个位置失败只影响它自己的结果
+     */
+    private McpReply callWeatherForecastBatch(JsonArray locations) throws McpToolRegistry.InvalidArgumentsException {
+        if (locations.size() == 0 || locations.size() > MAX_BATCH_LOCATIONS) {
+            throw new McpToolRegistry.InvalidArgumentsException("locations must contain 1 to " + MAX_BATCH_LOCATIONS + " items");
+        }
+        for (JsonElement element : locations) {
+            if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isString()) {
+                throw new McpToolRegistry.InvalidArgumentsException("locations must be an array of strings");
+            }
+        }
         
-        return locations.getOrDefault(location, new double[]{116.4074, 39.9042}); // 默认北京
+        ForecastRepository repository = ForecastRepository.getInstance();
+        Map<String, CompletableFuture<ForecastRepository.Forecast>> cells = new HashMap<>();
+        List<CompletableFuture<List<byte[]>>> items = new ArrayList<>(locations.size());
+        for (JsonElement element : locations) {
+            String location = element.getAsString();
+            String itemPrefix = "{\"location\":" + new JsonPrimitive(location) + ",";
+            double[] coordinates = LocationResolver.resolve(location);
+            if (coordinates == null) {
+                items.add(CompletableFuture.completedFuture(createBatchError(itemPrefix, "Unknown location: " + location)));
+                continue;
+            }
+            String cellKey = repository.getGridKey(coordinates[0], coordinates[1]);
+            CompletableFuture<ForecastRepository.Forecast> forecast = cells.get(cellKey);
+            if (forecast == null) {
+                forecast = withDeadline(batchForecastLimiter.submit(
+                        () -> repository.getForecast(coordinates[0], coordinates[1])));
+                cells.put(cellKey, forecast);
+            }
+            byte[] dataPrefix = (itemPrefix + "\"data\":").getBytes(StandardCharsets.UTF_8);
+            // 失败的位置编码为错误项，逐项响应中的每一项都正常完成
+            items.add(forecast.handle((value, throwable) -> throwable == null
+                    ? Arrays.asList(dataPrefix, value.getRawBytes(), new byte[]{'}'})
+                    : createBatchError(itemPrefix, describeUpstreamError(throwable))));
+        }
+        Log.d(TAG, "多城市预报: " + items.size() + " 个位置，" + cells.size() + " 个网格");
+        // 各网格的请求都结束后才算完成，其中任一失败时异常完成，准入控制据此释放许可
+        CompletableFuture<Void> upstream = CompletableFuture.allOf(cells.values().toArray(new CompletableFuture<?>[0]));
+        return McpReply.streamed("{\"status\":\"success\",\"count\":" + items.size() + ",\"results\":[", items, "]}")
+                .completingWith(upstream);
+    }
+    
+    private static List<byte[]> createBatchError(String itemPrefix, String message) {
+        String item = itemPrefix + "\"error\":" + new JsonPrimitive(message) + "}";
+        return Collections.singletonList(item.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * 超过上游超时时间仍未完成时以TimeoutException结束，不影响原来的请求
+     */
+    private <T> CompletableFuture<T> withDeadline(CompletableFuture<T> future) {
+        CompletableFuture<T> result = future.thenApply(Function.identity());
+        ScheduledFuture<?> timer = deadlines.schedule(() -> {
+            result.completeExceptionally(new TimeoutException("等待彩云天气数据超过 " + UPSTREAM_TIMEOUT_SECONDS + " 秒"));
+        }, UPSTREAM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        result.whenComplete((value, throwable) -> timer.cancel(false));
+        return result;
+    }
+    
+    private static String describeUpstreamError(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+        if (cause instanceof ForecastRepository.HttpError) {
+            return "Failed to get weather data: " + ((ForecastRepository.HttpError) cause).getCode();
+        }
+        return "Error calling weather API: " + cause.getMessage();
     }
     
     private JsonObject createErrorResponse(int code, String message) {
@@ -274,6 +697,69 @@ public class McpServer extends NanoHTTPD {
         return response;
     }
     
+    private Response createJsonResponse(InputStream data, long length) {
+        Response response = NanoHTTPD.newFixedLengthResponse(Response.Status.OK, "application/json", data, length);
+        response.addHeader("Access-Control-Allow-Origin", "*");
+        response.addHeader("Access-Control-Allow-Methods", "POST, OPTIONS");
+        response.addHeader("Access-Control-Allow-Headers", "Content-Type");
+        return response;
+    }
+    
+    /**
+     * 分块传输的流式响应
+     * 写出线程把响应写入管道，连接处理线程从管道读取并发送，内存占用不超过管道缓冲区，
+     * 第一个片段写出后即开始发送；客户端断开时管道被关闭，写出线程随之结束
+     */
+    private Response createStreamingResponse(McpReply reply, boolean gzip) throws IOException {
+        PipedInputStream in = new PipedInputStream(STREAM_BUFFER_SIZE);
+        PipedOutputStream pipe = new PipedOutputStream(in);
+        responseWriter.execute(() -> {
+            try {
+                // 同步刷新模式，逐项响应每写出一项都能立即送达客户端
+                OutputStream out = gzip ? new GZIPOutputStream(pipe, STREAM_BUFFER_SIZE, true) : pipe;
+                reply.writeTo(out);
+                out.close();
+            } catch (IOException e) {
+                Log.w(TAG, "写出响应中断: " + e.getMessage());
+            } finally {
+                // 无论成功与否都关闭管道，否则读取端会一直等待
+                try {
+                    pipe.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        
+        Response response = NanoHTTPD.newChunkedResponse(Response.Status.OK, "application/json", in);
+        if (gzip) {
+            response.addHeader("Content-Encoding", "gzip");
+        }
+        response.addHeader("Access-Control-Allow-Origin", "*");
+        response.addHeader("Access-Control-Allow-Methods", "POST, OPTIONS");
+        response.addHeader("Access-Control-Allow-Headers", "Content-Type");
+        return response;
+    }
+    
+    /**
+     * 无法按JSON-RPC处理的请求，以HTTP状态码返回错误
+     */
+    private Response createHttpErrorResponse(Response.Status status, String message) {
+        JsonObject error = createErrorResponse(-32600, "Invalid Request: " + message);
+        Response response = NanoHTTPD.newFixedLengthResponse(status, "application/json", error.toString());
+        response.addHeader("Access-Control-Allow-Origin", "*");
+        response.addHeader("Access-Control-Allow-Methods", "POST, OPTIONS");
+        response.addHeader("Access-Control-Allow-Headers", "Content-Type");
+        return response;
+    }
+    
+    private Response createNoContentResponse() {
+        Response response = NanoHTTPD.newFixedLengthResponse(Response.Status.NO_CONTENT, "application/json", "");
+        response.addHeader("Access-Control-Allow-Origin", "*");
+        response.addHeader("Access-Control-Allow-Methods", "POST, OPTIONS");
+        response.addHeader("Access-Control-Allow-Headers", "Content-Type");
+        return response;
+    }
+    
     private Response createCorsResponse() {
         Response response = NanoHTTPD.newFixedLengthResponse(Response.Status.OK, "text/plain", "");
         response.addHeader("Access-Control-Allow-Origin", "*");
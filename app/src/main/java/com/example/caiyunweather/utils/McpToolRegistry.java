@@ -0,0 +1,299 @@
+package com.example.caiyunweather.utils;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MCP工具注册表
+ * 工具通过Builder声明名称、描述、参数和处理函数；tools/list的描述在构建时生成并编码一次，
+ * 之后每次直接返回缓存的字节。tools/call按工具名查哈希表分发，参数按声明解码和校验，
+ * 增加工具不会增加单次请求的开销
+ */
+final class McpToolRegistry {
+    private final Map<String, Tool> tools;
+    private final byte[] listMembers;  // 已编码的"tools":[...]
+
+    /**
+     * 工具的处理函数
+     */
+    interface Handler {
+        McpReply call(Arguments arguments) throws Exception;
+    }
+
+    /**
+     * 参数类型，对应JSON Schema的type
+     */
+    enum ParamType {
+        STRING("string"),
+        NUMBER("number"),
+        INTEGER("integer"),
+        BOOLEAN("boolean"),
+        ARRAY("array"),
+        OBJECT("object");
+
+        private final String schemaName;
+
+        ParamType(String schemaName) {
+            this.schemaName = schemaName;
+        }
+
+        boolean accepts(JsonElement value) {
+            switch (this) {
+                case STRING:
+                    return value.isJsonPrimitive() && value.getAsJsonPrimitive().isString();
+                case NUMBER:
+                    return value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber();
+                case INTEGER:
+                    return value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber()
+                            && value.getAsDouble() == Math.rint(value.getAsDouble());
+                case BOOLEAN:
+                    return value.isJsonPrimitive() && value.getAsJsonPrimitive().isBoolean();
+                case ARRAY:
+                    return value.isJsonArray();
+                default:
+                    return value.isJsonObject();
+            }
+        }
+    }
+
+    /**
+     * 调用了未注册的工具
+     */
+    static class UnknownToolException extends Exception {
+        UnknownToolException(String name) {
+            super("Tool not found: " + name);
+        }
+    }
+
+    /**
+     * 参数缺失或类型不符
+     */
+    static class InvalidArgumentsException extends Exception {
+        InvalidArgumentsException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 解码后的参数，缺省的参数已填入默认值
+     */
+    static final class Arguments {
+        private final Map<String, JsonElement> values;
+
+        private Arguments(Map<String, JsonElement> values) {
+            this.values = values;
+        }
+
+        boolean has(String name) {
+            return values.containsKey(name);
+        }
+
+        JsonElement get(String name) {
+            return values.get(name);
+        }
+
+        String getString(String name) {
+            JsonElement value = values.get(name);
+            return value != null ? value.getAsString() : null;
+        }
+
+        JsonArray getArray(String name) {
+            JsonElement value = values.get(name);
+            return value != null ? value.getAsJsonArray() : null;
+        }
+    }
+
+    private static final class Param {
+        final String name;
+        final ParamType type;
+        final String description;
+        final boolean required;
+        JsonElement defaultValue;
+
+        Param(String name, ParamType type, String description, boolean required) {
+            this.name = name;
+            this.type = type;
+            this.description = description;
+            this.required = required;
+        }
+    }
+
+    private static final class Tool {
+        final String name;
+        final String description;
+        final Param[] params;
+        final Handler handler;
+
+        Tool(String name, String description, List<Param> params, Handler handler) {
+            this.name = name;
+            this.description = description;
+            this.params = params.toArray(new Param[0]);
+            this.handler = handler;
+        }
+
+        /**
+         * 按声明的参数解码，未声明的参数被忽略
+         */
+        Arguments decode(JsonObject arguments) throws InvalidArgumentsException {
+            Map<String, JsonElement> values = new HashMap<>(params.length * 2);
+            for (Param param : params) {
+                JsonElement value = arguments != null ? arguments.get(param.name) : null;
+                if (value == null || value.isJsonNull()) {
+                    if (param.defaultValue != null) {
+                        values.put(param.name, param.defaultValue);
+                    } else if (param.required) {
+                        throw new InvalidArgumentsException("Missing required argument: " + param.name);
+                    }
+                    continue;
+                }
+                if (!param.type.accepts(value)) {
+                    throw new InvalidArgumentsException("Argument " + param.name + " must be " + param.type.schemaName);
+                }
+                values.put(param.name, value);
+            }
+            return new Arguments(values);
+        }
+
+        JsonObject toDescriptor() {
+            JsonObject properties = new JsonObject();
+            JsonArray required = new JsonArray();
+            for (Param param : params) {
+                JsonObject property = new JsonObject();
+                property.addProperty("type", param.type.schemaName);
+                property.addProperty("description", param.description);
+                properties.add(param.name, property);
+                if (param.required) {
+                    required.add(param.name);
+                }
+            }
+
+            JsonObject inputSchema = new JsonObject();
+            inputSchema.addProperty("type", "object");
+            inputSchema.add("properties", properties);
+            inputSchema.add("required", required);
+
+            JsonObject descriptor = new JsonObject();
+            descriptor.addProperty("name", name);
+            descriptor.addProperty("description", description);
+            descriptor.add("inputSchema", inputSchema);
+            return descriptor;
+        }
+    }
+
+    private McpToolRegistry(Map<String, Tool> tools) {
+        this.tools = tools;
+        JsonArray descriptors = new JsonArray();
+        for (Tool tool : tools.values()) {
+            descriptors.add(tool.toDescriptor());
+        }
+        listMembers = ("\"tools\":" + descriptors).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * tools/list的响应，由缓存的字节组成
+     */
+    McpReply list() {
+        return McpReply.encoded(listMembers);
+    }
+
+    /**
+     * 调用工具
+     * @param name 工具名
+     * @param arguments 调用参数，可以为null
+     */
+    McpReply call(String name, JsonObject arguments) throws Exception {
+        Tool tool = tools.get(name);
+        if (tool == null) {
+            throw new UnknownToolException(name);
+        }
+        return tool.handler.call(tool.decode(arguments));
+    }
+
+    List<String> getToolNames() {
+        return Collections.unmodifiableList(new ArrayList<>(tools.keySet()));
+    }
+
+    /**
+     * 工具注册表的构建器
+     * 先调用tool()开始声明一个工具，随后的param()、defaultValue()和handler()作用于该工具
+     */
+    static final class Builder {
+        // 保持声明顺序，tools/list按该顺序输出
+        private final Map<String, Tool> tools = new LinkedHashMap<>();
+        private String name;
+        private String description;
+        private List<Param> params;
+        private Handler handler;
+
+        /**
+         * 开始声明一个工具
+         */
+        Builder tool(String name, String description) {
+            finishTool();
+            this.name = name;
+            this.description = description;
+            this.params = new ArrayList<>();
+            this.handler = null;
+            return this;
+        }
+
+        Builder param(String name, ParamType type, String description, boolean required) {
+            checkDeclaring();
+            params.add(new Param(name, type, description, required));
+            return this;
+        }
+
+        /**
+         * 最近声明的参数缺省时使用的值
+         */
+        Builder defaultValue(String value) {
+            checkDeclaring();
+            if (params.isEmpty()) {
+                throw new IllegalStateException("defaultValue() must follow param()");
+            }
+            params.get(params.size() - 1).defaultValue = new JsonPrimitive(value);
+            return this;
+        }
+
+        Builder handler(Handler handler) {
+            checkDeclaring();
+            this.handler = handler;
+            return this;
+        }
+
+        McpToolRegistry build() {
+            finishTool();
+            return new McpToolRegistry(tools);
+        }
+
+        private void checkDeclaring() {
+            if (name == null) {
+                throw new IllegalStateException("tool() must be called first");
+            }
+        }
+
+        private void finishTool() {
+            if (name == null) {
+                return;
+            }
+            if (handler == null) {
+                throw new IllegalStateException("Tool " + name + " has no handler");
+            }
+            if (tools.containsKey(name)) {
+                throw new IllegalStateException("Duplicate tool: " + name);
+            }
+            tools.put(name, new Tool(name, description, params, handler));
+            name = null;
+        }
+    }
+}
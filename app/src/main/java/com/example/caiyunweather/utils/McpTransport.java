@@ -0,0 +1,56 @@
+package com.example.caiyunweather.utils;
+
+import com.google.gson.JsonElement;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * McpClient与MCP服务器之间的传输层
+ * HTTP传输用于独立进程的服务器，进程内传输直接把请求对象交给同一应用中的McpServer
+ */
+public interface McpTransport {
+    /**
+     * 传输名称，用于耗时统计
+     */
+    String getName();
+
+    /**
+     * 发送请求
+     * @param request 单个请求（JsonObject）或批量请求（JsonArray），调用方不再修改
+     * @param deadlineMillis 整个调用的最长时间
+     * @param handler 响应处理，按传输得到的形式（字节或JSON对象）选择对应的方法
+     * @return 处理后的结果；取消返回的Future会尽可能取消正在进行的请求
+     */
+    <T> CompletableFuture<T> send(JsonElement request, long deadlineMillis, ResponseHandler<T> handler);
+
+    /**
+     * 响应处理
+     */
+    interface ResponseHandler<T> {
+        /**
+         * 处理响应体字节，例如HTTP传输
+         */
+        T fromBytes(byte[] body) throws IOException;
+
+        /**
+         * 处理响应对象，例如进程内传输，无需序列化和解析
+         */
+        T fromJson(JsonElement response) throws IOException;
+
+        /**
+         * 边接收边处理响应体，例如逐项返回的批量天气预报；默认读完后交给fromBytes
+         */
+        default T fromStream(InputStream body) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int count;
+            while ((count = body.read(chunk)) != -1) {
+                out.write(chunk, 0, count);
+            }
+            return fromBytes(out.toByteArray());
+        }
+    }
+}
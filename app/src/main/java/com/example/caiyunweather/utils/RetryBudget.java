@@ -0,0 +1,67 @@
+package com.example.caiyunweather.utils;
+
+import java.util.Locale;
+
+/**
+ * 重试预算
+ * 每次首次调用存入一定比例的额度，每次重试取出一个；另外按时间补充少量保底额度。
+ * 上游持续失败时重试次数被限制在正常调用量的固定比例内，不会因重试放大负载
+ */
+public class RetryBudget {
+    private final double retryRatio;
+    private final double minRetriesPerSecond;
+    private final double maxBalance;
+
+    private double balance;
+    private long lastRefillNanos;
+    private long withdrawnCount;
+    private long exhaustedCount;
+
+    /**
+     * @param retryRatio 每次首次调用存入的额度，例如0.2表示重试最多占调用量的20%
+     * @param minRetriesPerSecond 按时间补充的保底额度，调用量很少时也允许少量重试
+     * @param maxBalance 额度上限
+     */
+    public RetryBudget(double retryRatio, double minRetriesPerSecond, int maxBalance) {
+        this.retryRatio = retryRatio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.maxBalance = maxBalance;
+        this.balance = maxBalance;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 记录一次首次调用
+     */
+    public synchronized void deposit() {
+        refill();
+        balance = Math.min(maxBalance, balance + retryRatio);
+    }
+
+    /**
+     * 取出一次重试的额度
+     * @return 额度不足时返回false，此时不应重试
+     */
+    public synchronized boolean tryWithdraw() {
+        refill();
+        if (balance < 1) {
+            exhaustedCount++;
+            return false;
+        }
+        balance -= 1;
+        withdrawnCount++;
+        return true;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        balance = Math.min(maxBalance, balance + (now - lastRefillNanos) / 1e9 * minRetriesPerSecond);
+        lastRefillNanos = now;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "额度 %.1f/%.0f，已重试 %d 次，额度不足 %d 次",
+                balance, maxBalance, withdrawnCount, exhaustedCount);
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.caiyunweather.utils;
+
+import android.util.Log;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 异步调用的重试策略
+ * 每次尝试由调用方提供的函数发起；失败时按错误分类决定是否重试，重试间隔使用去相关抖动
+ * （decorrelated jitter），并且不早于服务端给出的Retry-After。整个调用有总期限和重试预算，
+ * 取消返回的Future会取消正在进行的尝试和尚未开始的重试。重试在后台调度线程上发起，不占用主线程
+ */
+public final class RetryPolicy {
+    private static final String TAG = "RetryPolicy";
+    // 所有策略共用的调度线程，只负责按时发起下一次尝试
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RetryPolicy-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long deadlineMillis;
+    private final ErrorClassifier classifier;
+    private final RetryBudget budget;
+    private final AtomicLong callCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * 判断失败是否值得重试
+     */
+    public interface ErrorClassifier {
+        boolean isRetryable(Throwable error);
+    }
+
+    /**
+     * 带有服务端建议重试间隔的错误，例如429响应的Retry-After
+     */
+    public interface RetryHint {
+        /**
+         * @return 毫秒数，没有时返回-1
+         */
+        long getRetryAfterMillis();
+    }
+
+    private RetryPolicy(Builder builder) {
+        this.name = builder.name;
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelayMillis = builder.baseDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.deadlineMillis = builder.deadlineMillis;
+        this.classifier = builder.classifier;
+        this.budget = builder.budget;
+    }
+
+    /**
+     * 共用的调度线程，也用于限流排队等需要按时发起请求的场景；提交的任务不能阻塞
+     */
+    public static ScheduledExecutorService getScheduler() {
+        return SCHEDULER;
+    }
+
+    /**
+     * 临时性错误的分类
+     * 请求没有到达服务器（连接失败、DNS失败）以及408、429、502、503、504总是可以重试；
+     * 超时、连接中断和500只在调用幂等时重试；数据格式错误、其他4xx和取消不重试
+     * @param idempotent 重复执行是否安全，例如GET请求或没有副作用的查询
+     */
+    public static ErrorClassifier transientErrors(boolean idempotent) {
+        return error -> {
+            if (error instanceof HttpStatusException) {
+                int code = ((HttpStatusException) error).getCode();
+                return code == 408 || code == 429 || code == 502 || code == 503 || code == 504
+                        || (idempotent && code == 500);
+            }
+            if (error instanceof ConnectException || error instanceof UnknownHostException
+                    || error instanceof NoRouteToHostException) {
+                return true;
+            }
+            if (error instanceof MalformedJsonException || error instanceof JsonParseException
+                    || error instanceof CancellationException) {
+                return false;
+            }
+            return idempotent && error instanceof IOException;
+        };
+    }
+
+    /**
+     * 执行调用
+     * @param operation 发起一次尝试，每次重试都会重新调用；应当异步执行，不阻塞调度线程
+     * @return 第一次成功的结果；不再重试时以最后一次的错误结束，超过总期限时以TimeoutException结束
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> operation) {
+        return execute(operation, deadlineMillis);
+    }
+
+    /**
+     * 执行调用，使用调用方给出的总期限代替策略的默认值
+     * @param deadlineMillis 整个调用（含所有尝试和等待）的最长时间
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> operation, long deadlineMillis) {
+        callCount.incrementAndGet();
+        if (budget != null) {
+            budget.deposit();
+        }
+        Execution<T> execution = new Execution<>(operation, deadlineMillis);
+        execution.attempt();
+        return execution.result;
+    }
+
+    /**
+     * 一次调用的重试状态
+     */
+    private final class Execution<T> {
+        final Supplier<CompletableFuture<T>> operation;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final long deadlineNanos;
+        final ScheduledFuture<?> deadlineTimer;
+        int attempts;
+        long previousDelayMillis = baseDelayMillis;
+        volatile CompletableFuture<T> current;
+        volatile ScheduledFuture<?> pendingRetry;
+
+        Execution(Supplier<CompletableFuture<T>> operation, long deadlineMillis) {
+            this.operation = operation;
+            this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+            deadlineTimer = SCHEDULER.schedule(() -> {
+                if (result.completeExceptionally(new TimeoutException(name + " 超过总期限: " + deadlineMillis + "ms"))) {
+                    failedCount.incrementAndGet();
+                }
+            }, deadlineMillis, TimeUnit.MILLISECONDS);
+            result.whenComplete((value, throwable) -> {
+                deadlineTimer.cancel(false);
+                if (throwable != null) {
+                    // 取消或超过期限时停止正在进行的尝试和尚未开始的重试
+                    ScheduledFuture<?> retry = pendingRetry;
+                    if (retry != null) {
+                        retry.cancel(false);
+                    }
+                    CompletableFuture<T> attempt = current;
+                    if (attempt != null && !attempt.isDone()) {
+                        attempt.cancel(true);
+                    }
+                }
+            });
+        }
+
+        void attempt() {
+            if (result.isDone()) {
+                return;
+            }
+            attempts++;
+            CompletableFuture<T> future;
+            try {
+                future = operation.get();
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            current = future;
+            if (result.isDone()) {
+                future.cancel(true);
+                return;
+            }
+            future.whenComplete((value, throwable) -> {
+                if (throwable == null) {
+                    result.complete(value);
+                } else {
+                    onFailure(unwrap(throwable));
+                }
+            });
+        }
+
+        private void onFailure(Throwable error) {
+            if (result.isDone()) {
+                return;
+            }
+            long delayMillis = nextDelayMillis(error);
+            String reason = null;
+            if (attempts >= maxAttempts) {
+                reason = "已尝试 " + attempts + " 次";
+            } else if (!classifier.isRetryable(error)) {
+                reason = "错误不可重试";
+            } else if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis) >= deadlineNanos) {
+                reason = "重试将超过总期限";
+            } else if (budget != null && !budget.tryWithdraw()) {
+                reason = "重试预算不足";
+            }
+            if (reason != null) {
+                if (attempts > 1 || classifier.isRetryable(error)) {
+                    Log.w(TAG, name + " 放弃重试（" + reason + "）: " + error);
+                }
+                if (result.completeExceptionally(error)) {
+                    failedCount.incrementAndGet();
+                }
+                return;
+            }
+            retryCount.incrementAndGet();
+            Log.d(TAG, name + " 第 " + attempts + " 次尝试失败，" + delayMillis + "ms 后重试: " + error);
+            pendingRetry = SCHEDULER.schedule(this::attempt, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * 去相关抖动：在[base, 上次间隔×3]之间随机取值，不超过上限，也不早于服务端建议的时间
+         */
+        private long nextDelayMillis(Throwable error) {
+            long upper = Math.min(maxDelayMillis, previousDelayMillis * 3);
+            long delay = upper > baseDelayMillis
+                    ? ThreadLocalRandom.current().nextLong(baseDelayMillis, upper + 1) : baseDelayMillis;
+            previousDelayMillis = delay;
+            if (error instanceof RetryHint) {
+                delay = Math.max(delay, ((RetryHint) error).getRetryAfterMillis());
+            }
+            return delay;
+        }
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        while ((throwable instanceof CompletionException || throwable instanceof ExecutionException)
+                && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": 调用 " + callCount.get() + " 次，重试 " + retryCount.get() + " 次，失败 " + failedCount.get() + " 次"
+                + (budget != null ? "，" + budget : "");
+    }
+
+    /**
+     * 重试策略的构建器
+     */
+    public static final class Builder {
+        private final String name;
+        private int maxAttempts = 3;
+        private long baseDelayMillis = 200;
+        private long maxDelayMillis = 10000;
+        private long deadlineMillis = 60000;
+        private ErrorClassifier classifier = transientErrors(false);
+        private RetryBudget budget;
+
+        /**
+         * @param name 策略名称，用于日志
+         */
+        public Builder(String name) {
+            this.name = name;
+        }
+
+        /**
+         * 最多尝试次数（含第一次）
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * 重试间隔的下限和上限
+         */
+        public Builder delay(long baseDelayMillis, long maxDelayMillis) {
+            this.baseDelayMillis = baseDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * 整个调用（含所有尝试和等待）的最长时间
+         */
+        public Builder deadline(long deadlineMillis) {
+            this.deadlineMillis = deadlineMillis;
+            return this;
+        }
+
+        public Builder classifier(ErrorClassifier classifier) {
+            this.classifier = classifier;
+            return this;
+        }
+
+        /**
+         * 重试预算，可以由多个策略共用
+         */
+        public Builder budget(RetryBudget budget) {
+            this.budget = budget;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            if (maxAttempts < 1 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis || deadlineMillis <= 0) {
+                throw new IllegalStateException("Invalid retry policy: " + name);
+            }
+            return new RetryPolicy(this);
+        }
+    }
+}
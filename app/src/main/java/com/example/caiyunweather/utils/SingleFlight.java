@@ -0,0 +1,76 @@
+package com.example.caiyunweather.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 请求合并（single-flight）
+ * 同一个键同时只会有一个请求在执行，并发的相同请求挂到正在执行的请求上，共享同一个结果
+ * @param <K> 请求键
+ * @param <V> 结果类型
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong issuedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * 执行请求，如果相同键的请求正在进行则直接复用其结果
+     * @param key 请求键
+     * @param loader 真正发起请求的函数，只有在没有进行中的请求时才会被调用
+     * @return 请求结果，每个调用方拿到独立的Future，取消不会影响其他调用方
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> loader) {
+        CompletableFuture<V> promise = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, promise);
+        if (existing != null) {
+            coalescedCount.incrementAndGet();
+            return existing.thenApply(Function.identity());
+        }
+
+        issuedCount.incrementAndGet();
+        try {
+            loader.get().whenComplete((value, throwable) -> {
+                inFlight.remove(key, promise);
+                if (throwable != null) {
+                    promise.completeExceptionally(throwable);
+                } else {
+                    promise.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, promise);
+            promise.completeExceptionally(e);
+        }
+        return promise.thenApply(Function.identity());
+    }
+
+    /**
+     * 实际发起的请求数
+     */
+    public long getIssuedCount() {
+        return issuedCount.get();
+    }
+
+    /**
+     * 被合并到已有请求上的调用数
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * 当前正在进行的请求数
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    @Override
+    public String toString() {
+        return "issued=" + getIssuedCount() + ", coalesced=" + getCoalescedCount() + ", inFlight=" + getInFlightCount();
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.caiyunweather.utils;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 本地规则意图解析
+ * 识别"北京天气"、"请告诉我北京未来24小时的天气预报"、"forecast for 北京"这类结构化请求，
+ * 直接得到位置而无需经过DeepSeek模型；无法识别的自由文本返回null，交给模型处理
+ */
+public final class WeatherIntentResolver {
+    // 礼貌用语等前缀
+    private static final Pattern PREFIX = Pattern.compile("^(?:请告诉我|告诉我|请问|请帮我查一下|帮我查一下|帮我查|查一下|查询|我想知道)");
+    // 中文：<地名>[的][时间范围][的]天气[预报][怎么样]
+    private static final Pattern CHINESE_FORECAST = Pattern.compile(
+            "^(.+?)(?:的)?(?:未来\\d+小时|最近\\d+小时|今天|明天|最近)?(?:的)?天气(?:预报)?(?:怎么样|如何|情况)?"
+                    + "(?:[，,]\\s*直接返回JSON数据)?[？?。.!！]*$");
+    // 英文：forecast for <地名> / weather in <地名>
+    private static final Pattern ENGLISH_FORECAST = Pattern.compile(
+            "^(?:(?:hourly\\s+)?forecast|weather)\\s+(?:for|in)\\s+(.+?)[?.!]*$", Pattern.CASE_INSENSITIVE);
+
+    private WeatherIntentResolver() {
+    }
+
+    /**
+     * 解析查询中的位置
+     * @param query 用户输入
+     * @return 能直接获取天气的地名；不是结构化的天气请求或地名未知时返回null
+     */
+    public static String resolveLocation(String query) {
+        if (query == null) {
+            return null;
+        }
+        String text = query.trim();
+        // 整句就是地名时直接返回，这里不做前缀匹配，以免把"上海到北京多远"当作上海的天气请求
+        String name = LocationResolver.getCanonicalName(text, true);
+        if (name != null) {
+            return name;
+        }
+        text = PREFIX.matcher(text).replaceFirst("");
+
+        Matcher matcher = CHINESE_FORECAST.matcher(text);
+        if (!matcher.matches()) {
+            matcher = ENGLISH_FORECAST.matcher(text);
+            if (!matcher.matches()) {
+                return null;
+            }
+        }
+        String location = matcher.group(1).trim();
+        return LocationResolver.getCanonicalName(location, false);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.caiyunweather.api;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import okhttp3.RequestBody;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChatRequestTemplateTest {
+    private static final String[] SAMPLES = {
+            "",
+            "北京明天天气怎么样",
+            "say \"hi\"",
+            "C:\\Users\\天气",
+            "第一行\n第二行\r\n\t缩进",
+            "控制字符\u0000\u0001\u001f结束",
+            "\u007f和\u2028不需要转义",
+            "emoji 🌧️ 和 ☀",
+            "\"",
+            "\\",
+            "</script>",
+    };
+
+    @Test
+    public void escapedTextParsesBackToOriginal() {
+        for (String sample : SAMPLES) {
+            String escaped = new String(ChatRequestTemplate.escape(sample), StandardCharsets.UTF_8);
+
+            assertEquals(sample, new JsonParser().parse("\"" + escaped + "\"").getAsString());
+        }
+    }
+
+    @Test
+    public void escapeUsesShortFormsAndLowercaseHex() {
+        assertEscaped("a\\\"b\\\\c\\nd\\re\\tf", "a\"b\\c\nd\re\tf");
+        assertEscaped("\\u0000\\u001f\\u000b", "\u0000\u001f\u000b");
+    }
+
+    @Test
+    public void plainTextIsEncodedAsUtf8WithoutChanges() {
+        String text = "杭州西湖 25°C";
+
+        assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), ChatRequestTemplate.escape(text));
+    }
+
+    @Test
+    public void bodyIsValidJsonWithUserContent() throws IOException {
+        ChatRequestTemplate template = ChatRequestTemplate.compile(request());
+
+        for (String sample : SAMPLES) {
+            JsonObject body = parse(template.newBody(sample, false));
+
+            assertEquals(sample, body.getAsJsonArray("messages").get(1).getAsJsonObject().get("content").getAsString());
+            assertEquals("deepseek-chat", body.get("model").getAsString());
+            assertFalse(body.has("stream"));
+        }
+    }
+
+    @Test
+    public void streamFlagIsAppended() throws IOException {
+        JsonObject body = parse(ChatRequestTemplate.compile(request()).newBody("下雨吗", true));
+
+        assertTrue(body.get("stream").getAsBoolean());
+    }
+
+    @Test
+    public void contentLengthMatchesWrittenBytes() throws IOException {
+        ChatRequestTemplate template = ChatRequestTemplate.compile(request());
+
+        for (boolean stream : new boolean[]{false, true}) {
+            RequestBody body = template.newBody("含\"引号\"和换行\n的消息", stream);
+            Buffer buffer = new Buffer();
+            body.writeTo(buffer);
+
+            assertEquals(body.contentLength(), buffer.size());
+        }
+    }
+
+    @Test
+    public void bodyCanBeWrittenTwice() throws IOException {
+        RequestBody body = ChatRequestTemplate.compile(request()).newBody("重试", false);
+
+        assertEquals(write(body), write(body));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingPlaceholderIsRejected() {
+        JsonObject request = request();
+        request.getAsJsonArray("messages").get(1).getAsJsonObject().addProperty("content", "固定内容");
+
+        ChatRequestTemplate.compile(request);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicatePlaceholderIsRejected() {
+        JsonObject request = request();
+        request.getAsJsonArray("messages").get(0).getAsJsonObject()
+                .addProperty("content", ChatRequestTemplate.USER_CONTENT_PLACEHOLDER);
+
+        ChatRequestTemplate.compile(request);
+    }
+
+    private static void assertEscaped(String expected, String value) {
+        assertEquals(expected, new String(ChatRequestTemplate.escape(value), StandardCharsets.UTF_8));
+    }
+
+    private static JsonObject request() {
+        JsonObject system = new JsonObject();
+        system.addProperty("role", "system");
+        system.addProperty("content", "你是天气助手");
+        JsonObject user = new JsonObject();
+        user.addProperty("role", "user");
+        user.addProperty("content", ChatRequestTemplate.USER_CONTENT_PLACEHOLDER);
+        JsonArray messages = new JsonArray();
+        messages.add(system);
+        messages.add(user);
+        JsonObject request = new JsonObject();
+        request.addProperty("model", "deepseek-chat");
+        request.add("messages", messages);
+        request.addProperty("temperature", 0.3);
+        return request;
+    }
+
+    private static JsonObject parse(RequestBody body) throws IOException {
+        return new JsonParser().parse(write(body)).getAsJsonObject();
+    }
+
+    private static String write(RequestBody body) throws IOException {
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        return buffer.readUtf8();
+    }
+}
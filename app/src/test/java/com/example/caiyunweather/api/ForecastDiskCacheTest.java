@@ -0,0 +1,68 @@
+package com.example.caiyunweather.api;
+
+import com.example.caiyunweather.repository.ForecastGrid;
+
+import org.junit.Test;
+
+import okhttp3.HttpUrl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class ForecastDiskCacheTest {
+    private final ForecastGrid grid = new ForecastGrid(ForecastGrid.DEFAULT_CELL_DEGREES);
+
+    @Test
+    public void adjacentCellsGetDifferentKeys() {
+        // 73.075和73.085取两位小数后都是73.08
+        assertNotEquals(keyFor("token", "73.075", "39.905"), keyFor("token", "73.085", "39.905"));
+        assertNotEquals(keyFor("token", "116.405", "18.075"), keyFor("token", "116.405", "18.085"));
+    }
+
+    @Test
+    public void everyAdjacentGridCellHasItsOwnKey() {
+        for (int i = 7300; i < 13500; i++) {
+            ForecastGrid.Cell west = grid.cellFor(i / 100.0, 30);
+            ForecastGrid.Cell east = grid.cellFor((i + 1) / 100.0, 30);
+            assertNotEquals(west + " / " + east, keyFor(west), keyFor(east));
+        }
+        for (int i = 1800; i < 5400; i++) {
+            ForecastGrid.Cell south = grid.cellFor(110, i / 100.0);
+            ForecastGrid.Cell north = grid.cellFor(110, (i + 1) / 100.0);
+            assertNotEquals(south + " / " + north, keyFor(south), keyFor(north));
+        }
+    }
+
+    @Test
+    public void tokenIsNotPartOfKey() {
+        assertEquals(keyFor("first", "116.405", "39.905"), keyFor("second", "116.405", "39.905"));
+    }
+
+    @Test
+    public void queryIsPartOfKey() {
+        HttpUrl plain = url("token", "116.405", "39.905");
+        HttpUrl hourly = plain.newBuilder().addQueryParameter("hourlysteps", "48").build();
+
+        assertNotEquals(ForecastDiskCache.keyFor(plain), ForecastDiskCache.keyFor(hourly));
+    }
+
+    @Test
+    public void unrecognizedUrlsHaveNoKey() {
+        assertNull(ForecastDiskCache.keyFor(HttpUrl.get("https://api.caiyunapp.com/v2.5/token")));
+        assertNull(ForecastDiskCache.keyFor(HttpUrl.get("https://api.caiyunapp.com/v2.5/token/beijing/weather.json")));
+        assertNull(ForecastDiskCache.keyFor(HttpUrl.get("https://api.caiyunapp.com/v2.5/token/east,north/weather.json")));
+    }
+
+    private static String keyFor(ForecastGrid.Cell cell) {
+        return keyFor("token", cell.getLongitude(), cell.getLatitude());
+    }
+
+    private static String keyFor(String token, String longitude, String latitude) {
+        return ForecastDiskCache.keyFor(url(token, longitude, latitude));
+    }
+
+    private static HttpUrl url(String token, String longitude, String latitude) {
+        return HttpUrl.get("https://api.caiyunapp.com/v2.5/" + token + "/" + longitude + "," + latitude + "/weather.json");
+    }
+}
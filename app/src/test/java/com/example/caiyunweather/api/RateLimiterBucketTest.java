@@ -0,0 +1,222 @@
+package com.example.caiyunweather.api;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 令牌桶使用调用方传入的时刻，测试直接给出纳秒时间，不依赖真实时钟
+ */
+public class RateLimiterBucketTest {
+    private static final long T0 = TimeUnit.SECONDS.toNanos(1000);
+    private static final long NO_LIMIT = Long.MAX_VALUE;
+
+    @Test
+    public void burstIsFreeThenRequestsAreSpacedByRate() {
+        RateLimiter.Bucket bucket = bucket(10, 3);
+
+        // 桶中3个令牌，第4个请求预约下一个间隔，本身不等待
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, bucket.reserve(T0, NO_LIMIT));
+        }
+        assertEquals(millis(100), bucket.reserve(T0, NO_LIMIT));
+        assertEquals(millis(200), bucket.reserve(T0, NO_LIMIT));
+    }
+
+    @Test
+    public void requestOverMaxWaitIsRejectedWithoutTakingPermit() {
+        RateLimiter.Bucket bucket = bucket(10, 1);
+        bucket.reserve(T0, NO_LIMIT);
+        bucket.reserve(T0, NO_LIMIT);
+
+        assertEquals(-1, bucket.reserve(T0, millis(50)));
+        assertEquals("被拒绝的请求没有占用令牌", millis(100), bucket.reserve(T0, NO_LIMIT));
+    }
+
+    @Test
+    public void idleTimeRefillsUpToBurst() {
+        RateLimiter.Bucket bucket = bucket(10, 2);
+        for (int i = 0; i < 3; i++) {
+            bucket.reserve(T0, NO_LIMIT);
+        }
+
+        // 空闲10秒，按速率可积累100个令牌，但不超过容量2
+        long later = T0 + TimeUnit.SECONDS.toNanos(10);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.reserve(later, NO_LIMIT));
+        }
+        assertEquals(millis(100), bucket.reserve(later, NO_LIMIT));
+    }
+
+    @Test
+    public void backOffPausesAndHalvesRate() {
+        RateLimiter.Bucket bucket = bucket(10, 5);
+
+        bucket.backOff(T0, millis(500));
+
+        assertEquals(5.0, bucket.getRate(), 1e-9);
+        assertEquals("暂停期间桶中的令牌作废", millis(500), bucket.reserve(T0, NO_LIMIT));
+        assertEquals(millis(700), bucket.reserve(T0, NO_LIMIT));
+    }
+
+    @Test
+    public void repeatedBackOffStopsAtMinimumRate() {
+        RateLimiter.Bucket bucket = bucket(16, 1);
+        for (int i = 0; i < 10; i++) {
+            bucket.backOff(T0, 0);
+        }
+
+        assertEquals(1.0, bucket.getRate(), 1e-9);
+    }
+
+    @Test
+    public void successfulResponsesRecoverGradually() {
+        RateLimiter.Bucket bucket = bucket(10, 1);
+        bucket.backOff(T0, 0);
+        bucket.backOff(T0, 0);
+        assertEquals(2.5, bucket.getRate(), 1e-9);
+
+        bucket.recover(T0);
+        assertEquals(3.5, bucket.getRate(), 1e-9);
+        for (int i = 0; i < 20; i++) {
+            bucket.recover(T0);
+        }
+        assertEquals(10.0, bucket.getRate(), 1e-9);
+    }
+
+    @Test
+    public void exhaustedQuotaPausesUntilReset() {
+        RateLimiter.Bucket bucket = bucket(10, 5);
+
+        bucket.applyQuota(T0, 0, TimeUnit.SECONDS.toNanos(30));
+
+        assertEquals(TimeUnit.SECONDS.toNanos(30), bucket.reserve(T0, NO_LIMIT));
+    }
+
+    @Test
+    public void remainingQuotaIsSpreadUntilReset() {
+        RateLimiter.Bucket bucket = bucket(10, 5);
+
+        // 60秒内还剩60次，速率降为1/s
+        bucket.applyQuota(T0, 60, TimeUnit.SECONDS.toNanos(60));
+        assertEquals(1.0, bucket.getRate(), 1e-9);
+
+        // 剩余更少时不低于配置速率的1/16
+        bucket.applyQuota(T0, 6, TimeUnit.SECONDS.toNanos(60));
+        assertEquals(10.0 / 16, bucket.getRate(), 1e-9);
+
+        // 配额充足时回到配置速率
+        bucket.applyQuota(T0, 1000, TimeUnit.SECONDS.toNanos(60));
+        assertEquals(10.0, bucket.getRate(), 1e-9);
+    }
+
+    @Test
+    public void loweringLimitClampsRateAndStoredPermits() {
+        RateLimiter.Bucket bucket = bucket(10, 5);
+
+        bucket.setLimit(new RateLimiter.Limit(2, 1), T0);
+
+        assertEquals(2.0, bucket.getRate(), 1e-9);
+        assertEquals(0, bucket.reserve(T0, NO_LIMIT));
+        assertEquals(0, bucket.reserve(T0, NO_LIMIT));
+        assertEquals(millis(500), bucket.reserve(T0, NO_LIMIT));
+    }
+
+    @Test
+    public void refundedReservationGoesToNextRequest() {
+        RateLimiter.Bucket bucket = bucket(10, 1);
+        bucket.reserve(T0, NO_LIMIT);
+        bucket.reserve(T0, NO_LIMIT);
+        assertEquals(millis(100), bucket.reserve(T0, NO_LIMIT));
+
+        bucket.refund(T0);
+
+        assertEquals(millis(100), bucket.reserve(T0, NO_LIMIT));
+    }
+
+    @Test
+    public void refundWithoutReservationReturnsPermitToStore() {
+        RateLimiter.Bucket bucket = bucket(10, 2);
+        bucket.reserve(T0, NO_LIMIT);
+        bucket.reserve(T0, NO_LIMIT);
+
+        bucket.refund(T0);
+
+        assertEquals(0, bucket.reserve(T0, NO_LIMIT));
+        assertEquals(0, bucket.reserve(T0, NO_LIMIT));
+        assertEquals(millis(100), bucket.reserve(T0, NO_LIMIT));
+    }
+
+    @Test
+    public void refundDoesNotShortenPause() {
+        RateLimiter.Bucket bucket = bucket(10, 5);
+        bucket.backOff(T0, millis(500));
+        bucket.reserve(T0, NO_LIMIT);
+
+        bucket.refund(T0);
+        bucket.refund(T0);
+
+        assertEquals(millis(500), bucket.reserve(T0, NO_LIMIT));
+    }
+
+    @Test
+    public void cancelledAcquireGivesPermitBack() throws Exception {
+        RateLimiter limiter = RateLimiter.getInstance();
+        limiter.configure("acquire-test", 1, 1);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            // 桶中的令牌和预约的下一个间隔都不需要等待
+            assertTrue(limiter.acquire("acquire-test", null, scheduler).isDone());
+            assertTrue(limiter.acquire("acquire-test", null, scheduler).isDone());
+            CompletableFuture<RateLimiter.Permit> waiting = limiter.acquire("acquire-test", null, scheduler);
+            assertFalse(waiting.isDone());
+
+            waiting.cancel(false);
+
+            long waitMillis = limiter.reserve("acquire-test", null);
+            assertTrue("取消的排队没有归还令牌: " + waitMillis, waitMillis <= 1000);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void permitIsUsedOrReleasedOnce() {
+        RateLimiter.Bucket bucket = bucket(10, 1);
+        bucket.reserve(T0, NO_LIMIT);
+        RateLimiter.Permit permit = new RateLimiter.Permit(bucket);
+
+        assertTrue(permit.use());
+        assertFalse(permit.use());
+        permit.release();
+
+        assertEquals("已经使用的许可不归还令牌", 0, bucket.reserve(T0, NO_LIMIT));
+        assertEquals(millis(100), bucket.reserve(T0, NO_LIMIT));
+    }
+
+    @Test
+    public void retryAfterAcceptsSecondsAndHttpDates() {
+        long now = 1445412480000L;  // Wed, 21 Oct 2015 07:28:00 GMT
+
+        assertEquals(120000, RateLimiter.parseRetryAfterMillis(" 120 ", now));
+        assertEquals(30000, RateLimiter.parseRetryAfterMillis("Wed, 21 Oct 2015 07:28:30 GMT", now));
+        assertEquals(0, RateLimiter.parseRetryAfterMillis("Wed, 21 Oct 2015 07:00:00 GMT", now));
+        assertEquals(-1, RateLimiter.parseRetryAfterMillis("soon", now));
+        assertEquals(-1, RateLimiter.parseRetryAfterMillis(null, now));
+    }
+
+    private static RateLimiter.Bucket bucket(double permitsPerSecond, int burst) {
+        return new RateLimiter.Bucket(new RateLimiter.Limit(permitsPerSecond, burst), T0);
+    }
+
+    private static long millis(long value) {
+        return TimeUnit.MILLISECONDS.toNanos(value);
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.caiyunweather.repository;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ForecastGridTest {
+    private final ForecastGrid grid = new ForecastGrid(ForecastGrid.DEFAULT_CELL_DEGREES);
+
+    @Test
+    public void coordinatesSnapToCellCenter() {
+        ForecastGrid.Cell cell = grid.cellFor(116.4074, 39.9042);
+
+        assertEquals("116.405", cell.getLongitude());
+        assertEquals("39.905", cell.getLatitude());
+        assertEquals("116.405,39.905", cell.getKey());
+    }
+
+    @Test
+    public void nearbyCoordinatesShareCell() {
+        assertEquals(grid.cellFor(116.4001, 39.9001).getKey(), grid.cellFor(116.4099, 39.9099).getKey());
+    }
+
+    @Test
+    public void neighbouringCellsDiffer() {
+        assertNotEquals(grid.cellFor(116.4099, 39.90).getKey(), grid.cellFor(116.4101, 39.90).getKey());
+    }
+
+    @Test
+    public void pointOnBoundaryBelongsToCellAbove() {
+        // 116.32 / 0.01 在二进制浮点下是11631.999…，必须按十进制落在[116.32, 116.33)
+        ForecastGrid.Cell cell = grid.cellFor(116.32, 31.33);
+
+        assertEquals("116.325", cell.getLongitude());
+        assertEquals("31.335", cell.getLatitude());
+    }
+
+    @Test
+    public void everyTwoDecimalCoordinateIsItsOwnCellOrigin() {
+        for (int i = -18000; i <= 18000; i++) {
+            double value = i / 100.0;
+            String expected = new BigDecimal(i).add(new BigDecimal("0.5"))
+                    .movePointLeft(2).setScale(3).toPlainString();
+
+            assertEquals("坐标 " + value, expected, grid.cellFor(value, 0).getLongitude());
+        }
+    }
+
+    @Test
+    public void negativeCoordinatesRoundDown() {
+        ForecastGrid.Cell cell = grid.cellFor(-0.001, -33.8688);
+
+        assertEquals("-0.005", cell.getLongitude());
+        assertEquals("-33.865", cell.getLatitude());
+    }
+
+    @Test
+    public void coarserGridUsesFewerDecimals() {
+        ForecastGrid coarse = new ForecastGrid(0.1);
+
+        assertEquals("116.45,39.95", coarse.cellFor(116.4074, 39.9042).getKey());
+        assertEquals("0.1", String.valueOf(coarse.getCellDegrees()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveCellIsRejected() {
+        new ForecastGrid(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nanCellIsRejected() {
+        new ForecastGrid(Double.NaN);
+    }
+}
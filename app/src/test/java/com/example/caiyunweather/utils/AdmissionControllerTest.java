@@ -0,0 +1,146 @@
+package com.example.caiyunweather.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControllerTest {
+    private static final long NEVER_SLOW = Long.MAX_VALUE;
+
+    @Test
+    public void requestsOverLimitAreRejectedWhenQueueIsFull() throws Exception {
+        AdmissionController controller = new AdmissionController(2, 1, 4, 0, 1000, NEVER_SLOW);
+
+        assertNotNull(controller.acquire());
+        assertNotNull(controller.acquire());
+        assertNull(controller.acquire());
+
+        assertEquals(2, controller.getInFlight());
+        assertEquals(1, controller.getRejectedCount());
+        assertEquals("队列已满不算排队超时", 0, controller.getQueueTimeoutCount());
+    }
+
+    @Test
+    public void queuedRequestTimesOut() throws Exception {
+        AdmissionController controller = new AdmissionController(1, 1, 1, 1, 100, NEVER_SLOW);
+        controller.acquire();
+        long start = System.nanoTime();
+
+        assertNull(controller.acquire());
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90);
+        assertEquals(1, controller.getQueueTimeoutCount());
+        assertEquals(1, controller.getRejectedCount());
+        assertEquals(0, controller.getQueueDepth());
+    }
+
+    @Test
+    public void queuedRequestIsAdmittedWhenPermitIsReleased() throws Exception {
+        AdmissionController controller = new AdmissionController(1, 1, 1, 1, 5000, NEVER_SLOW);
+        AdmissionController.Permit first = controller.acquire();
+
+        CompletableFuture<AdmissionController.Permit> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return controller.acquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        waitForQueueDepth(controller, 1);
+        first.release(AdmissionController.Outcome.SUCCESS);
+
+        assertNotNull(second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, controller.getInFlight());
+        assertEquals(0, controller.getQueueDepth());
+    }
+
+    @Test
+    public void successRaisesLimitAdditivelyUpToMax() throws Exception {
+        AdmissionController controller = new AdmissionController(4, 1, 5, 0, 0, NEVER_SLOW);
+
+        // 每次成功增加1/limit，约4次后达到5
+        for (int i = 0; i < 3; i++) {
+            controller.acquire().release(AdmissionController.Outcome.SUCCESS);
+        }
+        assertEquals(4, controller.getLimit());
+        for (int i = 0; i < 2; i++) {
+            controller.acquire().release(AdmissionController.Outcome.SUCCESS);
+        }
+        assertEquals(5, controller.getLimit());
+
+        for (int i = 0; i < 50; i++) {
+            controller.acquire().release(AdmissionController.Outcome.SUCCESS);
+        }
+        assertEquals(5, controller.getLimit());
+    }
+
+    @Test
+    public void droppedCallShrinksLimitDownToMin() throws Exception {
+        AdmissionController controller = new AdmissionController(10, 3, 10, 0, 0, NEVER_SLOW);
+
+        controller.acquire().release(AdmissionController.Outcome.DROPPED);
+        assertEquals(9, controller.getLimit());
+
+        for (int i = 0; i < 50; i++) {
+            controller.acquire().release(AdmissionController.Outcome.DROPPED);
+        }
+        assertEquals(3, controller.getLimit());
+    }
+
+    @Test
+    public void slowSuccessCountsAsOverload() throws Exception {
+        AdmissionController controller = new AdmissionController(10, 1, 10, 0, 0, -1);
+
+        controller.acquire().release(AdmissionController.Outcome.SUCCESS);
+
+        assertEquals(9, controller.getLimit());
+    }
+
+    @Test
+    public void ignoredOutcomeKeepsLimit() throws Exception {
+        AdmissionController controller = new AdmissionController(4, 1, 8, 0, 0, -1);
+
+        for (int i = 0; i < 10; i++) {
+            controller.acquire().release(AdmissionController.Outcome.IGNORED);
+        }
+
+        assertEquals(4, controller.getLimit());
+        assertEquals(0, controller.getInFlight());
+    }
+
+    @Test
+    public void permitIsReleasedOnlyOnce() throws Exception {
+        AdmissionController controller = new AdmissionController(2, 1, 2, 0, 0, NEVER_SLOW);
+        AdmissionController.Permit permit = controller.acquire();
+        controller.acquire();
+
+        permit.release(AdmissionController.Outcome.DROPPED);
+        permit.release(AdmissionController.Outcome.DROPPED);
+
+        assertEquals(1, controller.getInFlight());
+        assertEquals(1, controller.getLimit());
+    }
+
+    @Test
+    public void retryAfterIsAtLeastOneSecond() throws Exception {
+        AdmissionController controller = new AdmissionController(1, 1, 1, 0, 0, NEVER_SLOW);
+        assertEquals(1, controller.getRetryAfterSeconds());
+
+        controller.acquire();
+        assertEquals(1, controller.getRetryAfterSeconds());
+    }
+
+    private static void waitForQueueDepth(AdmissionController controller, int depth) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (controller.getQueueDepth() < depth) {
+            assertTrue("请求没有进入等待队列", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.caiyunweather.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncLimiterTest {
+
+    @Test
+    public void runningTasksNeverExceedLimit() {
+        AsyncLimiter limiter = new AsyncLimiter(2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<CompletableFuture<Integer>> gates = new ArrayList<>();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            CompletableFuture<Integer> gate = new CompletableFuture<>();
+            gates.add(gate);
+            results.add(limiter.submit(() -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                return gate.thenApply(value -> {
+                    running.decrementAndGet();
+                    return value;
+                });
+            }));
+        }
+
+        assertEquals(2, running.get());
+        for (int i = 0; i < gates.size(); i++) {
+            gates.get(i).complete(i);
+        }
+
+        assertEquals(2, peak.get());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(Integer.valueOf(i), results.get(i).join());
+        }
+    }
+
+    @Test
+    public void queuedTasksStartInSubmissionOrder() {
+        AsyncLimiter limiter = new AsyncLimiter(1);
+        CompletableFuture<Void> blocker = new CompletableFuture<>();
+        List<Integer> started = new ArrayList<>();
+        limiter.submit(() -> blocker);
+        for (int i = 0; i < 3; i++) {
+            int id = i;
+            limiter.submit(() -> {
+                started.add(id);
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+
+        assertTrue(started.isEmpty());
+        blocker.complete(null);
+
+        assertEquals(3, started.size());
+        assertEquals(Integer.valueOf(0), started.get(0));
+        assertEquals(Integer.valueOf(2), started.get(2));
+    }
+
+    /**
+     * 排队的任务同步完成时，release -> drain -> 启动下一个任务不能在同一调用栈上逐层递归
+     */
+    @Test
+    public void synchronouslyCompletingTasksDoNotRecurse() {
+        int tasks = 100000;
+        AsyncLimiter limiter = new AsyncLimiter(1);
+        CompletableFuture<Void> blocker = new CompletableFuture<>();
+        AtomicInteger completed = new AtomicInteger();
+        limiter.submit(() -> blocker);
+        for (int i = 0; i < tasks; i++) {
+            limiter.submit(() -> {
+                completed.incrementAndGet();
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+
+        blocker.complete(null);
+
+        assertEquals(tasks, completed.get());
+        assertTrue(limiter.toString(), limiter.toString().startsWith("进行中 0/1，排队 0"));
+    }
+
+    @Test
+    public void stackDepthStaysConstantWhileDraining() {
+        AsyncLimiter limiter = new AsyncLimiter(1);
+        CompletableFuture<Void> blocker = new CompletableFuture<>();
+        List<Integer> depths = new ArrayList<>();
+        limiter.submit(() -> blocker);
+        for (int i = 0; i < 50; i++) {
+            limiter.submit(() -> {
+                depths.add(Thread.currentThread().getStackTrace().length);
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+
+        blocker.complete(null);
+
+        assertEquals(50, depths.size());
+        assertEquals(depths.get(0), depths.get(depths.size() - 1));
+    }
+
+    @Test
+    public void failedTaskReleasesItsSlot() throws Exception {
+        AsyncLimiter limiter = new AsyncLimiter(1);
+        CompletableFuture<Object> failed = limiter.submit(() -> {
+            throw new IllegalStateException("启动失败");
+        });
+        CompletableFuture<String> next = limiter.submit(() -> CompletableFuture.completedFuture("ok"));
+
+        try {
+            failed.get();
+            fail("启动失败的任务应当以异常结束");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals("ok", next.get());
+    }
+
+    @Test
+    public void raisingLimitStartsQueuedTasks() {
+        AsyncLimiter limiter = new AsyncLimiter(1);
+        limiter.submit(CompletableFuture::new);
+        CompletableFuture<Object> gate = new CompletableFuture<>();
+        AtomicInteger started = new AtomicInteger();
+        limiter.submit(() -> {
+            started.incrementAndGet();
+            return gate;
+        });
+        assertEquals(0, started.get());
+
+        limiter.setMaxConcurrent(2);
+
+        assertEquals(1, started.get());
+        assertTrue(limiter.toString(), limiter.toString().startsWith("进行中 2/2，排队 0"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveLimitIsRejected() {
+        new AsyncLimiter(0);
+    }
+}
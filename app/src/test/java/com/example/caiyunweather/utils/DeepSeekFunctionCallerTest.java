@@ -0,0 +1,106 @@
+package com.example.caiyunweather.utils;
+
+import com.example.caiyunweather.model.HourlyForecast;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 流式响应在读取中途连接中断：工具调用发出之前按错误处理，发出之后由工具调用交付结果
+ * MCP模式在当前线程回调，测试不需要主线程
+ */
+public class DeepSeekFunctionCallerTest {
+    private final List<String> events = new ArrayList<>();
+    private final DeepSeekFunctionCaller.WeatherCallback callback = new DeepSeekFunctionCaller.WeatherCallback() {
+        @Override
+        public void onForecast(HourlyForecast forecast) {
+            events.add("forecast");
+        }
+
+        @Override
+        public void onText(String content) {
+            events.add("text");
+        }
+
+        @Override
+        public void onError(String error) {
+            events.add("error");
+        }
+    };
+
+    @Test
+    public void streamErrorAfterToolCallIsIgnored() throws IOException {
+        // 缺少location参数的工具调用直接以错误交付，之后流被重置
+        Response response = failingStream("data: {\"choices\":[{\"index\":0,\"delta\":{\"tool_calls\":[{\"index\":0,"
+                + "\"function\":{\"name\":\"get_weather_forecast\",\"arguments\":\"{}\"}}]},\"finish_reason\":null}]}\n\n");
+
+        DeepSeekFunctionCaller.handleStreamingResponse(response, true, callback, null, new AtomicBoolean(false));
+
+        assertEquals("工具调用的结果只交付一次", 1, events.size());
+    }
+
+    @Test
+    public void streamErrorBeforeToolCallIsReported() {
+        AtomicBoolean delivered = new AtomicBoolean(false);
+        Response response = failingStream("data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"今天\"},"
+                + "\"finish_reason\":null}]}\n\n");
+
+        try {
+            DeepSeekFunctionCaller.handleStreamingResponse(response, true, callback, null, delivered);
+            fail("工具调用之前的读取错误应当抛出");
+        } catch (IOException expected) {
+            assertTrue(delivered.get());
+        }
+    }
+
+    /**
+     * 先返回给定的事件，随后读取时抛出连接重置
+     */
+    private static Response failingStream(String events) {
+        Buffer buffer = new Buffer().writeUtf8(events);
+        Source source = new Source() {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                if (buffer.exhausted()) {
+                    throw new SocketException("Connection reset");
+                }
+                return buffer.read(sink, byteCount);
+            }
+
+            @Override
+            public Timeout timeout() {
+                return Timeout.NONE;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        return new Response.Builder()
+                .request(new Request.Builder().url("http://127.0.0.1/chat/completions").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(Okio.buffer(source), MediaType.get("text/event-stream"), -1))
+                .build();
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.caiyunweather.utils;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.MalformedJsonException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 用本地的SSE模拟服务器（MockWebServer）测试DeepSeekStreamParser：
+ * 事件按小块分段发送，覆盖文本增量、分段的工具调用参数、[DONE]和被截断的流
+ */
+public class DeepSeekStreamParserTest {
+    private MockWebServer server;
+    private OkHttpClient client;
+    private final RecordingListener listener = new RecordingListener();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient.Builder().readTimeout(5, TimeUnit.SECONDS).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void textDeltasAreDeliveredInOrder() throws IOException {
+        enqueueStream(
+                contentEvent("今天"),
+                contentEvent("北京"),
+                contentEvent("晴"),
+                "data: [DONE]\n\n");
+
+        parse();
+
+        assertEquals(listOf("今天", "北京", "晴"), listener.deltas);
+        assertEquals("今天北京晴", listener.completedContent);
+        assertFalse(listener.toolCalled);
+        assertTrue(listener.toolCalls.isEmpty());
+    }
+
+    @Test
+    public void splitToolCallArgumentsAreDispatchedOnceComplete() throws IOException {
+        enqueueStream(
+                toolCallEvent("get_weather_forecast", "{\\\"loc"),
+                toolCallEvent(null, "ation\\\": \\\"杭"),
+                toolCallEvent(null, "州 {西湖}\\\"}"),
+                // 参数完整后仍有后续事件，工具调用不等待它们
+                ": keep-alive\n\n",
+                "data: {\"choices\":[{\"delta\":{},\"finish_reason\":\"tool_calls\"}]}\n\n",
+                "data: [DONE]\n\n");
+
+        parse();
+
+        assertEquals(1, listener.toolCalls.size());
+        assertEquals("get_weather_forecast", listener.toolNames.get(0));
+        assertEquals("杭州 {西湖}", listener.toolCalls.get(0).get("location").getAsString());
+        assertTrue(listener.toolCalled);
+        assertEquals(1, listener.completions);
+    }
+
+    @Test
+    public void doneEndsParsingWithoutReadingFurther() throws IOException {
+        enqueueStream(
+                contentEvent("好"),
+                "data: [DONE]\n\n",
+                contentEvent("不应读取"));
+
+        parse();
+
+        assertEquals(listOf("好"), listener.deltas);
+        assertEquals("好", listener.completedContent);
+    }
+
+    @Test
+    public void truncatedToolCallIsNotDispatched() throws IOException {
+        // 连接在参数中途关闭，没有[DONE]
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody(toolCallEvent("get_weather_forecast", "{\\\"location\\\": \\\"杭"))
+                .removeHeader("Content-Length")
+                .setSocketPolicy(SocketPolicy.DISCONNECT_AT_END));
+
+        try {
+            parse();
+            fail("被截断的流应当以异常结束");
+        } catch (EOFException expected) {
+            // 预期的异常
+        }
+        assertTrue(listener.toolCalls.isEmpty());
+        assertEquals(0, listener.completions);
+    }
+
+    @Test
+    public void incompleteToolCallAtDoneIsReported() throws IOException {
+        enqueueStream(
+                toolCallEvent("get_weather_forecast", "{\\\"location\\\": \\\"杭"),
+                "data: [DONE]\n\n");
+
+        try {
+            parse();
+            fail("参数不完整的工具调用应当报告为错误");
+        } catch (MalformedJsonException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("get_weather_forecast"));
+        }
+        assertTrue(listener.toolCalls.isEmpty());
+    }
+
+    @Test
+    public void invalidToolCallArgumentsAreReported() throws IOException {
+        enqueueStream(
+                toolCallEvent("get_weather_forecast", "{location: }"),
+                "data: [DONE]\n\n");
+
+        try {
+            parse();
+            fail("不是合法JSON的参数应当报告为错误");
+        } catch (MalformedJsonException expected) {
+            // 预期的异常
+        }
+        assertTrue(listener.toolCalls.isEmpty());
+    }
+
+    @Test
+    public void truncatedTextStreamIsReported() throws IOException {
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody(contentEvent("今天") + contentEvent("北京"))
+                .removeHeader("Content-Length")
+                .setSocketPolicy(SocketPolicy.DISCONNECT_AT_END));
+
+        try {
+            parse();
+            fail("没有结束标记的流应当以异常结束");
+        } catch (EOFException expected) {
+            // 预期的异常
+        }
+        assertEquals(listOf("今天", "北京"), listener.deltas);
+        assertEquals(0, listener.completions);
+    }
+
+    @Test
+    public void truncationAfterDispatchedToolCallCompletes() throws IOException {
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody(toolCallEvent("get_weather_forecast", "{\\\"location\\\": \\\"上海\\\"}"))
+                .removeHeader("Content-Length")
+                .setSocketPolicy(SocketPolicy.DISCONNECT_AT_END));
+
+        parse();
+
+        assertEquals("上海", listener.toolCalls.get(0).get("location").getAsString());
+        assertEquals(1, listener.completions);
+    }
+
+    /**
+     * 分块发送事件流，每块只有几个字节，事件和UTF-8字符都会被拆开
+     */
+    private void enqueueStream(String... events) {
+        StringBuilder body = new StringBuilder();
+        for (String event : events) {
+            body.append(event);
+        }
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setChunkedBody(body.toString(), 7));
+    }
+
+    private void parse() throws IOException {
+        Request request = new Request.Builder().url(server.url("/chat/completions")).build();
+        try (Response response = client.newCall(request).execute()) {
+            new DeepSeekStreamParser(listener).parse(response.body().source());
+        }
+    }
+
+    private static String contentEvent(String text) {
+        return "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + text + "\"},\"finish_reason\":null}]}\n\n";
+    }
+
+    /**
+     * @param arguments 已按JSON字符串转义的参数片段
+     */
+    private static String toolCallEvent(String name, String arguments) {
+        String function = (name != null ? "\"name\":\"" + name + "\"," : "") + "\"arguments\":\"" + arguments + "\"";
+        return "data: {\"choices\":[{\"index\":0,\"delta\":{\"tool_calls\":[{\"index\":0,\"function\":{"
+                + function + "}}]},\"finish_reason\":null}]}\n\n";
+    }
+
+    private static List<String> listOf(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static class RecordingListener implements DeepSeekStreamParser.Listener {
+        final List<String> deltas = new ArrayList<>();
+        final List<String> toolNames = new ArrayList<>();
+        final List<JsonObject> toolCalls = new ArrayList<>();
+        String completedContent;
+        boolean toolCalled;
+        int completions;
+
+        @Override
+        public void onContentDelta(String delta) {
+            deltas.add(delta);
+        }
+
+        @Override
+        public void onToolCall(String name, JsonObject arguments) {
+            toolNames.add(name);
+            toolCalls.add(arguments);
+        }
+
+        @Override
+        public void onComplete(String content, boolean toolCalled) {
+            completedContent = content;
+            this.toolCalled = toolCalled;
+            completions++;
+        }
+    }
+}
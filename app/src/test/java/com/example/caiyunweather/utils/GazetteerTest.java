@@ -0,0 +1,119 @@
+package com.example.caiyunweather.utils;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 使用应用内置的gazetteer.bin，单元测试的工作目录是app模块目录
+ */
+public class GazetteerTest {
+    private static final String ASSET = "src/main/assets/" + Gazetteer.ASSET_NAME;
+    private static final String SOURCE = "../tools/gazetteer/places.csv";
+
+    private static Gazetteer gazetteer;
+
+    @BeforeClass
+    public static void load() throws IOException {
+        try (InputStream input = new FileInputStream(ASSET)) {
+            gazetteer = Gazetteer.load(input);
+        }
+    }
+
+    @Test
+    public void assetMatchesSource() throws IOException {
+        int places = 0;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(SOURCE), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    places++;
+                }
+            }
+        }
+        assertEquals("修改places.csv后需要重新生成gazetteer.bin", places, gazetteer.size());
+    }
+
+    @Test
+    public void exactHanziMatch() {
+        int place = gazetteer.findExact("杭州");
+
+        assertEquals("杭州", gazetteer.getName(place));
+        assertEquals(120.1551, gazetteer.getLongitude(place), 1e-5);
+        assertEquals(30.2741, gazetteer.getLatitude(place), 1e-5);
+        assertEquals(1, gazetteer.getLevel(place));
+        assertEquals("别名某某市", place, gazetteer.findExact("杭州市"));
+        assertEquals("忽略首尾空格", place, gazetteer.find("  杭州 "));
+    }
+
+    @Test
+    public void pinyinIgnoresCaseSpacesAndApostrophes() {
+        assertEquals("杭州", name("HangZhou"));
+        assertEquals("杭州", name("hang zhou"));
+        assertEquals("西安", name("Xi'an"));
+        assertEquals("乌鲁木齐", name("wulumuqi"));
+    }
+
+    @Test
+    public void sharedPinyinResolvesToOnePlace() {
+        String name = name("taizhou");
+
+        assertTrue(name, "泰州".equals(name) || "台州".equals(name));
+    }
+
+    @Test
+    public void longestIndexedPrefixOfQueryWins() {
+        assertEquals("杭州", name("杭州西湖"));
+        // "西安市"比"西安"更长
+        assertEquals("西安", name("西安市雁塔区"));
+        assertEquals("张家界", name("张家界天门山"));
+        assertEquals("西安", name("xian yanta"));
+    }
+
+    @Test
+    public void queryPrefixPrefersHigherLevel() {
+        assertEquals("乌鲁木齐", name("乌鲁"));
+        // beihai排在beijing之前，但北京是直辖市
+        assertEquals("北京", name("bei"));
+        assertEquals("成都", name("chen"));
+        assertEquals("兰州", name("lan"));
+    }
+
+    @Test
+    public void exactOnlySkipsPrefixMatching() {
+        assertEquals(-1, gazetteer.findExact("杭州西湖"));
+        assertEquals(-1, gazetteer.findExact("乌鲁"));
+        assertEquals(-1, gazetteer.findExact("bei"));
+    }
+
+    @Test
+    public void unknownOrTooShortQueriesAreNotFound() {
+        assertEquals(-1, gazetteer.find("纽约"));
+        assertEquals(-1, gazetteer.find("newyork"));
+        assertEquals("单字不做前缀匹配", -1, gazetteer.find("杭"));
+        assertEquals(-1, gazetteer.find("h"));
+        assertEquals(-1, gazetteer.find("   "));
+        assertEquals(-1, gazetteer.find(null));
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidDataIsRejected() throws IOException {
+        Gazetteer.load(new ByteArrayInputStream(new byte[32]));
+    }
+
+    private static String name(String query) {
+        int place = gazetteer.find(query);
+        return place == -1 ? null : gazetteer.getName(place);
+    }
+}
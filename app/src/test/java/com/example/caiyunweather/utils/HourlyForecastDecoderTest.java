@@ -0,0 +1,250 @@
+package com.example.caiyunweather.utils;
+
+import com.example.caiyunweather.model.HourlyForecast;
+import com.example.caiyunweather.model.HourlyWeather;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.MalformedJsonException;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * HourlyForecastDecoder与原来的Gson对象树解析对比：结果逐行一致，并比较耗时和内存分配
+ * 样本caiyun/weather_full.json是完整的彩云天气v2.5响应（realtime、minutely、48小时hourly、5天daily）
+ */
+public class HourlyForecastDecoderTest {
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int MEASURED_ROUNDS = 500;
+
+    private static byte[] fullResponse;
+
+    @BeforeClass
+    public static void loadFixture() throws IOException {
+        fullResponse = readResource("caiyun/weather_full.json");
+    }
+
+    @Test
+    public void decodeMatchesTreePath() throws IOException {
+        List<HourlyWeather> expected = decodeWithTree(fullResponse);
+        List<HourlyWeather> actual = HourlyForecastDecoder.decode(fullResponse).getHourly();
+
+        assertEquals(HourlyForecastDecoder.MAX_HOURS, expected.size());
+        assertRowsEqual(expected, actual);
+    }
+
+    @Test
+    public void decodeMcpEnvelopeMatchesTreePath() throws IOException {
+        String mcpResponse = "{\"jsonrpc\":\"2.0\",\"id\":3,\"result\":{\"status\":\"success\",\"data\":"
+                + new String(fullResponse, StandardCharsets.UTF_8) + "}}";
+
+        assertRowsEqual(decodeWithTree(fullResponse), HourlyForecastDecoder.decode(mcpResponse).getHourly());
+    }
+
+    @Test
+    public void decodeJsonElementMatchesTreePath() throws IOException {
+        JsonElement tree = new Gson().fromJson(new String(fullResponse, StandardCharsets.UTF_8), JsonElement.class);
+
+        assertRowsEqual(decodeWithTree(fullResponse), HourlyForecastDecoder.decode(tree).getHourly());
+    }
+
+    @Test
+    public void decodeKeepsRawBytes() throws IOException {
+        HourlyForecast forecast = HourlyForecastDecoder.decode(fullResponse);
+
+        assertEquals(new String(fullResponse, StandardCharsets.UTF_8), forecast.getRawJson());
+    }
+
+    @Test
+    public void upstreamErrorStatusIsRejected() throws IOException {
+        try {
+            HourlyForecastDecoder.decode("{\"status\":\"failed\",\"error\":\"'token is invalid'\",\"api_version\":\"v2.5\"}");
+            fail("错误响应不应解析为预报");
+        } catch (MalformedJsonException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("failed"));
+        }
+    }
+
+    @Test
+    public void hourlyErrorStatusIsRejected() throws IOException {
+        try {
+            HourlyForecastDecoder.decode("{\"status\":\"ok\",\"result\":{\"hourly\":{\"status\":\"failed\","
+                    + "\"temperature\":[],\"skycon\":[]}}}");
+            fail("逐小时数据的错误状态不应解析为空预报");
+        } catch (MalformedJsonException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("failed"));
+        }
+    }
+
+    @Test
+    public void missingHourlyIsRejected() throws IOException {
+        try {
+            HourlyForecastDecoder.decode("{\"status\":\"ok\",\"result\":{\"realtime\":{\"temperature\":20}}}");
+            fail("没有逐小时数据时应当报错");
+        } catch (MalformedJsonException expected) {
+            // 预期的异常
+        }
+    }
+
+    @Test
+    public void jsonRpcErrorIsReported() throws IOException {
+        try {
+            HourlyForecastDecoder.decode("{\"jsonrpc\":\"2.0\",\"id\":1,\"error\":{\"code\":-32003,"
+                    + "\"message\":\"Server overloaded\",\"data\":{\"retryAfter\":2}}}");
+            fail("JSON-RPC错误应当以异常报告");
+        } catch (McpErrorException e) {
+            assertEquals(McpErrorException.SERVER_OVERLOADED, e.getCode());
+            assertEquals(2000, e.getRetryAfterMillis());
+        }
+    }
+
+    @Test
+    public void responseIdAtEndOfEnvelopeIsChecked() throws IOException {
+        // 拼接的响应把id放在信封末尾，在逐小时数据之后
+        byte[] response = ("{\"result\":{\"status\":\"success\",\"data\":"
+                + new String(fullResponse, StandardCharsets.UTF_8) + "},\"jsonrpc\":\"2.0\",\"id\":7}")
+                .getBytes(StandardCharsets.UTF_8);
+
+        assertRowsEqual(decodeWithTree(fullResponse), HourlyForecastDecoder.decodeResponse(response, 7).getHourly());
+        try {
+            HourlyForecastDecoder.decodeResponse(response, 8);
+            fail("响应id不匹配时不应解析为预报");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("id"));
+        }
+    }
+
+    @Test
+    public void responseIdOfJsonElementIsChecked() throws IOException {
+        JsonObject response = new JsonObject();
+        response.add("result", new Gson().fromJson(new String(fullResponse, StandardCharsets.UTF_8), JsonElement.class));
+        response.addProperty("id", 7);
+
+        assertRowsEqual(decodeWithTree(fullResponse), HourlyForecastDecoder.decodeResponse(response, 7).getHourly());
+        try {
+            HourlyForecastDecoder.decodeResponse(response, 8);
+            fail("响应id不匹配时不应解析为预报");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("id"));
+        }
+    }
+
+    /**
+     * 耗时和内存分配对比，结果输出到测试日志；只断言流式解析分配的内存少于对象树解析
+     */
+    @Test
+    public void streamingAllocatesLessThanTreePath() throws IOException {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        Assume.assumeTrue("JVM不支持按线程统计内存分配", threads != null);
+        long thread = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            decodeWithTree(fullResponse);
+            HourlyForecastDecoder.decode(fullResponse);
+        }
+
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            decodeWithTree(fullResponse);
+        }
+        long treeNanos = System.nanoTime() - startNanos;
+        long treeBytes = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        startNanos = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            HourlyForecastDecoder.decode(fullResponse);
+        }
+        long streamNanos = System.nanoTime() - startNanos;
+        long streamBytes = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        System.out.println(String.format(Locale.US,
+                "weather.json %d 字节：对象树 %.1f µs / %d 字节，流式 %.1f µs / %d 字节（每次解析）",
+                fullResponse.length,
+                treeNanos / 1000.0 / MEASURED_ROUNDS, treeBytes / MEASURED_ROUNDS,
+                streamNanos / 1000.0 / MEASURED_ROUNDS, streamBytes / MEASURED_ROUNDS));
+        assertTrue("流式解析分配 " + streamBytes + " 字节，对象树 " + treeBytes + " 字节", streamBytes < treeBytes);
+    }
+
+    /**
+     * 原来MainActivity.parseWeatherData的解析方式：先转成字符串，再构建完整的JsonElement树
+     */
+    private static List<HourlyWeather> decodeWithTree(byte[] body) {
+        JsonObject response = new Gson().fromJson(new String(body, StandardCharsets.UTF_8), JsonElement.class)
+                .getAsJsonObject();
+        if (!"ok".equals(response.get("status").getAsString())) {
+            throw new IllegalStateException("status: " + response.get("status"));
+        }
+        JsonObject hourly = response.getAsJsonObject("result").getAsJsonObject("hourly");
+        JsonArray temperatures = hourly.getAsJsonArray("temperature");
+        JsonArray skycons = hourly.getAsJsonArray("skycon");
+        int count = Math.min(24, Math.min(temperatures.size(), skycons.size()));
+        List<HourlyWeather> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double temperature = temperatures.get(i).getAsJsonObject().get("value").getAsDouble();
+            JsonObject skycon = skycons.get(i).getAsJsonObject();
+            String[] parts = skycon.get("datetime").getAsString().split("T");
+            String time = parts.length > 1 && parts[1].split(":").length > 1 ? parts[1].split(":")[0] + ":00" : "未知时间";
+            String weatherValue = skycon.get("value").getAsString();
+            rows.add(new HourlyWeather(time, temperature, HourlyForecastDecoder.getWeatherDescription(weatherValue),
+                    weatherValue, 60.0, 1013.0, 5.0));
+        }
+        return rows;
+    }
+
+    private static void assertRowsEqual(List<HourlyWeather> expected, List<HourlyWeather> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            HourlyWeather e = expected.get(i);
+            HourlyWeather a = actual.get(i);
+            assertEquals("第 " + i + " 行时间", e.getTime(), a.getTime());
+            assertEquals("第 " + i + " 行温度", e.getTemperature(), a.getTemperature(), 0.0);
+            assertEquals("第 " + i + " 行天气", e.getWeather(), a.getWeather());
+            assertEquals("第 " + i + " 行图标", e.getWeatherIcon(), a.getWeatherIcon());
+            assertEquals(e.getHumidity(), a.getHumidity(), 0.0);
+            assertEquals(e.getPressure(), a.getPressure(), 0.0);
+            assertEquals(e.getWindSpeed(), a.getWindSpeed(), 0.0);
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        return threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled() ? threads : null;
+    }
+
+    static byte[] readResource(String name) throws IOException {
+        try (InputStream in = HourlyForecastDecoderTest.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("缺少测试资源: " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
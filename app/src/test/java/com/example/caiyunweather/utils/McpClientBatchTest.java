@@ -0,0 +1,131 @@
+package com.example.caiyunweather.utils;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 批量请求的成员只在发送时登记为进行中，发送失败和完成后都从pending中移除
+ */
+public class McpClientBatchTest {
+    private final McpClient client = McpClient.getInstance();
+    private final ManualTransport transport = new ManualTransport();
+
+    @Before
+    public void setUp() {
+        client.setTransport(transport);
+    }
+
+    @After
+    public void tearDown() {
+        client.setTransport(new InProcessMcpTransport(McpServer.getInstance()));
+    }
+
+    @Test
+    public void unsentBatchIsNotPending() {
+        McpClient.Batch batch = client.newBatch();
+        batch.listTools();
+        batch.callTool("get_weather_forecast", new JsonObject());
+
+        assertEquals(0, client.getPendingCount());
+    }
+
+    @Test
+    public void membersArePendingUntilResponsesArrive() throws Exception {
+        McpClient.Batch batch = client.newBatch();
+        CompletableFuture<JsonObject> tools = batch.listTools();
+        CompletableFuture<JsonObject> init = batch.initialize();
+        CompletableFuture<Void> sent = batch.send();
+
+        assertEquals(2, client.getPendingCount());
+        JsonArray responses = new JsonArray();
+        for (JsonElement request : transport.request.getAsJsonArray()) {
+            JsonObject response = new JsonObject();
+            response.add("id", request.getAsJsonObject().get("id"));
+            response.add("result", new JsonObject());
+            responses.add(response);
+        }
+        transport.complete(responses);
+
+        sent.get();
+        assertTrue(tools.isDone() && init.isDone());
+        assertEquals(0, client.getPendingCount());
+    }
+
+    @Test
+    public void failedSendReleasesMembers() {
+        transport.failOnSend = true;
+        McpClient.Batch batch = client.newBatch();
+        CompletableFuture<JsonObject> tools = batch.listTools();
+
+        try {
+            batch.send();
+            fail("传输抛出的异常应当传给调用方");
+        } catch (IllegalStateException expected) {
+            // 预期的异常
+        }
+
+        assertEquals(0, client.getPendingCount());
+        assertTrue(tools.isCompletedExceptionally());
+    }
+
+    @Test
+    public void transportErrorFailsMembers() throws Exception {
+        McpClient.Batch batch = client.newBatch();
+        CompletableFuture<JsonObject> tools = batch.listTools();
+        batch.send();
+
+        transport.future.completeExceptionally(new IOException("连接中断"));
+
+        assertEquals(0, client.getPendingCount());
+        try {
+            tools.get();
+            fail("批量请求失败时成员应当失败");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    /**
+     * 记录请求，由测试决定何时、以什么结果完成
+     */
+    private static class ManualTransport implements McpTransport {
+        boolean failOnSend;
+        JsonElement request;
+        CompletableFuture<Object> future;
+        ResponseHandler<?> handler;
+
+        @Override
+        public String getName() {
+            return "manual";
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> CompletableFuture<T> send(JsonElement request, long deadlineMillis, ResponseHandler<T> handler) {
+            if (failOnSend) {
+                throw new IllegalStateException("传输不可用");
+            }
+            this.request = request;
+            this.handler = handler;
+            future = new CompletableFuture<>();
+            return (CompletableFuture<T>) future;
+        }
+
+        void complete(JsonElement response) throws IOException {
+            future.complete(handler.fromJson(response));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.caiyunweather.utils;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class McpRequestReaderTest {
+
+    @Test
+    public void singleRequestKeepsOnlyDispatchFields() throws IOException {
+        JsonObject request = read("{\"jsonrpc\":\"2.0\",\"id\":7,\"method\":\"tools/call\",\"meta\":{\"trace\":[1,2,3]},"
+                + "\"params\":{\"name\":\"get_weather_forecast\",\"arguments\":{\"location\":\"杭州\"}}}").getAsJsonObject();
+
+        assertEquals(3, request.size());
+        assertEquals(7, request.get("id").getAsInt());
+        assertEquals("tools/call", request.get("method").getAsString());
+        assertEquals("杭州", request.getAsJsonObject("params").getAsJsonObject("arguments").get("location").getAsString());
+        assertFalse(request.has("jsonrpc"));
+    }
+
+    @Test
+    public void batchIsReadAsArray() throws IOException {
+        JsonArray batch = read("[{\"id\":1,\"method\":\"initialize\"},{\"id\":\"b\",\"method\":\"tools/list\"},"
+                + "{\"method\":\"notifications/initialized\"}]").getAsJsonArray();
+
+        assertEquals(3, batch.size());
+        assertEquals("b", batch.get(1).getAsJsonObject().get("id").getAsString());
+        assertFalse(batch.get(2).getAsJsonObject().has("id"));
+    }
+
+    @Test
+    public void nonObjectBatchElementIsKeptForDispatcher() throws IOException {
+        JsonArray batch = read("[1,{\"id\":2,\"method\":\"tools/list\"}]").getAsJsonArray();
+
+        assertTrue(batch.get(0).isJsonPrimitive());
+        assertEquals(1, batch.get(0).getAsInt());
+    }
+
+    @Test
+    public void readsExactlyContentLengthBytes() throws IOException {
+        String first = "{\"id\":1,\"method\":\"tools/list\"}";
+        String second = "{\"id\":2,\"method\":\"tools/list\"}";
+        InputStream in = new ByteArrayInputStream((first + second).getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(1, McpRequestReader.read(in, first.length()).getAsJsonObject().get("id").getAsInt());
+        assertEquals(2, McpRequestReader.read(in, second.length()).getAsJsonObject().get("id").getAsInt());
+    }
+
+    @Test
+    public void multiByteCharactersAcrossReadsAreDecoded() throws IOException {
+        byte[] body = "{\"id\":1,\"method\":\"tools/call\",\"params\":{\"location\":\"乌鲁木齐 🌧\"}}"
+                .getBytes(StandardCharsets.UTF_8);
+        // 每次只返回一个字节，多字节字符被拆到多次读取中
+        InputStream trickle = new ByteArrayInputStream(body) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+
+        JsonObject request = McpRequestReader.read(trickle, body.length).getAsJsonObject();
+
+        assertEquals("乌鲁木齐 🌧", request.getAsJsonObject("params").get("location").getAsString());
+    }
+
+    @Test
+    public void bufferGrowsForLargeBodiesAndStillReadsSmallOnes() throws IOException {
+        StringBuilder location = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            location.append("北京");
+        }
+        JsonObject large = read("{\"id\":1,\"method\":\"tools/call\",\"params\":{\"location\":\"" + location + "\"}}")
+                .getAsJsonObject();
+        JsonObject small = read("{\"id\":2,\"method\":\"tools/list\"}").getAsJsonObject();
+
+        assertEquals(location.toString(), large.getAsJsonObject("params").get("location").getAsString());
+        assertEquals(2, small.get("id").getAsInt());
+        assertFalse(small.has("params"));
+    }
+
+    @Test
+    public void truncatedBodyIsEof() throws IOException {
+        byte[] body = "{\"id\":1}".getBytes(StandardCharsets.UTF_8);
+        try {
+            McpRequestReader.read(new ByteArrayInputStream(body), body.length + 10);
+            fail("连接提前结束时应当报错");
+        } catch (EOFException expected) {
+            // 预期的异常
+        }
+    }
+
+    @Test
+    public void invalidJsonIsParseError() throws IOException {
+        for (String body : new String[]{"", "{\"id\":1,", "{\"id\":}", "not json"}) {
+            try {
+                read(body);
+                fail("不是合法JSON的请求体应当报错: " + body);
+            } catch (JsonParseException expected) {
+                // 预期的异常
+            }
+        }
+    }
+
+    @Test
+    public void trailingContentIsParseError() throws IOException {
+        try {
+            read("{\"id\":1,\"method\":\"tools/list\"}{\"id\":2}");
+            fail("请求体末尾的多余内容应当报错");
+        } catch (JsonParseException expected) {
+            // 预期的异常
+        }
+    }
+
+    private static JsonElement read(String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        return McpRequestReader.read(new ByteArrayInputStream(bytes), bytes.length);
+    }
+}
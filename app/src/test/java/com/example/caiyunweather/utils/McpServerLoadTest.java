@@ -0,0 +1,271 @@
+package com.example.caiyunweather.utils;
+
+import com.example.caiyunweather.api.WeatherService;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * McpServer的回环压测：多个客户端并发发送tools/call，输出吞吐量和延迟分位数
+ * tools/call使用未知地名，只经过请求读取、准入控制和参数校验，不访问彩云天气API
+ * 调整CLIENTS和CALLS_PER_CLIENT即可复现不同的负载；多城市预报的准入测试使用不响应的模拟彩云天气服务器
+ */
+public class McpServerLoadTest {
+    private static final int CLIENTS = 8;
+    private static final int WARMUP_CALLS_PER_CLIENT = 250;
+    private static final int CALLS_PER_CLIENT = 1000;
+    private static final MediaType JSON = MediaType.get("application/json");
+
+    private static McpServer server;
+    private static OkHttpClient client;
+    private static String url;
+
+    @BeforeClass
+    public static void startServer() {
+        server = new McpServer(0);
+        server.startServer();
+        url = "http://127.0.0.1:" + server.getListeningPort();
+        client = new OkHttpClient.Builder().readTimeout(10, TimeUnit.SECONDS).build();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stopServer();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    @Test
+    public void concurrentToolCallsAllGetResponses() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        CountDownLatch ready = new CountDownLatch(CLIENTS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> results = new ArrayList<>();
+        try {
+            for (int c = 0; c < CLIENTS; c++) {
+                int clientId = c;
+                results.add(clients.submit((Callable<long[]>) () -> {
+                    for (int i = 0; i < WARMUP_CALLS_PER_CLIENT; i++) {
+                        call(-1 - i);
+                    }
+                    ready.countDown();
+                    start.await();
+                    long[] nanos = new long[CALLS_PER_CLIENT];
+                    for (int i = 0; i < CALLS_PER_CLIENT; i++) {
+                        int id = clientId * CALLS_PER_CLIENT + i;
+                        long begin = System.nanoTime();
+                        JsonObject response = call(id);
+                        nanos[i] = System.nanoTime() - begin;
+                        assertEquals(id, response.get("id").getAsInt());
+                        assertEquals(-32602, response.getAsJsonObject("error").get("code").getAsInt());
+                    }
+                    return nanos;
+                }));
+            }
+            // 预热后同时开始计时
+            assertTrue(ready.await(60, TimeUnit.SECONDS));
+            long startNanos = System.nanoTime();
+            start.countDown();
+            long[] all = new long[CLIENTS * CALLS_PER_CLIENT];
+            for (int c = 0; c < CLIENTS; c++) {
+                System.arraycopy(results.get(c).get(60, TimeUnit.SECONDS), 0, all, c * CALLS_PER_CLIENT, CALLS_PER_CLIENT);
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            Arrays.sort(all);
+
+            System.out.println(String.format(Locale.US,
+                    "%d个客户端 × %d次tools/call：%.0f 请求/秒，p50 %.1f µs，p99 %.1f µs，最大 %.1f µs",
+                    CLIENTS, CALLS_PER_CLIENT, all.length * 1e9 / elapsedNanos,
+                    all[all.length / 2] / 1000.0, all[all.length * 99 / 100] / 1000.0, all[all.length - 1] / 1000.0));
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void saturatedBatchCallsAreRejected() throws Exception {
+        MockWebServer caiyun = startCaiyun(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                // 上游一直不响应，多城市预报的结果迟迟不能完成
+                return new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE);
+            }
+        });
+        McpServer batchServer = new McpServer(0);
+        batchServer.configureWorkers(16, 16);
+        batchServer.startServer();
+        String batchUrl = "http://127.0.0.1:" + batchServer.getListeningPort();
+        AdmissionController admission = batchServer.getAdmissionController();
+        List<Response> streaming = new ArrayList<>();
+        try {
+            // 占满并发上限：响应头已返回，但各位置的预报仍在等待上游
+            String[] cities = {"北京", "上海", "天津", "重庆", "杭州", "南京", "西安", "成都"};
+            assertEquals(cities.length, admission.getLimit());
+            for (int i = 0; i < cities.length; i++) {
+                streaming.add(client.newCall(batchRequest(batchUrl, i, cities[i])).execute());
+            }
+            assertEquals("多城市预报在上游完成前一直占用许可", cities.length, admission.getInFlight());
+
+            try (Response response = client.newCall(batchRequest(batchUrl, 100, "广州")).execute()) {
+                JsonObject body = new JsonParser().parse(response.body().string()).getAsJsonObject();
+                assertEquals(-32003, body.getAsJsonObject("error").get("code").getAsInt());
+                assertTrue(response.header("Retry-After") != null);
+            }
+            assertEquals(1, admission.getRejectedCount());
+        } finally {
+            for (Response response : streaming) {
+                response.close();
+            }
+            batchServer.stopServer();
+            stopCaiyun(caiyun);
+        }
+    }
+
+    @Test
+    public void forecastWaitingForUpstreamDoesNotBlockHandler() throws Exception {
+        CountDownLatch upstreamReleased = new CountDownLatch(1);
+        byte[] weather = HourlyForecastDecoderTest.readResource("caiyun/weather_full.json");
+        MockWebServer caiyun = startCaiyun(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                upstreamReleased.await(10, TimeUnit.SECONDS);
+                return new MockResponse().setBody(new Buffer().write(weather));
+            }
+        });
+        McpServer forecastServer = new McpServer(0);
+        forecastServer.startServer();
+        ExecutorService handler = Executors.newSingleThreadExecutor();
+        try {
+            String body = "{\"jsonrpc\":\"2.0\",\"id\":7,\"method\":\"tools/call\",\"params\":"
+                    + "{\"name\":\"get_weather_forecast\",\"arguments\":{\"location\":\"武汉\"}}}";
+            // 上游还没有响应时处理线程就返回待定响应，不等待彩云天气数据
+            McpReply reply = handler.submit(() -> forecastServer.handle(new JsonParser().parse(body)))
+                    .get(2, TimeUnit.SECONDS);
+            assertNull(reply.getJson());
+            assertEquals(1, forecastServer.getAdmissionController().getInFlight());
+
+            upstreamReleased.countDown();
+            JsonObject response = new JsonParser().parse(new String(reply.toBytes(), StandardCharsets.UTF_8)).getAsJsonObject();
+            assertEquals(7, response.get("id").getAsInt());
+            assertEquals("success", response.getAsJsonObject("result").get("status").getAsString());
+            // 许可在上游完成的回调中释放
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (forecastServer.getAdmissionController().getInFlight() > 0) {
+                assertTrue("上游完成后应释放许可", System.nanoTime() < deadline);
+                Thread.sleep(5);
+            }
+        } finally {
+            upstreamReleased.countDown();
+            handler.shutdownNow();
+            forecastServer.stopServer();
+            stopCaiyun(caiyun);
+        }
+    }
+
+    @Test
+    public void invalidContentLengthIsBadRequest() throws IOException {
+        String response = sendRaw("POST / HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Type: application/json\r\n"
+                + "Content-Length: 12abc\r\n\r\n{\"id\":1}");
+
+        assertTrue(response, response.startsWith("HTTP/1.1 400"));
+        assertTrue(response, response.toLowerCase(Locale.US).contains("connection: close"));
+    }
+
+    @Test
+    public void missingContentLengthIsRejected() throws IOException {
+        String response = sendRaw("POST / HTTP/1.1\r\nHost: 127.0.0.1\r\nConnection: close\r\n\r\n");
+
+        assertTrue(response, response.startsWith("HTTP/1.1 411"));
+    }
+
+    private static JsonObject call(int id) throws IOException {
+        String body = "{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"method\":\"tools/call\",\"params\":"
+                + "{\"name\":\"get_weather_forecast\",\"arguments\":{\"location\":\"不存在的地方\"}}}";
+        Request request = new Request.Builder().url(url).post(RequestBody.create(body, JSON)).build();
+        try (Response response = client.newCall(request).execute()) {
+            assertEquals(200, response.code());
+            return new JsonParser().parse(response.body().string()).getAsJsonObject();
+        }
+    }
+
+    /**
+     * 启动模拟的彩云天气服务器，并加载内置地名库使地名可以解析
+     */
+    private static MockWebServer startCaiyun(Dispatcher dispatcher) throws IOException {
+        MockWebServer caiyun = new MockWebServer();
+        caiyun.setDispatcher(dispatcher);
+        caiyun.start();
+        try (InputStream places = new FileInputStream("src/main/assets/" + Gazetteer.ASSET_NAME)) {
+            LocationResolver.setGazetteer(Gazetteer.load(places));
+        }
+        WeatherService.getInstance().setCaiyunBaseUrl(caiyun.url("/").toString());
+        return caiyun;
+    }
+
+    private static void stopCaiyun(MockWebServer caiyun) throws IOException {
+        caiyun.shutdown();
+        WeatherService.getInstance().setCaiyunBaseUrl(null);
+        LocationResolver.setGazetteer(null);
+    }
+
+    private static Request batchRequest(String serverUrl, int id, String location) {
+        String body = "{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"method\":\"tools/call\",\"params\":"
+                + "{\"name\":\"get_weather_forecast_batch\",\"arguments\":{\"locations\":[\"" + location + "\"]}}}";
+        return new Request.Builder().url(serverUrl).post(RequestBody.create(body, JSON)).build();
+    }
+
+    /**
+     * 直接写入原始HTTP请求，读取到服务器关闭连接为止
+     */
+    private static String sendRaw(String request) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getListeningPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.caiyunweather.utils;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class McpToolRegistryTest {
+    private final AtomicReference<McpToolRegistry.Arguments> received = new AtomicReference<>();
+    private McpToolRegistry registry;
+
+    @Before
+    public void setUp() {
+        McpToolRegistry.Handler record = arguments -> {
+            received.set(arguments);
+            return McpReply.of(new JsonObject());
+        };
+        registry = new McpToolRegistry.Builder()
+                .tool("forecast", "天气预报")
+                .param("location", McpToolRegistry.ParamType.STRING, "地名", true)
+                .param("hours", McpToolRegistry.ParamType.INTEGER, "小时数", false)
+                .param("unit", McpToolRegistry.ParamType.STRING, "温度单位", false)
+                .defaultValue("celsius")
+                .handler(record)
+                .tool("options", "各种类型的参数")
+                .param("ratio", McpToolRegistry.ParamType.NUMBER, "比例", false)
+                .param("enabled", McpToolRegistry.ParamType.BOOLEAN, "开关", false)
+                .param("items", McpToolRegistry.ParamType.ARRAY, "列表", false)
+                .param("extra", McpToolRegistry.ParamType.OBJECT, "对象", false)
+                .handler(record)
+                .build();
+    }
+
+    @Test
+    public void validArgumentsAreDecoded() throws Exception {
+        registry.call("forecast", arguments("{\"location\":\"杭州\",\"hours\":12,\"ignored\":true}"));
+
+        McpToolRegistry.Arguments arguments = received.get();
+        assertEquals("杭州", arguments.getString("location"));
+        assertEquals(12, arguments.get("hours").getAsInt());
+        assertFalse("未声明的参数被忽略", arguments.has("ignored"));
+    }
+
+    @Test
+    public void defaultValueFillsMissingAndNullArguments() throws Exception {
+        registry.call("forecast", arguments("{\"location\":\"杭州\"}"));
+        assertEquals("celsius", received.get().getString("unit"));
+        assertFalse(received.get().has("hours"));
+
+        registry.call("forecast", arguments("{\"location\":\"杭州\",\"unit\":null}"));
+        assertEquals("celsius", received.get().getString("unit"));
+    }
+
+    @Test
+    public void missingRequiredArgumentIsRejected() throws Exception {
+        for (String json : new String[]{"{}", "{\"location\":null}"}) {
+            assertInvalid("forecast", json, "location");
+        }
+        assertInvalid("forecast", null, "location");
+    }
+
+    @Test
+    public void wrongTypesAreRejected() throws Exception {
+        assertInvalid("forecast", "{\"location\":42}", "location");
+        assertInvalid("forecast", "{\"location\":[\"杭州\"]}", "location");
+        assertInvalid("forecast", "{\"location\":\"杭州\",\"hours\":1.5}", "hours");
+        assertInvalid("forecast", "{\"location\":\"杭州\",\"hours\":\"12\"}", "hours");
+        assertInvalid("options", "{\"ratio\":\"0.5\"}", "ratio");
+        assertInvalid("options", "{\"enabled\":\"true\"}", "enabled");
+        assertInvalid("options", "{\"items\":{}}", "items");
+        assertInvalid("options", "{\"extra\":[]}", "extra");
+    }
+
+    @Test
+    public void acceptedTypesPass() throws Exception {
+        registry.call("options", arguments("{\"ratio\":0.5,\"enabled\":false,\"items\":[1],\"extra\":{}}"));
+        registry.call("forecast", arguments("{\"location\":\"杭州\",\"hours\":24.0}"));
+
+        assertEquals(24, received.get().get("hours").getAsInt());
+    }
+
+    @Test
+    public void unknownToolIsRejected() throws Exception {
+        try {
+            registry.call("missing", new JsonObject());
+            fail("未注册的工具应当报错");
+        } catch (McpToolRegistry.UnknownToolException e) {
+            assertTrue(e.getMessage().contains("missing"));
+        }
+        assertNull(received.get());
+    }
+
+    @Test
+    public void listDescribesToolsInDeclarationOrder() throws IOException {
+        JsonObject list = new JsonParser().parse(read(registry.list().openStream())).getAsJsonObject();
+        JsonArray tools = list.getAsJsonArray("tools");
+
+        assertEquals(2, tools.size());
+        JsonObject forecast = tools.get(0).getAsJsonObject();
+        assertEquals("forecast", forecast.get("name").getAsString());
+        JsonObject schema = forecast.getAsJsonObject("inputSchema");
+        assertEquals("object", schema.get("type").getAsString());
+        assertEquals("integer", schema.getAsJsonObject("properties").getAsJsonObject("hours").get("type").getAsString());
+        assertEquals(1, schema.getAsJsonArray("required").size());
+        assertEquals("location", schema.getAsJsonArray("required").get(0).getAsString());
+        assertEquals(Arrays.asList("forecast", "options"), registry.getToolNames());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void duplicateToolIsRejected() {
+        new McpToolRegistry.Builder()
+                .tool("a", "").handler(arguments -> McpReply.EMPTY)
+                .tool("a", "").handler(arguments -> McpReply.EMPTY)
+                .build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void toolWithoutHandlerIsRejected() {
+        new McpToolRegistry.Builder().tool("a", "").build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void defaultValueWithoutParamIsRejected() {
+        new McpToolRegistry.Builder().tool("a", "").defaultValue("x");
+    }
+
+    private void assertInvalid(String tool, String json, String argument) throws Exception {
+        try {
+            registry.call(tool, arguments(json));
+            fail("参数应当被拒绝: " + json);
+        } catch (McpToolRegistry.InvalidArgumentsException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(argument));
+        }
+    }
+
+    private static JsonObject arguments(String json) {
+        if (json == null) {
+            return null;
+        }
+        JsonElement element = new JsonParser().parse(json);
+        return element.getAsJsonObject();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.caiyunweather.utils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * HTTP传输与进程内传输：响应一致、进程内传输的排队上限和每次调用的耗时对比
+ * 服务器监听系统分配的回环端口，测试不访问彩云天气API（tools/call使用未知地名）
+ */
+public class McpTransportTest {
+    private static final int WARMUP_CALLS = 300;
+    private static final int MEASURED_CALLS = 1000;
+    private static final long DEADLINE_MILLIS = 5000;
+
+    private static McpServer server;
+    private static McpTransport http;
+    private static McpTransport inProcess;
+
+    @BeforeClass
+    public static void startServer() {
+        server = new McpServer(0);
+        server.startServer();
+        http = new HttpMcpTransport("http://127.0.0.1:" + server.getListeningPort());
+        inProcess = new InProcessMcpTransport(server);
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stopServer();
+    }
+
+    @Test
+    public void bothTransportsReturnTheSameResponses() throws Exception {
+        for (JsonObject request : Arrays.asList(request(1, "initialize", null), request(2, "tools/list", null), unknownLocationCall(3))) {
+            assertEquals(send(http, request), send(inProcess, request));
+        }
+        JsonObject error = send(inProcess, unknownLocationCall(4)).getAsJsonObject("error");
+        assertEquals(-32602, error.get("code").getAsInt());
+    }
+
+    @Test
+    public void inProcessCallsAreRejectedWhenWorkersAreFull() throws Exception {
+        McpServer small = new McpServer(0);
+        small.configureInProcessWorkers(1, 1);
+        small.startServer();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // 占满唯一的进程内调用线程和长度为1的队列
+            small.submitInProcess(() -> await(release));
+            small.submitInProcess(() -> await(release));
+
+            JsonObject response = send(new InProcessMcpTransport(small), request(9, "tools/list", null));
+
+            JsonObject error = response.getAsJsonObject("error");
+            assertEquals(McpErrorException.SERVER_OVERLOADED, error.get("code").getAsInt());
+            assertTrue(error.getAsJsonObject("data").get("retryAfter").getAsInt() > 0);
+            assertEquals(9, response.get("id").getAsInt());
+        } finally {
+            release.countDown();
+            small.stopServer();
+        }
+    }
+
+    @Test
+    public void idleHttpConnectionsDoNotBlockInProcessCalls() throws Exception {
+        McpServer small = new McpServer(0);
+        small.configureWorkers(1, 1);
+        small.startServer();
+        List<Socket> idle = new ArrayList<>();
+        try {
+            // 两个不发送请求的连接占满唯一的连接处理线程和长度为1的队列
+            for (int i = 0; i < 2; i++) {
+                idle.add(new Socket("127.0.0.1", small.getListeningPort()));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (small.getAsyncRunner().getQueuedConnections() < 1) {
+                assertTrue("空闲连接没有占满连接处理线程", System.nanoTime() < deadline);
+                Thread.sleep(5);
+            }
+
+            JsonObject response = send(new InProcessMcpTransport(small), unknownLocationCall(5));
+
+            assertEquals(-32602, response.getAsJsonObject("error").get("code").getAsInt());
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+            small.stopServer();
+        }
+    }
+
+    @Test
+    public void inProcessCallFailsWhenServerIsStopped() throws Exception {
+        McpServer stopped = new McpServer(0);
+        try {
+            send(new InProcessMcpTransport(stopped), request(1, "tools/list", null));
+            fail("服务器未启动时调用应当失败");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    /**
+     * 每次调用的耗时对比，结果输出到测试日志；只断言进程内传输的中位数低于HTTP传输
+     */
+    @Test
+    public void inProcessLatencyIsLowerThanHttp() throws Exception {
+        JsonObject toolsList = request(1, "tools/list", null);
+        JsonObject toolCall = unknownLocationCall(2);
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            send(http, toolsList);
+            send(inProcess, toolsList);
+        }
+
+        long[] httpList = measure(http, toolsList);
+        long[] inProcessList = measure(inProcess, toolsList);
+        long[] httpCall = measure(http, toolCall);
+        long[] inProcessCall = measure(inProcess, toolCall);
+
+        System.out.println(describe("tools/list", httpList, inProcessList));
+        System.out.println(describe("tools/call", httpCall, inProcessCall));
+        assertTrue(percentile(inProcessList, 50) < percentile(httpList, 50));
+        assertTrue(percentile(inProcessCall, 50) < percentile(httpCall, 50));
+    }
+
+    private static long[] measure(McpTransport transport, JsonObject request) throws Exception {
+        long[] nanos = new long[MEASURED_CALLS];
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            long start = System.nanoTime();
+            send(transport, request);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+
+    private static String describe(String method, long[] httpNanos, long[] inProcessNanos) {
+        return String.format(Locale.US, "%s 每次调用：HTTP p50 %.1f µs / p99 %.1f µs，进程内 p50 %.1f µs / p99 %.1f µs",
+                method,
+                percentile(httpNanos, 50) / 1000.0, percentile(httpNanos, 99) / 1000.0,
+                percentile(inProcessNanos, 50) / 1000.0, percentile(inProcessNanos, 99) / 1000.0);
+    }
+
+    private static JsonObject send(McpTransport transport, JsonObject request) throws Exception {
+        return transport.send(request, DEADLINE_MILLIS, new McpTransport.ResponseHandler<JsonObject>() {
+            @Override
+            public JsonObject fromBytes(byte[] body) {
+                return new JsonParser().parse(new String(body, StandardCharsets.UTF_8)).getAsJsonObject();
+            }
+
+            @Override
+            public JsonObject fromJson(JsonElement response) {
+                return response.getAsJsonObject();
+            }
+        }).get(DEADLINE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static JsonObject request(int id, String method, JsonObject params) {
+        JsonObject request = new JsonObject();
+        request.addProperty("jsonrpc", "2.0");
+        request.addProperty("id", id);
+        request.addProperty("method", method);
+        if (params != null) {
+            request.add("params", params);
+        }
+        return request;
+    }
+
+    private static JsonObject unknownLocationCall(int id) {
+        JsonObject arguments = new JsonObject();
+        arguments.addProperty("location", "不存在的地方");
+        JsonObject params = new JsonObject();
+        params.addProperty("name", "get_weather_forecast");
+        params.add("arguments", arguments);
+        return request(id, "tools/call", params);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
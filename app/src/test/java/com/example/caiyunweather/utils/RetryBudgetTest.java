@@ -0,0 +1,56 @@
+package com.example.caiyunweather.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void startsFullAndRunsOut() {
+        RetryBudget budget = new RetryBudget(0, 0, 3);
+
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+        assertTrue(budget.toString(), budget.toString().contains("已重试 3 次，额度不足 1 次"));
+    }
+
+    @Test
+    public void callsDepositTheRetryRatio() {
+        RetryBudget budget = new RetryBudget(0.5, 0, 1);
+        assertTrue(budget.tryWithdraw());
+
+        budget.deposit();
+        assertFalse("半次额度不够重试", budget.tryWithdraw());
+
+        budget.deposit();
+        assertTrue(budget.tryWithdraw());
+    }
+
+    @Test
+    public void balanceIsCappedAtMax() {
+        RetryBudget budget = new RetryBudget(1, 0, 2);
+        for (int i = 0; i < 10; i++) {
+            budget.deposit();
+        }
+
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    public void balanceRefillsOverTime() throws InterruptedException {
+        RetryBudget budget = new RetryBudget(0, 20, 1);
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+
+        // 每秒补充20次，100ms后至少补满1次
+        Thread.sleep(100);
+
+        assertTrue(budget.tryWithdraw());
+    }
+}
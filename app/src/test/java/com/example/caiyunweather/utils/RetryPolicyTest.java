@@ -0,0 +1,210 @@
+package com.example.caiyunweather.utils;
+
+import com.google.gson.stream.MalformedJsonException;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void transientFailuresAreRetriedUntilSuccess() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        RetryPolicy policy = policy(3).build();
+
+        String result = policy.execute(() -> attempts.incrementAndGet() < 3
+                ? failed(new ConnectException("拒绝连接")) : CompletableFuture.completedFuture("晴")).get(5, TimeUnit.SECONDS);
+
+        assertEquals("晴", result);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void lastErrorIsReportedAfterMaxAttempts() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        List<IOException> errors = new ArrayList<>();
+        RetryPolicy policy = policy(4).build();
+
+        Throwable error = failure(policy.execute(() -> {
+            attempts.incrementAndGet();
+            IOException e = new ConnectException("第 " + attempts.get() + " 次");
+            errors.add(e);
+            return failed(e);
+        }));
+
+        assertEquals(4, attempts.get());
+        assertSame(errors.get(3), error);
+    }
+
+    @Test
+    public void nonRetryableErrorIsNotRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        RetryPolicy policy = policy(5).build();
+
+        Throwable error = failure(policy.execute(() -> {
+            attempts.incrementAndGet();
+            return failed(new MalformedJsonException("不是JSON"));
+        }));
+
+        assertTrue(error instanceof MalformedJsonException);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void throwingOperationCountsAsFailedAttempt() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        RetryPolicy policy = policy(3).build();
+
+        Throwable error = failure(policy.execute(() -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("无法发起请求");
+        }));
+
+        assertTrue(error instanceof IllegalStateException);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void retryWaitsForRetryAfter() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        RetryPolicy policy = policy(2).build();
+        long start = System.nanoTime();
+
+        policy.execute(() -> attempts.incrementAndGet() == 1
+                ? failed(new HttpStatusException(503, "", 300)) : CompletableFuture.completedFuture("ok")).get(5, TimeUnit.SECONDS);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 300);
+    }
+
+    @Test
+    public void retryBeyondDeadlineFailsWithOriginalError() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        RetryPolicy policy = policy(5).deadline(500).build();
+        HttpStatusException overloaded = new HttpStatusException(429, "", 10000);
+        long start = System.nanoTime();
+
+        Throwable error = failure(policy.execute(() -> {
+            attempts.incrementAndGet();
+            return failed(overloaded);
+        }));
+
+        assertSame(overloaded, error);
+        assertEquals(1, attempts.get());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+    }
+
+    @Test
+    public void deadlineCancelsRunningAttempt() throws Exception {
+        CompletableFuture<String> attempt = new CompletableFuture<>();
+        RetryPolicy policy = policy(3).build();
+
+        Throwable error = failure(policy.execute(() -> attempt, 100));
+
+        assertTrue(error instanceof TimeoutException);
+        assertTrue(attempt.isCancelled());
+    }
+
+    @Test
+    public void cancellingResultCancelsAttemptAndPendingRetry() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        RetryPolicy policy = new RetryPolicy.Builder("test").maxAttempts(3).delay(200, 200).build();
+
+        CompletableFuture<String> result = policy.execute(() -> {
+            attempts.incrementAndGet();
+            return failed(new ConnectException("拒绝连接"));
+        });
+        result.cancel(true);
+        Thread.sleep(400);
+
+        assertEquals("取消后不再发起重试", 1, attempts.get());
+
+        CompletableFuture<String> attempt = new CompletableFuture<>();
+        policy.execute(() -> attempt).cancel(true);
+        assertTrue(attempt.isCancelled());
+    }
+
+    @Test
+    public void budgetLimitsRetriesAcrossCalls() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        // 只有1次额度，没有按时间补充，首次调用也不存入额度
+        RetryPolicy policy = policy(5).budget(new RetryBudget(0, 0, 1)).build();
+
+        failure(policy.execute(() -> {
+            attempts.incrementAndGet();
+            return failed(new ConnectException("拒绝连接"));
+        }));
+        assertEquals(2, attempts.get());
+
+        attempts.set(0);
+        failure(policy.execute(() -> {
+            attempts.incrementAndGet();
+            return failed(new ConnectException("拒绝连接"));
+        }));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void transientErrorsClassification() {
+        RetryPolicy.ErrorClassifier idempotent = RetryPolicy.transientErrors(true);
+        RetryPolicy.ErrorClassifier unsafe = RetryPolicy.transientErrors(false);
+
+        for (Throwable error : new Throwable[]{new ConnectException(), new UnknownHostException(),
+                new HttpStatusException(429, "", -1), new HttpStatusException(503, "", -1),
+                new HttpStatusException(408, "", -1)}) {
+            assertTrue(error.toString(), idempotent.isRetryable(error));
+            assertTrue(error.toString(), unsafe.isRetryable(error));
+        }
+        for (Throwable error : new Throwable[]{new HttpStatusException(500, "", -1), new SocketTimeoutException()}) {
+            assertTrue(error.toString(), idempotent.isRetryable(error));
+            assertFalse(error.toString(), unsafe.isRetryable(error));
+        }
+        for (Throwable error : new Throwable[]{new HttpStatusException(400, "", -1), new HttpStatusException(404, "", -1),
+                new MalformedJsonException("x"), new CancellationException(), new IllegalStateException()}) {
+            assertFalse(error.toString(), idempotent.isRetryable(error));
+            assertFalse(error.toString(), unsafe.isRetryable(error));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void invalidPolicyIsRejected() {
+        new RetryPolicy.Builder("test").delay(100, 10).build();
+    }
+
+    private static RetryPolicy.Builder policy(int maxAttempts) {
+        return new RetryPolicy.Builder("test").maxAttempts(maxAttempts).delay(1, 5).deadline(5000);
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("调用应当失败");
+        return null;
+    }
+}
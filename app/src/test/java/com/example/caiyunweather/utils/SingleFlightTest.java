@@ -0,0 +1,149 @@
+package com.example.caiyunweather.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+    private final SingleFlight<String, String> flight = new SingleFlight<>();
+
+    @Test
+    public void concurrentCallsForSameKeyShareOneLoad() throws Exception {
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        AtomicInteger loads = new AtomicInteger();
+
+        CompletableFuture<String> first = flight.execute("beijing", () -> {
+            loads.incrementAndGet();
+            return upstream;
+        });
+        CompletableFuture<String> second = flight.execute("beijing", () -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture("不应调用");
+        });
+        upstream.complete("晴");
+
+        assertEquals("晴", first.get());
+        assertEquals("晴", second.get());
+        assertEquals(1, loads.get());
+        assertEquals(1, flight.getIssuedCount());
+        assertEquals(1, flight.getCoalescedCount());
+        assertEquals(0, flight.getInFlightCount());
+    }
+
+    @Test
+    public void differentKeysLoadIndependently() {
+        CompletableFuture<String> beijing = flight.execute("beijing", CompletableFuture::new);
+        CompletableFuture<String> shanghai = flight.execute("shanghai", () -> CompletableFuture.completedFuture("雨"));
+
+        assertEquals("雨", shanghai.join());
+        assertFalse(beijing.isDone());
+        assertEquals(2, flight.getIssuedCount());
+        assertEquals(1, flight.getInFlightCount());
+    }
+
+    @Test
+    public void completedKeyLoadsAgain() {
+        flight.execute("beijing", () -> CompletableFuture.completedFuture("晴")).join();
+        String second = flight.execute("beijing", () -> CompletableFuture.completedFuture("多云")).join();
+
+        assertEquals("多云", second);
+        assertEquals(2, flight.getIssuedCount());
+        assertEquals(0, flight.getCoalescedCount());
+    }
+
+    @Test
+    public void failureIsSharedAndKeyIsReleased() throws Exception {
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        CompletableFuture<String> first = flight.execute("beijing", () -> upstream);
+        CompletableFuture<String> second = flight.execute("beijing", CompletableFuture::new);
+        upstream.completeExceptionally(new IOException("超时"));
+
+        for (CompletableFuture<String> future : Arrays.asList(first, second)) {
+            try {
+                future.get();
+                fail("上游失败应当传给所有调用方");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        assertEquals(0, flight.getInFlightCount());
+        assertEquals("晴", flight.execute("beijing", () -> CompletableFuture.completedFuture("晴")).join());
+    }
+
+    @Test
+    public void throwingLoaderFailsCallerAndReleasesKey() {
+        CompletableFuture<String> failed = flight.execute("beijing", () -> {
+            throw new IllegalStateException("无法发起请求");
+        });
+
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals(0, flight.getInFlightCount());
+    }
+
+    @Test
+    public void cancellingOneCallerDoesNotAffectOthers() {
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        CompletableFuture<String> first = flight.execute("beijing", () -> upstream);
+        CompletableFuture<String> second = flight.execute("beijing", CompletableFuture::new);
+
+        first.cancel(true);
+        upstream.complete("晴");
+
+        assertFalse(upstream.isCancelled());
+        assertEquals("晴", second.join());
+    }
+
+    @Test
+    public void manyThreadsIssueOneLoad() throws Exception {
+        int threads = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<?>[] results = new CompletableFuture<?>[threads];
+        try {
+            for (int i = 0; i < threads; i++) {
+                CompletableFuture<String> result = new CompletableFuture<>();
+                results[i] = result;
+                pool.execute(() -> {
+                    try {
+                        start.await();
+                        flight.execute("beijing", () -> {
+                            loads.incrementAndGet();
+                            return upstream;
+                        }).whenComplete((value, throwable) -> result.complete(value));
+                    } catch (InterruptedException e) {
+                        result.completeExceptionally(e);
+                    }
+                });
+            }
+            start.countDown();
+            // 所有线程都已挂到同一个请求上之后再完成上游
+            while (flight.getIssuedCount() + flight.getCoalescedCount() < threads) {
+                Thread.sleep(1);
+            }
+            upstream.complete("晴");
+            CompletableFuture.allOf(results).get(5, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1, loads.get());
+        for (CompletableFuture<?> result : results) {
+            assertEquals("晴", result.join());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+#!/usr/bin/env python3
+"""由places.csv生成离线地名库 app/src/main/assets/gazetteer.bin
+
+文件格式（大端序），由 com.example.caiyunweather.utils.Gazetteer 读取：
+
+    头部    int magic("GZT1")、int 地点数、int 汉字索引项数、int 拼音索引项数、int 字符池长度
+    地点    每项16字节：int 经度×1e5、int 纬度×1e5、int 名称在字符池中的位置、short 名称长度、byte 级别、byte 保留
+    汉字索引 每项8字节：int 键在字符池中的位置、short 键长度、short 地点序号，按键的UTF-16顺序排列
+    拼音索引 格式同汉字索引
+    字符池  UTF-16BE字符
+
+同一个键对应多个地点时（例如拼音taizhou），级别高的排在前面。
+每个地名另外以"<地名>市"作为别名编入汉字索引。
+
+用法: python3 tools/gazetteer/build_gazetteer.py [places.csv] [输出文件]
+"""
+import csv
+import os
+import struct
+import sys
+
+HERE = os.path.dirname(os.path.abspath(__file__))
+DEFAULT_SOURCE = os.path.join(HERE, 'places.csv')
+DEFAULT_OUTPUT = os.path.join(HERE, '..', '..', 'app', 'src', 'main', 'assets', 'gazetteer.bin')
+
+
+def read_places(path):
+    places = []
+    with open(path, encoding='utf-8') as f:
+        for row in csv.reader(line for line in f if line.strip() and not line.startswith('#')):
+            name, pinyin, longitude, latitude, level = (value.strip() for value in row)
+            places.append((name, pinyin.lower(), float(longitude), float(latitude), int(level)))
+    return places
+
+
+def utf16_key(text):
+    # 与Java中按char比较的顺序一致
+    return text.encode('utf-16-be')
+
+
+def build(places):
+    pool = []
+    pool_offsets = {}
+
+    def intern(text):
+        if text not in pool_offsets:
+            pool_offsets[text] = sum(len(s) for s in pool)
+            pool.append(text)
+        return pool_offsets[text]
+
+    name_entries = []
+    pinyin_entries = []
+    place_records = []
+    for index, (name, pinyin, longitude, latitude, level) in enumerate(places):
+        place_records.append(struct.pack('>iiihbb', round(longitude * 1e5), round(latitude * 1e5),
+                                         intern(name), len(name), level, 0))
+        name_entries.append((name, level, index))
+        if not name.endswith('市'):
+            name_entries.append((name + '市', level, index))
+        pinyin_entries.append((pinyin, level, index))
+
+    def encode_index(entries):
+        entries = sorted(set(entries), key=lambda e: (utf16_key(e[0]), e[1], e[2]))
+        return [struct.pack('>ihH', intern(key), len(key), index) for key, _, index in entries]
+
+    names = encode_index(name_entries)
+    pinyins = encode_index(pinyin_entries)
+    chars = ''.join(pool)
+
+    header = struct.pack('>4siiii', b'GZT1', len(place_records), len(names), len(pinyins), len(chars))
+    return header + b''.join(place_records) + b''.join(names) + b''.join(pinyins) + chars.encode('utf-16-be')
+
+
+def main():
+    source = sys.argv[1] if len(sys.argv) > 1 else DEFAULT_SOURCE
+    output = sys.argv[2] if len(sys.argv) > 2 else DEFAULT_OUTPUT
+    places = read_places(source)
+    data = build(places)
+    with open(output, 'wb') as f:
+        f.write(data)
+    print('%d places, %d bytes -> %s' % (len(places), len(data), os.path.normpath(output)))
+
+
+if __name__ == '__main__':
+    main()